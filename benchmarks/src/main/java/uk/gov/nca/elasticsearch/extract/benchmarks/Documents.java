@@ -0,0 +1,150 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract.benchmarks;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Generates synthetic documents and pipeline configurations for the benchmarks.
+ *
+ * Documents are generated from a fixed seed so that every run (and every fork) sees the same
+ * text, which keeps results comparable against the committed baseline.
+ */
+final class Documents {
+
+  /**
+   * Processor mix containing only the Email processor
+   */
+  static final String MIX_EMAIL = "email";
+
+  /**
+   * Processor mix containing the Email and EpochTime processors
+   */
+  static final String MIX_EMAIL_EPOCH = "email_epoch";
+
+  private static final String[] WORDS = {
+      "the", "report", "was", "sent", "by", "our", "analyst", "after", "reviewing", "logs",
+      "from", "server", "meeting", "at", "office", "with", "contact", "regarding", "transfer",
+      "of", "funds", "and", "messages", "were", "exchanged", "over", "several", "days"
+  };
+
+  /**
+   * Roughly one word in this many is replaced by an entity
+   */
+  private static final int ENTITY_RATE = 40;
+
+  private Documents(){
+    //Utility class
+  }
+
+  /**
+   * Returns the names of the fields used in generated documents
+   */
+  static List<String> fieldNames(int fieldCount){
+    List<String> fields = new ArrayList<>(fieldCount);
+    for(int i = 0; i < fieldCount; i++)
+      fields.add("field_" + i);
+
+    return fields;
+  }
+
+  /**
+   * Generates a document with the given number of fields, each containing approximately
+   * fieldSize characters of text
+   */
+  static Map<String, Object> document(int fieldCount, int fieldSize){
+    Random random = new Random(42L);
+
+    Map<String, Object> document = new HashMap<>();
+    for(String field : fieldNames(fieldCount))
+      document.put(field, text(random, fieldSize));
+
+    return document;
+  }
+
+  /**
+   * Generates approximately length characters of text, interspersed with e-mail addresses and
+   * epoch times
+   */
+  static String text(Random random, int length){
+    StringBuilder sb = new StringBuilder(length + 32);
+
+    while(sb.length() < length){
+      int r = random.nextInt(ENTITY_RATE);
+      if(r == 0){
+        sb.append("user").append(random.nextInt(1000)).append("@example.com");
+      }else if(r == 1){
+        sb.append(1500000000L + random.nextInt(100000000));
+      }else{
+        sb.append(WORDS[random.nextInt(WORDS.length)]);
+      }
+      sb.append(' ');
+    }
+
+    return sb.toString();
+  }
+
+  /**
+   * Returns the configuration for the processors in the named mix, in the form accepted by
+   * the `processors` property of the extract processor
+   */
+  static List<Map<String, Object>> processors(String mix){
+    List<Map<String, Object>> processors = new ArrayList<>();
+    processors.add(processor("io.annot8.components.cyber.processors.Email"));
+
+    if(MIX_EMAIL_EPOCH.equals(mix)){
+      Map<String, Object> epoch = processor("io.annot8.components.cyber.processors.EpochTime");
+
+      Map<String, Object> settings = new HashMap<>();
+      settings.put("milliseconds", false);
+      epoch.put("settings", settings);
+
+      processors.add(epoch);
+    }else if(!MIX_EMAIL.equals(mix)){
+      throw new IllegalArgumentException("Unknown processor mix " + mix);
+    }
+
+    return processors;
+  }
+
+  /**
+   * Returns a new configuration map for the extract processor. A new map is required each time,
+   * as the factory consumes the properties it reads.
+   */
+  static Map<String, Object> config(int fieldCount, boolean allFields, String mix){
+    Map<String, Object> config = new HashMap<>();
+    if(allFields){
+      config.put("process_all_fields", true);
+    }else{
+      config.put("fields", fieldNames(fieldCount));
+    }
+    config.put("processors", processors(mix));
+
+    return config;
+  }
+
+  private static Map<String, Object> processor(String clazz){
+    Map<String, Object> processor = new HashMap<>();
+    processor.put("class", clazz);
+
+    return processor;
+  }
+}
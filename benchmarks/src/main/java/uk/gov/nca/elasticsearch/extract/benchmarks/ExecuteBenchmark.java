@@ -0,0 +1,97 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract.benchmarks;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.elasticsearch.ingest.IngestDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.gov.nca.elasticsearch.extract.ExtractProcessor;
+
+/**
+ * Measures {@link ExtractProcessor#execute(IngestDocument)} across document sizes, field counts
+ * and processor mixes.
+ *
+ * Throughput mode reports operations per millisecond, and sample mode reports the latency
+ * distribution (including p99). Run with `-prof gc` to record the allocation rate.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class ExecuteBenchmark {
+
+  /**
+   * Approximate number of characters in each field
+   */
+  @Param({"256", "4096", "65536"})
+  public int fieldSize;
+
+  /**
+   * Number of text fields in each document
+   */
+  @Param({"1", "4", "16"})
+  public int fieldCount;
+
+  /**
+   * Whether the pipeline uses process_all_fields rather than an explicit field list
+   */
+  @Param({"false", "true"})
+  public boolean allFields;
+
+  /**
+   * Annot8 processors used by the pipeline
+   */
+  @Param({Documents.MIX_EMAIL, Documents.MIX_EMAIL_EPOCH})
+  public String processors;
+
+  private ExtractProcessor processor;
+  private Map<String, Object> source;
+
+  @Setup
+  public void setup() throws Exception {
+    processor = new ExtractProcessor.Factory()
+        .create(Collections.emptyMap(), "benchmark", Documents.config(fieldCount, allFields, processors));
+    source = Documents.document(fieldCount, fieldSize);
+  }
+
+  /**
+   * Executes the processor against a fresh document. The document is a shallow copy of the
+   * generated source so that the target field from a previous invocation is never processed.
+   */
+  @Benchmark
+  public IngestDocument execute() throws Exception {
+    IngestDocument ingestDocument = new IngestDocument(new HashMap<>(source), Collections.emptyMap());
+    processor.execute(ingestDocument);
+
+    return ingestDocument;
+  }
+}
@@ -0,0 +1,106 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+import org.elasticsearch.common.settings.Settings;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.gov.nca.elasticsearch.extract.ExtractProcessor;
+import uk.gov.nca.elasticsearch.extract.ExtractService;
+
+/**
+ * Measures {@link ExtractProcessor.Factory#create}, which Elasticsearch calls on every node
+ * whenever a pipeline using the extract processor is created or updated.
+ *
+ * Processors are created untracked and closed after each invocation, outside the measured time,
+ * so every invocation creates and configures its Annot8 processors rather than sharing the pools
+ * of an earlier processor. Each iteration uses a new {@link ExtractService}, so no node level state
+ * is carried over between iterations.
+ *
+ * Throughput mode reports operations per millisecond, and sample mode reports the latency
+ * distribution (including p99). Run with `-prof gc` to record the allocation rate.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(2)
+@State(Scope.Benchmark)
+public class FactoryBenchmark {
+
+  /**
+   * Number of fields listed in the configuration
+   */
+  @Param({"1", "16"})
+  public int fieldCount;
+
+  /**
+   * Whether the pipeline uses process_all_fields rather than an explicit field list
+   */
+  @Param({"false", "true"})
+  public boolean allFields;
+
+  /**
+   * Annot8 processors used by the pipeline
+   */
+  @Param({Documents.MIX_EMAIL, Documents.MIX_EMAIL_EPOCH})
+  public String processors;
+
+  private ExtractService service;
+  private ExtractProcessor.Factory factory;
+  private ExtractProcessor processor;
+
+  @Setup(Level.Iteration)
+  public void setup(){
+    service = new ExtractService(Settings.EMPTY);
+    factory = new ExtractProcessor.Factory(service);
+  }
+
+  @TearDown(Level.Invocation)
+  public void closeProcessor(){
+    if(processor != null){
+      processor.close();
+      processor = null;
+    }
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown(){
+    service.close();
+  }
+
+  /**
+   * Creates a processor from a fresh configuration map (the factory consumes the map it is given)
+   */
+  @Benchmark
+  public ExtractProcessor create() throws Exception {
+    processor = factory.createUntracked("benchmark", Documents.config(fieldCount, allFields, processors));
+    return processor;
+  }
+}
@@ -0,0 +1,90 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+/**
+ * A single mention of an entity in a text: the covered text, the type of the annotation, and its
+ * position in the text. Entities which don't have a position in the text have a begin and end of
+ * -1.
+ */
+final class Entity {
+  private final String type;
+  private final String value;
+  private final int begin;
+  private final int end;
+
+  /**
+   * Create a new entity with the given type, value and position
+   */
+  Entity(String type, String value, int begin, int end){
+    this.type = type;
+    this.value = value;
+    this.begin = begin;
+    this.end = end;
+  }
+
+  /**
+   * Returns the type of the annotation
+   */
+  String getType() {
+    return type;
+  }
+
+  /**
+   * Returns the covered text
+   */
+  String getValue() {
+    return value;
+  }
+
+  /**
+   * Returns the position of the start of the entity in the text, or -1 if it doesn't have one
+   */
+  int getBegin() {
+    return begin;
+  }
+
+  /**
+   * Returns the position of the end of the entity in the text, or -1 if it doesn't have one
+   */
+  int getEnd() {
+    return end;
+  }
+
+  /**
+   * Returns true if the entity has a position in the text
+   */
+  boolean hasOffsets(){
+    return begin >= 0;
+  }
+
+  /**
+   * Returns this entity moved forward by offset characters, for example to convert a position in
+   * a chunk into a position in the original text
+   */
+  Entity shift(int offset){
+    if(offset == 0 || !hasOffsets())
+      return this;
+
+    return new Entity(type, value, begin + offset, end + offset);
+  }
+
+  @Override
+  public String toString() {
+    return type + ":" + value;
+  }
+}
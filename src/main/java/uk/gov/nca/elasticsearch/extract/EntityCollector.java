@@ -0,0 +1,313 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Collects the entities extracted from a document into the value of the target field, removing
+ * duplicates as they are added so that the output is built in a single pass.
+ *
+ * By default, the output is a list of the distinct entity values. If typed, the output is instead
+ * an object with a list of values for each annotation type (e.g. `email`, `epoch_time`). If counts
+ * or offsets are required, each value is replaced by an object holding the value, the number of
+ * times it was mentioned and/or the position of each mention in each field.
+ *
+ * If IDs are required, a stable numeric ID of each distinct entity is also collected (see
+ * {@link Fingerprints#entity(String)}), as it is added.
+ *
+ * If a maximum number of entities is set, new distinct entities are dropped once that many have
+ * been collected, and the output is marked as truncated. Further mentions of entities which have
+ * already been collected are still added, so their counts and offsets are complete.
+ */
+final class EntityCollector {
+
+  /**
+   * Name used for annotations without a type
+   */
+  static final String DEFAULT_TYPE = "entity";
+
+  private static final Map<String, String> TYPE_NAMES = new ConcurrentHashMap<>();
+
+  private final boolean typed;
+  private final boolean counts;
+  private final boolean offsets;
+  private final int maxEntities;
+
+  private final Map<String, Group> groups = new HashMap<>();
+  private final Map<String, Object> typedOutput;
+  private final Group flat;
+  private final List<Long> ids;
+  private final Set<Long> seenIds;
+
+  private int size = 0;
+  private boolean truncated = false;
+
+  /**
+   * Create a new collector which doesn't collect IDs. A maxEntities of 0 means there is no limit.
+   */
+  EntityCollector(boolean typed, boolean counts, boolean offsets, int maxEntities){
+    this(typed, counts, offsets, false, maxEntities);
+  }
+
+  /**
+   * Create a new collector. A maxEntities of 0 means there is no limit.
+   */
+  EntityCollector(boolean typed, boolean counts, boolean offsets, boolean ids, int maxEntities){
+    this.typed = typed;
+    this.counts = counts;
+    this.offsets = offsets;
+    this.maxEntities = maxEntities;
+
+    this.typedOutput = typed ? new LinkedHashMap<>() : null;
+    this.flat = typed ? null : new Group(null);
+    this.ids = ids ? new ArrayList<>() : null;
+    this.seenIds = ids ? new HashSet<>() : null;
+  }
+
+  /**
+   * Adds the entities mentioned in the field with the given name. Returns false if any new
+   * entities were dropped because the maximum number of entities has been reached.
+   */
+  boolean addAll(String field, List<Entity> entities){
+    boolean added = true;
+    for(Entity entity : entities){
+      if(!add(field, entity))
+        added = false;
+    }
+
+    return added;
+  }
+
+  /**
+   * Adds an entity mentioned in the field with the given name. Returns false if it is a new
+   * entity, and was dropped because the maximum number of entities has been reached.
+   */
+  boolean add(String field, Entity entity){
+    Group group = typed ? group(entity.getType()) : flat;
+    Object entry = group.seen.get(entity.getValue());
+
+    if(entry == null){
+      if(isFull()){
+        truncated = true;
+        return false;
+      }
+
+      entry = counts || offsets ? newDetail(entity) : entity.getValue();
+      group.seen.put(entity.getValue(), entry);
+      group.values.add(entry);
+      size++;
+
+      //Entities which differ only in case share an ID, which is only stored once
+      if(ids != null){
+        Long id = Fingerprints.entity(entity.getValue());
+        if(seenIds.add(id))
+          ids.add(id);
+      }
+    }
+
+    if(entry instanceof Map)
+      addMention(castDetail(entry), field, entity);
+
+    return true;
+  }
+
+  /**
+   * Marks the output as truncated, for example because texts weren't processed as the maximum
+   * number of entities had already been reached
+   */
+  void markTruncated(){
+    truncated = true;
+  }
+
+  /**
+   * Returns true if the maximum number of distinct entities has been collected
+   */
+  boolean isFull(){
+    return maxEntities > 0 && size >= maxEntities;
+  }
+
+  /**
+   * Returns true if entities were dropped because the maximum number had been reached
+   */
+  boolean isTruncated(){
+    return truncated;
+  }
+
+  /**
+   * Returns the number of distinct entities collected
+   */
+  int size(){
+    return size;
+  }
+
+  /**
+   * Returns the value to store in the target field
+   */
+  Object getOutput(){
+    return typed ? typedOutput : flat.values;
+  }
+
+  /**
+   * Returns the IDs of the distinct entities, or null if IDs aren't being collected
+   */
+  List<Long> getIds(){
+    return ids;
+  }
+
+  /**
+   * Returns the number of distinct entities in a value previously stored in the target field,
+   * in either the flat or typed form
+   */
+  static int count(Object output){
+    if(output instanceof List)
+      return ((List<?>) output).size();
+
+    if(!(output instanceof Map))
+      return 0;
+
+    int count = 0;
+    for(Object values : ((Map<?, ?>) output).values()){
+      if(values instanceof List)
+        count += ((List<?>) values).size();
+    }
+
+    return count;
+  }
+
+  /**
+   * Returns the name of the output field for entities with the given annotation type. The name is
+   * the last part of the type (after any `/`), converted to lower case words separated by
+   * underscores, so `entity/epochTime` becomes `epoch_time`.
+   */
+  static String typeName(String type){
+    if(type == null || type.isEmpty())
+      return DEFAULT_TYPE;
+
+    return TYPE_NAMES.computeIfAbsent(type, EntityCollector::toTypeName);
+  }
+
+  private static String toTypeName(String type){
+    String name = type.substring(type.lastIndexOf('/') + 1);
+
+    StringBuilder sb = new StringBuilder(name.length() + 4);
+    for(int i = 0; i < name.length(); i++){
+      char c = name.charAt(i);
+      if(Character.isLetterOrDigit(c)){
+        //Split camel case words
+        if(Character.isUpperCase(c) && i > 0 && (Character.isLowerCase(name.charAt(i - 1)) || Character.isDigit(name.charAt(i - 1))))
+          sb.append('_');
+
+        sb.append(Character.toLowerCase(c));
+      }else if(sb.length() > 0 && sb.charAt(sb.length() - 1) != '_'){
+        sb.append('_');
+      }
+    }
+
+    if(sb.length() > 0 && sb.charAt(sb.length() - 1) == '_')
+      sb.setLength(sb.length() - 1);
+
+    return sb.length() == 0 ? DEFAULT_TYPE : sb.toString();
+  }
+
+  /**
+   * Returns the group for the annotation type, creating it if necessary. Types with the same name
+   * share a group.
+   */
+  private Group group(String type){
+    Group group = groups.get(type);
+    if(group != null)
+      return group;
+
+    String name = typeName(type);
+    for(Group g : groups.values()){
+      if(name.equals(g.name)){
+        groups.put(type, g);
+        return g;
+      }
+    }
+
+    group = new Group(name);
+    groups.put(type, group);
+    typedOutput.put(name, group.values);
+
+    return group;
+  }
+
+  /**
+   * Creates the object representing an entity when counts or offsets are required
+   */
+  private Map<String, Object> newDetail(Entity entity){
+    Map<String, Object> detail = new LinkedHashMap<>();
+    detail.put("value", entity.getValue());
+    if(!typed)
+      detail.put("type", typeName(entity.getType()));
+    if(counts)
+      detail.put("count", 0);
+    if(offsets)
+      detail.put("offsets", new ArrayList<>());
+
+    return detail;
+  }
+
+  /**
+   * Records a mention of an entity in the object representing it
+   */
+  private void addMention(Map<String, Object> detail, String field, Entity entity){
+    if(counts)
+      detail.put("count", (Integer) detail.get("count") + 1);
+
+    if(offsets && entity.hasOffsets()){
+      Map<String, Object> offset = new HashMap<>(4);
+      offset.put("field", field);
+      offset.put("start", entity.getBegin());
+      offset.put("end", entity.getEnd());
+
+      castList(detail.get("offsets")).add(offset);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> castDetail(Object o){
+    return (Map<String, Object>) o;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<Object> castList(Object o){
+    return (List<Object>) o;
+  }
+
+  /**
+   * The distinct entities of a single type (or of all types, if the output isn't typed)
+   */
+  private static final class Group {
+    private final String name;
+    private final List<Object> values = new ArrayList<>();
+    private final Map<String, Object> seen = new HashMap<>();
+
+    private Group(String name){
+      this.name = name;
+    }
+  }
+}
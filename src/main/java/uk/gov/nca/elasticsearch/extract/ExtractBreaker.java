@@ -0,0 +1,176 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import org.elasticsearch.common.breaker.CircuitBreaker;
+import org.elasticsearch.common.breaker.CircuitBreakingException;
+import org.elasticsearch.common.breaker.MemoryCircuitBreaker;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Setting.Property;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.xcontent.ToXContentFragment;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * Node level circuit breaker for the memory used while extracting entities from documents.
+ *
+ * The memory used by the Annot8 contents and annotations created for a document, and by the
+ * entities extracted from it, is estimated as they are created and charged to the breaker. If the
+ * total estimated by all documents being processed on the node would exceed the limit, the
+ * document is rejected with a {@link CircuitBreakingException} rather than risking the node
+ * running out of memory. The memory is released once the document has been processed.
+ */
+class ExtractBreaker implements ToXContentFragment {
+
+  /**
+   * Name of the breaker
+   */
+  static final String NAME = "extract";
+
+  /**
+   * Maximum memory (10% of the heap by default) that documents being processed may use. -1
+   * disables the breaker.
+   */
+  static final Setting<ByteSizeValue> BREAKER_LIMIT_SETTING =
+      Setting.memorySizeSetting("extract.breaker.limit", "10%", Property.NodeScope);
+
+  /**
+   * Constant (1.0 by default) by which estimates are multiplied before being compared with the limit
+   */
+  static final Setting<Double> BREAKER_OVERHEAD_SETTING =
+      Setting.doubleSetting("extract.breaker.overhead", 1.0, 0.0, Property.NodeScope);
+
+  //Approximate sizes of the objects created for each content, annotation and entity, excluding text
+  static final long CONTENT_BYTES = 512;
+  static final long ANNOTATION_BYTES = 320;
+  static final long ENTITY_BYTES = 96;
+
+  private final MemoryCircuitBreaker breaker;
+
+  /**
+   * Create a new breaker configured from the node settings
+   */
+  ExtractBreaker(Settings settings){
+    ByteSizeValue limit = BREAKER_LIMIT_SETTING.get(settings);
+    double overhead = BREAKER_OVERHEAD_SETTING.get(settings);
+
+    this.breaker = limit.getBytes() < 0 ? null : new MemoryCircuitBreaker(limit, overhead, Loggers.getLogger(ExtractBreaker.class));
+  }
+
+  /**
+   * Returns true if the breaker is enabled
+   */
+  boolean isEnabled(){
+    return breaker != null;
+  }
+
+  /**
+   * Returns a new account for the memory used by a single document, or null if the breaker is
+   * disabled. The label is used in the message of any exception thrown.
+   */
+  Account account(String label){
+    return breaker == null ? null : new Account(breaker, label);
+  }
+
+  /**
+   * Returns the estimated memory used by a content holding the text
+   */
+  static long contentBytes(String text){
+    return CONTENT_BYTES + 2L * text.length();
+  }
+
+  /**
+   * Returns the estimated memory used by an extracted entity
+   */
+  static long entityBytes(String entity){
+    return ENTITY_BYTES + 2L * entity.length();
+  }
+
+  /**
+   * Returns the estimated memory currently used by documents being processed
+   */
+  long getUsed(){
+    return breaker == null ? 0 : breaker.getUsed();
+  }
+
+  /**
+   * Returns the number of times the breaker has tripped
+   */
+  long getTrippedCount(){
+    return breaker == null ? 0 : breaker.getTrippedCount();
+  }
+
+  @Override
+  public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+    builder.field("enabled", isEnabled());
+    builder.field("limit_size_in_bytes", breaker == null ? -1 : breaker.getLimit());
+    builder.field("estimated_size_in_bytes", getUsed());
+    builder.field("overhead", breaker == null ? 1.0 : breaker.getOverhead());
+    builder.field("tripped", getTrippedCount());
+
+    return builder;
+  }
+
+  /**
+   * The memory charged to the breaker for a single document, which may be added to by several
+   * threads (when long texts are split into chunks)
+   */
+  static final class Account implements AutoCloseable {
+    private final CircuitBreaker breaker;
+    private final String label;
+    private final AtomicLong reserved = new AtomicLong();
+    private boolean closed = false;
+
+    private Account(CircuitBreaker breaker, String label){
+      this.breaker = breaker;
+      this.label = label;
+    }
+
+    /**
+     * Charges the given number of bytes to the breaker, throwing a {@link CircuitBreakingException}
+     * if this would take it over its limit. Nothing is charged once the account has been closed,
+     * as happens when chunks that were abandoned because their document ran out of time finish.
+     */
+    synchronized void add(long bytes){
+      if(bytes <= 0 || closed)
+        return;
+
+      breaker.addEstimateBytesAndMaybeBreak(bytes, label);
+      reserved.addAndGet(bytes);
+    }
+
+    /**
+     * Returns the number of bytes charged to the breaker by this account
+     */
+    long getReserved(){
+      return reserved.get();
+    }
+
+    /**
+     * Releases all of the memory charged by this account
+     */
+    @Override
+    public synchronized void close(){
+      closed = true;
+      breaker.addWithoutBreaking(-reserved.getAndSet(0));
+    }
+  }
+}
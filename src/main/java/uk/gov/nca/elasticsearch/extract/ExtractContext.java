@@ -0,0 +1,74 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import io.annot8.common.implementations.context.SimpleContext;
+import io.annot8.core.settings.Settings;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Annot8 context used to configure the processors in a {@link ProcessorPool}, which also gives
+ * them the gazetteers to use.
+ *
+ * Every instance created for the same generation of a pool is configured with a context holding
+ * the same snapshot of the gazetteers, whichever thread creates it, so all of them use the same
+ * gazetteers.
+ *
+ * The context also records the version of each gazetteer used, so that the resources a processor
+ * was configured with can be included in fingerprints.
+ */
+class ExtractContext extends SimpleContext {
+
+  private final Gazetteers.Snapshot gazetteers;
+  private final Map<String, String> versions = new TreeMap<>();
+
+  /**
+   * Create a new context with the given processor settings, and gazetteers from the snapshot
+   */
+  ExtractContext(Settings settings, Gazetteers.Snapshot gazetteers){
+    super(Collections.singletonList(settings));
+    this.gazetteers = gazetteers;
+  }
+
+  /**
+   * Returns the named gazetteer from the snapshot, loading it if it hasn't already been loaded
+   */
+  Gazetteer getGazetteer(String name, boolean ignoreCase) throws IOException {
+    Gazetteer gazetteer = gazetteers.get(name, ignoreCase);
+    synchronized (versions) {
+      versions.put(ignoreCase ? name + "/ignore_case" : name, gazetteer.getVersion());
+    }
+
+    return gazetteer;
+  }
+
+  /**
+   * Returns the name and version of each gazetteer used through this context, one per line, or
+   * an empty string if none were used
+   */
+  String getResources(){
+    StringBuilder sb = new StringBuilder();
+    synchronized (versions) {
+      versions.forEach((name, version) -> sb.append(name).append('=').append(version).append('\n'));
+    }
+
+    return sb.toString();
+  }
+}
@@ -16,22 +16,103 @@ limitations under the License.
 
 package uk.gov.nca.elasticsearch.extract;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Supplier;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.cluster.metadata.IndexNameExpressionResolver;
+import org.elasticsearch.cluster.node.DiscoveryNodes;
+import org.elasticsearch.cluster.service.ClusterService;
 import org.elasticsearch.common.collect.MapBuilder;
+import org.elasticsearch.common.io.stream.NamedWriteableRegistry;
+import org.elasticsearch.common.settings.ClusterSettings;
+import org.elasticsearch.common.settings.IndexScopedSettings;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.settings.SettingsFilter;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.env.NodeEnvironment;
 import org.elasticsearch.ingest.Processor;
 import org.elasticsearch.ingest.Processor.Factory;
+import org.elasticsearch.plugins.ActionPlugin;
 import org.elasticsearch.plugins.IngestPlugin;
 import org.elasticsearch.plugins.Plugin;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestHandler;
+import org.elasticsearch.script.ScriptService;
+import org.elasticsearch.threadpool.ExecutorBuilder;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.watcher.ResourceWatcherService;
 
 /**
- * Implementation of Elasticsearch Ingest Plugin
+ * Implementation of Elasticsearch Ingest Plugin, which also provides REST endpoints for
+ * monitoring the extract processors
  */
-public class ExtractPlugin extends Plugin implements IngestPlugin {
+public class ExtractPlugin extends Plugin implements IngestPlugin, ActionPlugin {
+
+  private final ExtractService service;
+
+  /**
+   * Create a new instance of the plugin, with node level resources configured from the
+   * node settings
+   */
+  public ExtractPlugin(Settings settings){
+    this.service = new ExtractService(settings);
+  }
+
+  @Override
+  public List<Setting<?>> getSettings() {
+    return ExtractService.SETTINGS;
+  }
+
+  @Override
+  public Collection<Object> createComponents(Client client, ClusterService clusterService,
+      ThreadPool threadPool, ResourceWatcherService resourceWatcherService,
+      ScriptService scriptService, NamedXContentRegistry xContentRegistry,
+      Environment environment, NodeEnvironment nodeEnvironment,
+      NamedWriteableRegistry namedWriteableRegistry) {
+    //Processors are closed once the pipelines they belong to have been replaced
+    clusterService.addListener(service.getPipelineTracker());
+    return Collections.emptyList();
+  }
 
   @Override
   public Map<String, Factory> getProcessors(Processor.Parameters parameters) {
+    service.setEnvironment(parameters.env);
+    service.getGazetteers().setDirectory(parameters.env.configFile().resolve("extract").resolve("gazetteers"));
+
     return MapBuilder.<String, Processor.Factory>newMapBuilder()
-        .put(ExtractProcessor.TYPE, new ExtractProcessor.Factory())
+        .put(ExtractProcessor.TYPE, new ExtractProcessor.Factory(service))
         .immutableMap();
   }
+
+  @Override
+  public List<RestHandler> getRestHandlers(Settings settings, RestController restController,
+      ClusterSettings clusterSettings, IndexScopedSettings indexScopedSettings,
+      SettingsFilter settingsFilter, IndexNameExpressionResolver indexNameExpressionResolver,
+      Supplier<DiscoveryNodes> nodesInCluster) {
+    return Arrays.asList(
+        new RestExtractStatsAction(settings, restController, service),
+        new RestExtractBulkAction(settings, restController, service),
+        new RestExtractReloadAction(settings, restController, service),
+        new RestExtractProfileAction(settings, restController, service)
+    );
+  }
+
+  @Override
+  public List<ExecutorBuilder<?>> getExecutorBuilders(Settings settings) {
+    return Arrays.asList(
+        RestExtractBulkAction.executorBuilder(settings),
+        RestExtractProfileAction.executorBuilder(settings)
+    );
+  }
+
+  @Override
+  public void close() {
+    service.close();
+  }
 }
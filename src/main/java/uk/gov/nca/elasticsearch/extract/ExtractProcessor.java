@@ -17,49 +17,79 @@ limitations under the License.
 package uk.gov.nca.elasticsearch.extract;
 
 import static org.elasticsearch.ingest.ConfigurationUtils.readBooleanProperty;
+import static org.elasticsearch.ingest.ConfigurationUtils.readIntProperty;
 import static org.elasticsearch.ingest.ConfigurationUtils.readList;
+import static org.elasticsearch.ingest.ConfigurationUtils.readMap;
 import static org.elasticsearch.ingest.ConfigurationUtils.readStringProperty;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
 import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
 import com.fasterxml.jackson.module.paramnames.ParameterNamesModule;
-import io.annot8.common.implementations.context.SimpleContext;
+import io.annot8.common.data.bounds.SpanBounds;
 import io.annot8.common.implementations.data.BaseItemFactory;
 import io.annot8.common.implementations.data.WrappingBaseItemToItem;
 import io.annot8.common.implementations.factories.SimpleItemFactory;
 import io.annot8.common.implementations.registries.ContentBuilderFactoryRegistry;
+import io.annot8.core.annotations.Annotation;
 import io.annot8.core.components.Processor;
 import io.annot8.core.components.responses.ProcessorResponse;
 import io.annot8.core.components.responses.ProcessorResponse.Status;
-import io.annot8.core.context.Context;
 import io.annot8.core.data.Item;
 import io.annot8.core.data.ItemFactory;
 import io.annot8.core.exceptions.Annot8Exception;
 import io.annot8.core.exceptions.ProcessingException;
+import io.annot8.core.settings.EmptySettings;
 import io.annot8.core.settings.Settings;
 import io.annot8.core.settings.SettingsClass;
 import io.annot8.defaultimpl.content.DefaultText;
 import io.annot8.defaultimpl.factories.DefaultBaseItemFactory;
 import io.annot8.defaultimpl.factories.DefaultContentBuilderFactoryRegistry;
+import java.io.Closeable;
+import java.lang.ref.Cleaner.Cleanable;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.elasticsearch.ElasticsearchTimeoutException;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.SlowLogLevel;
 import org.elasticsearch.ingest.AbstractProcessor;
 import org.elasticsearch.ingest.IngestDocument;
+import uk.gov.nca.elasticsearch.extract.ExtractBreaker.Account;
+import uk.gov.nca.elasticsearch.extract.ExtractSettings.InitPolicy;
+import uk.gov.nca.elasticsearch.extract.ExtractSettings.OutputMode;
+import uk.gov.nca.elasticsearch.extract.ExtractSettings.Preprocessing;
 import uk.gov.nca.elasticsearch.extract.ExtractSettings.ProcessorSettingsPair;
+import uk.gov.nca.elasticsearch.extract.ExtractSettings.TimeoutPolicy;
+import uk.gov.nca.elasticsearch.extract.ExtractStats.PipelineStats;
+import uk.gov.nca.elasticsearch.extract.ExtractStats.ProcessorStats;
+import uk.gov.nca.elasticsearch.extract.TextChunker.Chunk;
+import uk.gov.nca.elasticsearch.extract.TextPreprocessor.Preprocessed;
 
 /**
  * Elasticsearch processor which uses Annot8 to extract entities from Elasticsearch documents
  * and appends the extracted entities to the document in a target field so that they can be
  * searched explicitly.
  */
-public class ExtractProcessor extends AbstractProcessor {
+public class ExtractProcessor extends AbstractProcessor implements Closeable {
 
   /**
    * The type defined by this processor (used for settings)
@@ -86,12 +116,168 @@ public class ExtractProcessor extends AbstractProcessor {
    */
   public static final String CONFIG_PROCESSORS = "processors";
 
-  private final Set<String> fields;
+  /**
+   * Name of setting used to control the maximum number of instances of each processor
+   */
+  public static final String CONFIG_POOL_SIZE = "pool_size";
+
+  /**
+   * Name of setting used to control whether the literal prefilter is used
+   */
+  public static final String CONFIG_PREFILTER = "prefilter";
+
+  /**
+   * Name of setting used to control whether results are cached
+   */
+  public static final String CONFIG_CACHE = "cache";
+
+  /**
+   * Name of setting used to control the length above which texts are split into chunks
+   */
+  public static final String CONFIG_CHUNK_THRESHOLD = "chunk_threshold";
+
+  /**
+   * Name of setting used to control the maximum length of each chunk
+   */
+  public static final String CONFIG_CHUNK_SIZE = "chunk_size";
+
+  /**
+   * Name of setting used to control the overlap between consecutive chunks
+   */
+  public static final String CONFIG_CHUNK_OVERLAP = "chunk_overlap";
+
+  /**
+   * Name of setting used to control the time allowed for processing each document
+   */
+  public static final String CONFIG_TIMEOUT = "timeout";
+
+  /**
+   * Name of setting used to control what happens when a document runs out of time
+   */
+  public static final String CONFIG_TIMEOUT_POLICY = "timeout_policy";
+
+  /**
+   * Name of setting used to control where the source fingerprint is stored
+   */
+  public static final String CONFIG_FINGERPRINT_FIELD = "fingerprint_field";
+
+  /**
+   * Name of setting used to control where the numeric IDs of the entities are stored
+   */
+  public static final String CONFIG_IDS_FIELD = "ids_field";
+
+  /**
+   * Name of setting used to control whether processors are run in parallel on each document
+   */
+  public static final String CONFIG_PARALLEL_PROCESSORS = "parallel_processors";
+
+  /**
+   * Name of setting used to configure the slow log
+   */
+  public static final String CONFIG_SLOWLOG = "slowlog";
+
+  /**
+   * Name of setting used to control when processors are created and configured
+   */
+  public static final String CONFIG_INIT = "init";
+
+  /**
+   * Name of setting used to control the number of times the warmup texts are processed
+   */
+  public static final String CONFIG_WARMUP = "warmup";
+
+  /**
+   * Name of setting used to provide the sample texts processed during warmup
+   */
+  public static final String CONFIG_WARMUP_TEXTS = "warmup_texts";
+
+  /**
+   * Name of setting used to control the form in which entities are stored
+   */
+  public static final String CONFIG_OUTPUT = "output";
+
+  /**
+   * Name of setting used to control whether the number of mentions of each entity is stored
+   */
+  public static final String CONFIG_OUTPUT_COUNTS = "output_counts";
+
+  /**
+   * Name of setting used to control whether the position of each mention is stored
+   */
+  public static final String CONFIG_OUTPUT_OFFSETS = "output_offsets";
+
+  /**
+   * Name of setting used to control the maximum number of entities stored for each document
+   */
+  public static final String CONFIG_MAX_ENTITIES = "max_entities";
+
+  /**
+   * Name of setting used to define the steps applied to each text before it is processed
+   */
+  public static final String CONFIG_PREPROCESS = "preprocess";
+
+  /**
+   * Name of the field set to true on documents which ran out of time (if the timeout policy is
+   * to tag them)
+   */
+  public static final String TIMED_OUT_FIELD = "_extract_timed_out";
+
+  /**
+   * Name of the field set to true on documents which had more entities than the maximum
+   */
+  public static final String TRUNCATED_FIELD = "_extract_truncated";
+
+  private final List<FieldPath> fields = new ArrayList<>();
   private final boolean allFields;
   private final String targetField;
-  private final List<Processor> processors = new ArrayList<>();
+  private final String idsField;
+  private final Set<String> excludedFields;
+  private final boolean typedOutput;
+  private final boolean outputCounts;
+  private final boolean outputOffsets;
+  private final int maxEntities;
+  private final TextPreprocessor preprocessor;
+  private final List<ProcessorPool> processors = new ArrayList<>();
+  private volatile List<ProcessorStats> processorStats;
+  private final LiteralPrefilter prefilter;
+  private final ExtractSlowLog slowLog;
+  private final ExtractBreaker breaker;
+  private final String breakerLabel;
+  private final FieldRouter router;
+  private final int[] allProcessors;
+  private volatile PipelineStats stats;
 
   private final ItemFactory itemFactory;
+  private final ResultCache resultCache;
+  private final String fingerprint;
+
+  private final String fingerprintField;
+  private final String configuration;
+
+  private final TextChunker chunker;
+  private final ForkJoinPool chunkPool;
+  private final boolean parallelProcessors;
+
+  private final long timeoutNanos;
+  private final long[] processorTimeouts;
+  private final TimeoutPolicy timeoutPolicy;
+
+  private final ProcessorRegistry registry;
+  private final List<ProcessorSettingsPair> processorSettings;
+  private final int poolSize;
+  private volatile boolean initialised = false;
+  private boolean closed = false;
+  private Cleanable cleanable = null;
+
+  /**
+   * Sample texts processed during warmup if none are configured, which contain the sorts of
+   * entities that the Annot8 processors commonly extract
+   */
+  static final List<String> DEFAULT_WARMUP_TEXTS = Collections.unmodifiableList(Arrays.asList(
+      "Please contact John Smith at john.smith@example.com or on +44 20 7946 0958 before 12 March 2018.",
+      "A payment of GBP 1,250.00 was made from 192.168.1.10 via https://www.example.com/account?id=1234 at 2018-03-12T10:15:00Z.",
+      "The vessel left Southampton (50.9097, -1.4044) at 06:30, carrying 3 containers with reference ABC-123-XYZ, bound for Rotterdam."
+  ));
 
   private static final ObjectMapper objectMapper = new ObjectMapper()
       .registerModule(new JavaTimeModule())
@@ -99,18 +285,60 @@ public class ExtractProcessor extends AbstractProcessor {
       .registerModule(new ParameterNamesModule());
 
   /**
-   * Create a new instance of the ExtractProcessor with the specified tag and settings.
+   * Create a new instance of the ExtractProcessor with the specified tag and settings, using
+   * node level resources configured with the default node settings.
    *
    * The tag does not affect behaviour and is used by Elasticsearch to help with
    * bookkeeping and tracing errors.
    */
   public ExtractProcessor(String tag, ExtractSettings settings) throws Exception{
+    this(tag, settings, new ExtractService(org.elasticsearch.common.settings.Settings.EMPTY));
+  }
+
+  /**
+   * Create a new instance of the ExtractProcessor with the specified tag and settings, using
+   * the node level resources held by the given service.
+   *
+   * The tag does not affect behaviour and is used by Elasticsearch to help with
+   * bookkeeping and tracing errors.
+   */
+  public ExtractProcessor(String tag, ExtractSettings settings, ExtractService service) throws Exception{
     super(tag);
 
     //Store configuration
-    this.fields = settings.getFields();
+    settings.getFields().stream()
+        .map(FieldPath::compile)
+        .forEach(this.fields::add);
     this.allFields = settings.isAllFields();
     this.targetField = settings.getTargetField();
+    this.idsField = settings.getIdsField();
+    this.typedOutput = settings.getOutput() == OutputMode.TYPED;
+    this.outputCounts = settings.isOutputCounts();
+    this.outputOffsets = settings.isOutputOffsets();
+    this.maxEntities = settings.getMaxEntities();
+    this.preprocessor = TextPreprocessor.forSteps(settings.getPreprocessing());
+
+    //Don't extract from previously extracted entities (or their fingerprint) when processing all fields
+    this.fingerprintField = settings.getFingerprintField();
+    if(fingerprintField == null){
+      this.excludedFields = Collections.singleton(FieldPath.compile(targetField).getPath());
+    }else{
+      this.excludedFields = new HashSet<>(Arrays.asList(FieldPath.compile(targetField).getPath(), FieldPath.compile(fingerprintField).getPath()));
+    }
+
+    //Long texts are split into chunks, and processors can be run in parallel, on a node level pool
+    this.chunker = settings.getChunkThreshold() > 0
+        ? new TextChunker(settings.getChunkSize(), settings.getChunkOverlap(), settings.getChunkThreshold())
+        : null;
+    this.parallelProcessors = settings.isParallelProcessors() && settings.getProcessors().size() > 1;
+    this.chunkPool = chunker != null || parallelProcessors ? service.getChunkPool() : null;
+
+    //Time allowed for each document, and optionally for each processor on each document
+    this.timeoutNanos = settings.getTimeout().nanos();
+    this.timeoutPolicy = settings.getTimeoutPolicy();
+    this.processorTimeouts = settings.getProcessors().stream().anyMatch(psp -> psp.getTimeout() != null)
+        ? settings.getProcessors().stream().mapToLong(psp -> psp.getTimeout() == null ? 0 : psp.getTimeout().nanos()).toArray()
+        : null;
 
     //Create Annot8 pipeline
     ContentBuilderFactoryRegistry contentBuilderFactoryRegistry = new DefaultContentBuilderFactoryRegistry();
@@ -118,67 +346,740 @@ public class ExtractProcessor extends AbstractProcessor {
 
     BaseItemFactory bif = new DefaultBaseItemFactory(contentBuilderFactoryRegistry);
 
-    itemFactory = new SimpleItemFactory(bif, new WrappingBaseItemToItem(bif));
-    for(ProcessorSettingsPair psp : settings.getProcessors()){
-      //Instantiate processor
-      Processor p = psp.getProcessor().getConstructor().newInstance();
+    this.itemFactory = new SimpleItemFactory(bif, new WrappingBaseItemToItem(bif));
+
+    //Statistics are private to this processor until it is attached to those of its pipeline
+    this.registry = service.getProcessorRegistry();
+    this.processorSettings = settings.getProcessors();
+    this.stats = new PipelineStats();
+    this.processorStats = processorStats(stats);
+    //Chunks and parallel processors run on the node level pool as well as on the ingest threads,
+    //so the pools have room for both, and threads in the node level pool don't wait for instances
+    //held by ingest threads
+    this.poolSize = chunkPool == null ? settings.getPoolSize() : settings.getPoolSize() + service.getChunkThreads();
+
+    if(settings.getInit() == InitPolicy.LAZY && settings.getWarmup() > 0)
+      throw new IllegalArgumentException("Warmup requires eager initialisation");
+
+    this.prefilter = settings.isPrefilter() ? LiteralPrefilter.forProcessors(settings.getProcessors()) : null;
+
+    //Memory used by each document is charged to the node's breaker
+    this.breaker = service.getBreaker();
+    this.breakerLabel = "<extract:" + (tag == null ? ExtractStats.UNTAGGED : tag) + ">";
+
+    this.slowLog = ExtractSlowLog.forSettings(tag, settings, settings.getProcessors().stream()
+        .map(psp -> psp.getProcessor().getName())
+        .collect(Collectors.toList()));
 
-      //Configure processor with appropriate settings
-      Context context = new SimpleContext(Collections.singletonList(psp.getSettings()));
-      p.configure(context);
+    //Processors which declare fields are only run over those fields, and the routes for fields
+    //which are named explicitly are resolved now
+    this.router = FieldRouter.forProcessors(settings.getProcessors());
+    if(router != null && !allFields)
+      router.prepare(fields.stream().map(FieldPath::getPath).collect(Collectors.toList()));
+    this.allProcessors = IntStream.range(0, settings.getProcessors().size()).toArray();
 
-      this.processors.add(p);
+    //Results are only cached if the cache is enabled on the node and not disabled for this pipeline
+    if(settings.isCache() && service.getResultCache().isEnabled()){
+      this.resultCache = service.getResultCache();
+      this.fingerprint = Fingerprints.processors(settings.getProcessors()) + preprocessingFingerprint();
+    }else{
+      this.resultCache = null;
+      this.fingerprint = null;
     }
+
+    //Source fingerprints cover everything which affects the entities extracted from the texts
+    if(fingerprintField != null){
+      this.configuration = Fingerprints.processors(settings.getProcessors())
+          + "\n" + targetField + "," + idsField + "," + settings.getOutput() + "," + outputCounts + "," + outputOffsets + "," + maxEntities
+          + "\n" + settings.getChunkThreshold() + "," + settings.getChunkSize() + "," + settings.getChunkOverlap()
+          + preprocessingFingerprint();
+    }else{
+      this.configuration = null;
+    }
+
+    //Processors are created now (so that configuration errors are reported when the pipeline is
+    //created) unless they are to be created when the first document is processed
+    if(settings.getInit() == InitPolicy.EAGER){
+      initialise();
+      warmup(settings.getWarmup(), settings.getWarmupTexts().isEmpty() ? DEFAULT_WARMUP_TEXTS : settings.getWarmupTexts());
+    }
+  }
+
+  /**
+   * Creates the pools of processors, if they haven't already been created.
+   *
+   * Pools are shared with other pipelines using identical processors, and each ingest thread
+   * borrows its own configured instance of the processor from the pool.
+   */
+  private void initialise() throws Exception {
+    if(initialised)
+      return;
+
+    synchronized (processors) {
+      if(initialised)
+        return;
+      if(closed)
+        throw new IllegalStateException("Processor has been closed");
+
+      long start = System.nanoTime();
+      try {
+        for(ProcessorSettingsPair psp : processorSettings)
+          processors.add(registry.acquire(psp, poolSize));
+      }catch (Exception e){
+        registry.releaseAll(processors, poolSize);
+        processors.clear();
+        throw e;
+      }
+      cleanable = registry.releaseWhenUnreachable(this, processors, poolSize);
+
+      stats.recordInit(System.nanoTime() - start);
+      initialised = true;
+    }
+  }
+
+  /**
+   * Returns the statistics of each Annot8 processor within the given statistics, in the order
+   * the processors are run
+   */
+  private List<ProcessorStats> processorStats(PipelineStats pipelineStats){
+    List<ProcessorStats> l = new ArrayList<>(processorSettings.size());
+    for(ProcessorSettingsPair psp : processorSettings)
+      l.add(pipelineStats.processor(psp.getProcessor()));
+
+    return l;
+  }
+
+  /**
+   * Records statistics in the given node level statistics from now on, rather than in those
+   * private to this processor. The time taken to initialise and warm up this processor replaces
+   * that of any processor which previously recorded there.
+   */
+  void attach(PipelineStats shared){
+    synchronized (processors) {
+      PipelineStats own = stats;
+      if(own == shared)
+        return;
+
+      if(own.getInitNanos() >= 0){
+        shared.recordInit(own.getInitNanos());
+        shared.recordWarmup(own.getWarmupNanos());
+      }else{
+        shared.resetInit();
+      }
+
+      processorStats = processorStats(shared);
+      stats = shared;
+    }
+  }
+
+  /**
+   * Returns the statistics this processor is recording in
+   */
+  PipelineStats getStats(){
+    return stats;
+  }
+
+  /**
+   * Processes each of the texts the given number of times, so that the code used by the
+   * processors has been compiled before real documents are processed.
+   *
+   * The texts are placed in documents at each of the configured fields, and go through the
+   * same path as real documents, except that results aren't cached and statistics aren't
+   * recorded.
+   */
+  private void warmup(int iterations, List<String> texts){
+    if(iterations == 0)
+      return;
+
+    long start = System.nanoTime();
+    for(int i = 0; i < iterations; i++){
+      for(String text : texts){
+        try {
+          extract(warmupDocument(text), new TimeBudget(System.nanoTime(), 0, null), false, null);
+        }catch (Exception e){
+          //Sample texts aren't real documents, so failures don't prevent the pipeline being used
+        }
+      }
+    }
+
+    stats.recordWarmup(System.nanoTime() - start);
+  }
+
+  /**
+   * Returns a document with the text at each of the fields to be processed
+   */
+  private IngestDocument warmupDocument(String text){
+    IngestDocument ingestDocument = new IngestDocument(new HashMap<>(), new HashMap<>());
+    if(allFields){
+      ingestDocument.setFieldValue("text", text);
+    }else{
+      for(FieldPath field : fields){
+        try {
+          ingestDocument.setFieldValue(field.getPath(), text);
+        }catch (IllegalArgumentException e){
+          //Fields which conflict with those already set are skipped
+        }
+      }
+    }
+
+    return ingestDocument;
   }
 
   @Override
   public void execute(IngestDocument ingestDocument) throws Exception {
+    long start = System.nanoTime();
+    TimeBudget budget = new TimeBudget(start, timeoutNanos, processorTimeouts, slowLog == null ? 0 : processorStats.size());
+    Account account = breaker.account(breakerLabel);
+    boolean success = false;
+    try {
+      initialise();
+      extract(ingestDocument, budget, true, account);
+      success = true;
+    }finally {
+      if(account != null)
+        account.close();
+
+      long took = System.nanoTime() - start;
+      stats.record(took, success);
+
+      if(slowLog != null)
+        logIfSlow(ingestDocument, took, budget, success);
+    }
+  }
+
+  /**
+   * Writes the document to the slow log, if it took long enough. The fields are only read again
+   * for documents which are logged.
+   */
+  private void logIfSlow(IngestDocument ingestDocument, long took, TimeBudget budget, boolean success){
+    SlowLogLevel level = slowLog.level(took, budget);
+    if(level == null)
+      return;
+
+    int entities = ingestDocument.hasField(targetField) ? EntityCollector.count(ingestDocument.getFieldValue(targetField, Object.class)) : 0;
+    slowLog.log(level, ingestDocument, took, budget, readTexts(ingestDocument), entities, success);
+  }
+
+  /**
+   * Extracts entities from the ingest document within the time budget, and adds them to the
+   * target field. If record is false, results aren't cached and statistics aren't recorded. If
+   * account is not null, the estimated memory used is charged to it.
+   */
+  private void extract(IngestDocument ingestDocument, TimeBudget budget, boolean record, Account account) throws Exception {
+    EntityCollector extracted = new EntityCollector(typedOutput, outputCounts, outputOffsets, idsField != null, maxEntities);
+
+    // Read the text of the necessary fields
+    Map<String, String> texts = readTexts(ingestDocument);
+
+    // Versions of the resources the processors use, which change when they are reloaded
+    String resources = resources();
+
+    // Keep the existing entities if neither the text, the configuration nor the resources have
+    // changed since the document was last processed
+    String sourceFingerprint = null;
+    if(fingerprintField != null){
+      sourceFingerprint = Fingerprints.source(configuration + resources, texts);
+
+      if(isUnchanged(ingestDocument, sourceFingerprint)){
+        if(record)
+          stats.recordSkipped();
+
+        return;
+      }
+    }
+
+    // Use cached results where available, leaving only the fields that need processing
+    Map<String, ResultCache.Key> keys = null;
+    if(resultCache != null && record){
+      keys = new HashMap<>();
+
+      Iterator<Map.Entry<String, String>> iter = texts.entrySet().iterator();
+      while(iter.hasNext()){
+        Map.Entry<String, String> e = iter.next();
+        ResultCache.Key key = resultCache.key(cacheFingerprint(e.getKey()) + resources, e.getValue());
+
+        List<Entity> cached = resultCache.get(key);
+        if(cached != null){
+          extracted.addAll(e.getKey(), cached);
+          iter.remove();
+        }else{
+          keys.put(e.getKey(), key);
+        }
+      }
+    }
+
+    // Texts aren't processed once the maximum number of entities has been collected, unless they
+    // could add mentions to the counts or offsets of the entities already collected
+    if(!texts.isEmpty()){
+      if(extracted.isFull() && !outputCounts && !outputOffsets){
+        extracted.markTruncated();
+      }else{
+        process(texts, keys, extracted, budget, record, account);
+      }
+    }
+
+    if(budget.isExceeded()){
+      if(record)
+        stats.recordTimeout();
+
+      if(timeoutPolicy == TimeoutPolicy.FAIL)
+        throw new ElasticsearchTimeoutException("Extraction of document ran out of time");
+
+      ingestDocument.setFieldValue(TIMED_OUT_FIELD, true);
+    }
+
+    if(extracted.isTruncated()){
+      if(record)
+        stats.recordTruncated();
+
+      ingestDocument.setFieldValue(TRUNCATED_FIELD, true);
+    }
+
+    ingestDocument.setFieldValue(targetField, extracted.getOutput());
+    if(idsField != null)
+      ingestDocument.setFieldValue(idsField, extracted.getIds());
+
+    // Entities from documents which ran out of time may be incomplete, so aren't fingerprinted
+    if(sourceFingerprint != null){
+      if(!budget.isExceeded()){
+        ingestDocument.setFieldValue(fingerprintField, sourceFingerprint);
+      }else if(ingestDocument.hasField(fingerprintField)){
+        ingestDocument.removeField(fingerprintField);
+      }
+    }
+  }
+
+  /**
+   * Returns true if the document already holds the given source fingerprint and extracted
+   * entities, in which case it doesn't need to be processed again
+   */
+  private boolean isUnchanged(IngestDocument ingestDocument, String sourceFingerprint){
+    if(!ingestDocument.hasField(fingerprintField) || !ingestDocument.hasField(targetField))
+      return false;
+
+    return sourceFingerprint.equals(ingestDocument.getFieldValue(fingerprintField, Object.class));
+  }
+
+  /**
+   * Runs the Annot8 processors over the texts (keyed by field name), adding the extracted
+   * entities to extracted. If keys is not null, the entities extracted from each field are
+   * also cached under the corresponding key, unless the time budget ran out.
+   *
+   * If preprocessing is configured, each text is preprocessed once before any processors are
+   * run, and the positions of the entities are mapped back to the original text afterwards.
+   */
+  private void process(Map<String, String> texts, Map<String, ResultCache.Key> keys, EntityCollector extracted, TimeBudget budget, boolean record, Account account) throws Exception {
+    Map<String, Preprocessed> preprocessed = null;
+    if(preprocessor != null){
+      preprocessed = new HashMap<>();
+      Map<String, String> normalised = new LinkedHashMap<>();
+
+      long bytes = 0;
+      for(Map.Entry<String, String> e : texts.entrySet()){
+        Preprocessed p = preprocessor.apply(e.getValue());
+        preprocessed.put(e.getKey(), p);
+        normalised.put(e.getKey(), p.getText());
+        bytes += p.bytes();
+      }
+
+      if(account != null)
+        account.add(bytes);
+
+      texts = normalised;
+    }
+
+    // Split long texts into chunks, and process the remaining texts together
+    Map<String, String> whole = texts;
+    Map<String, List<Chunk>> chunked = Collections.emptyMap();
+    if(chunker != null){
+      whole = new LinkedHashMap<>();
+      chunked = new LinkedHashMap<>();
+
+      for(Map.Entry<String, String> e : texts.entrySet()){
+        if(chunker.shouldSplit(e.getValue())){
+          chunked.put(e.getKey(), chunker.split(e.getValue()));
+        }else{
+          whole.put(e.getKey(), e.getValue());
+        }
+      }
+    }
+
+    Map<String, List<Entity>> entities = new HashMap<>();
+    if(!whole.isEmpty())
+      entities.putAll(annotate(whole, Integer.MAX_VALUE, budget, record, account));
+
+    if(!chunked.isEmpty())
+      annotateChunks(chunked, entities, budget, record, account);
+
+    // Cache the entities from each field if required, unless they may be incomplete
+    boolean cache = keys != null && !budget.isExceeded();
+    for(String name : texts.keySet()){
+      List<Entity> e = entities.get(name);
+      if(e == null)
+        continue;
+
+      if(preprocessed != null){
+        Preprocessed p = preprocessed.get(name);
+        if(p.isChanged())
+          e.replaceAll(p::toOriginal);
+      }
+
+      if(cache)
+        resultCache.put(keys.get(name), e);
+
+      extracted.addAll(name, e);
+    }
+  }
+
+  /**
+   * Runs the Annot8 processors over the chunks of each text in parallel, adding the entities
+   * extracted from each text to entities (keyed by field name). Entities in the overlap between
+   * chunks are only taken from one of them, and their positions are relative to the whole text.
+   */
+  private void annotateChunks(Map<String, List<Chunk>> chunked, Map<String, List<Entity>> entities, TimeBudget budget, boolean record, Account account) throws Exception {
+    List<Callable<Map<String, List<Entity>>>> tasks = new ArrayList<>();
+    for(Map.Entry<String, List<Chunk>> e : chunked.entrySet()){
+      for(Chunk chunk : e.getValue())
+        tasks.add(() -> shift(annotate(Collections.singletonMap(e.getKey(), chunk.getText()), chunk.getOwned(), budget, record, account), chunk.getOffset()));
+    }
+
+    merge(invokeAll(tasks, budget), entities);
+  }
+
+  /**
+   * Moves the positions of the entities forward by offset characters
+   */
+  private static Map<String, List<Entity>> shift(Map<String, List<Entity>> entities, int offset){
+    if(offset != 0)
+      entities.values().forEach(l -> l.replaceAll(e -> e.shift(offset)));
+
+    return entities;
+  }
+
+  /**
+   * Adds the entities from each of the results to entities, keyed by field name
+   */
+  private static void merge(List<Map<String, List<Entity>>> results, Map<String, List<Entity>> entities){
+    for(Map<String, List<Entity>> result : results)
+      result.forEach((name, l) -> entities.computeIfAbsent(name, k -> new ArrayList<>()).addAll(l));
+  }
+
+  /**
+   * Runs the tasks on the node level pool, waiting for them to complete for no longer than the
+   * time remaining in the budget. If any task failed, the exception it threw is rethrown.
+   *
+   * Annot8 processors can't be interrupted, so if the budget runs out, the tasks which haven't
+   * completed are abandoned and the results of those that have are returned. Abandoned tasks which
+   * haven't started are cancelled, and those which are running stop once their current processor
+   * has finished, as they find the budget has run out.
+   */
+  private <T> List<T> invokeAll(List<Callable<T>> tasks, TimeBudget budget) throws Exception {
+    List<Future<T>> futures = new ArrayList<>(tasks.size());
+    for(Callable<T> task : tasks)
+      futures.add(chunkPool.submit(task));
+
+    List<T> results = new ArrayList<>(tasks.size());
+    try {
+      for(Future<T> f : futures){
+        long remaining = budget.remainingNanos();
+        try {
+          results.add(remaining == Long.MAX_VALUE ? f.get() : f.get(remaining, TimeUnit.NANOSECONDS));
+        }catch (TimeoutException te){
+          budget.expire();
+          break;
+        }catch (ExecutionException ee){
+          if(ee.getCause() instanceof Exception)
+            throw (Exception) ee.getCause();
+
+          throw ee;
+        }
+      }
+    }finally {
+      if(results.size() < futures.size())
+        futures.forEach(f -> f.cancel(false));
+    }
+
+    return results;
+  }
+
+  /**
+   * Runs the Annot8 processors over the texts (keyed by field name), returning the entities
+   * extracted from each text. Annotations beginning at or after limit are ignored.
+   *
+   * If processors are routed to particular fields, each group of texts is processed in its own
+   * item by only the processors routed to it.
+   */
+  private Map<String, List<Entity>> annotate(Map<String, String> texts, int limit, TimeBudget budget, boolean record, Account account) throws Exception {
+    if(budget.isExpired())
+      return new HashMap<>();
+
+    if(router == null)
+      return annotate(texts, allProcessors, limit, budget, record, account);
+
+    Map<String, List<Entity>> entities = new HashMap<>();
+    for(Map.Entry<FieldRouter.Route, Map<String, String>> e : router.group(texts).entrySet())
+      entities.putAll(annotate(e.getValue(), e.getKey().getProcessors(), limit, budget, record, account));
+
+    //Texts which no processors are routed to have no entities
+    for(String name : texts.keySet())
+      entities.computeIfAbsent(name, k -> new ArrayList<>());
+
+    return entities;
+  }
+
+  /**
+   * Runs the given Annot8 processors (by index) over the texts (keyed by field name), returning
+   * the entities extracted from each text. Processors that the prefilter rules out are skipped.
+   *
+   * If parallel processors are enabled, each processor is run on its own item on the node level
+   * pool and the entities are merged afterwards; otherwise, the processors are run in turn on a
+   * single item. If any processor fails, the exception is thrown once all have completed.
+   */
+  private Map<String, List<Entity>> annotate(Map<String, String> texts, int[] indices, int limit, TimeBudget budget, boolean record, Account account) throws Exception {
+    // Determine which processors could match anything in these texts
+    if(prefilter != null){
+      boolean[] selected = prefilter.select(texts.values());
+      indices = Arrays.stream(indices).filter(i -> selected[i]).toArray();
+    }
+
+    if(!parallelProcessors || indices.length < 2)
+      return annotateItem(texts, indices, limit, budget, record, account);
+
+    // Run each processor on its own item in parallel, and merge the entities they extract
+    List<Callable<Map<String, List<Entity>>>> tasks = new ArrayList<>(indices.length);
+    for(int i : indices){
+      int[] single = new int[]{ i };
+      tasks.add(() -> annotateItem(texts, single, limit, budget, record, account));
+    }
+
+    Map<String, List<Entity>> entities = new HashMap<>();
+    merge(invokeAll(tasks, budget), entities);
+
+    return entities;
+  }
+
+  /**
+   * Runs the given Annot8 processors (by index) in turn over the texts in a single item, returning
+   * the entities extracted from each text. Annotations beginning at or after limit are ignored.
+   *
+   * Processors are only run if the time budget allows, which is checked before and after each
+   * processor.
+   * Statistics for each processor are recorded if record is true. If account is not null, the
+   * estimated memory used by the contents, annotations and entities is charged to it as they are
+   * created.
+   */
+  private Map<String, List<Entity>> annotateItem(Map<String, String> texts, int[] indices, int limit, TimeBudget budget, boolean record, Account account) throws Exception {
     Item item = itemFactory.create();
 
     // Create Content objects for necessary fields
-    if(allFields){
-      createTextContents(item, ingestDocument, ingestDocument.getSourceAndMetadata().keySet());
-    } else {
-      createTextContents(item, ingestDocument, this.fields);
+    if(account != null){
+      long bytes = 0;
+      for(String text : texts.values())
+        bytes += ExtractBreaker.contentBytes(text);
+      account.add(bytes);
     }
+    createTextContents(item, texts);
+
+    long characters = 0;
+    for(String text : texts.values())
+      characters += text.length();
+
+    // Execute each processor in turn, holding only one pooled instance at a time
+    long annotations = 0;
+    for(int i : indices){
+      if(!budget.canRun(i))
+        continue;
+
+      ProcessorPool pool = processors.get(i);
+      ProcessorStats ps = processorStats.get(i);
 
-    // Execute each processor in turn
-    for(Processor p : processors){
-      ProcessorResponse response = p.process(item);
+      Processor p = pool.acquire();
+      ProcessorResponse response = null;
+      long start = System.nanoTime();
+      try {
+        response = p.process(item);
+      }finally {
+        long took = System.nanoTime() - start;
+        if(record)
+          ps.record(took, response != null && response.getStatus() == Status.OK);
+        pool.release(p);
+
+        if(budget.record(i, took) && record)
+          ps.recordTimeout();
+      }
 
       if(response.getStatus() != Status.OK){
         throw new ProcessingException("Error extracting information with processor "+p.getClass().getName());
       }
+
+      if(record || account != null){
+        long total = countAnnotations(item);
+        if(record)
+          ps.recordOutput(characters, total - annotations);
+
+        // Charge the annotations created by this processor before running the next one
+        if(account != null)
+          account.add((total - annotations) * ExtractBreaker.ANNOTATION_BYTES);
+        annotations = total;
+      }
+
+      // Processors can't be interrupted, so the document is marked if one overran the budget
+      if(budget.isExpired())
+        break;
     }
 
-    // Get annotations and add to ingestDocument
-    Set<String> extracted = new HashSet<>();
+    // Get annotations from each content
+    Map<String, List<Entity>> entities = new HashMap<>();
+    item.getContents(DefaultText.class).forEach(c -> {
+      List<Entity> contentEntities = new ArrayList<>();
+      c.getAnnotations().getAll()
+          .filter(a -> beginsBefore(a, limit))
+          .forEach(a -> a.getBounds().getData(c).ifPresent(value -> contentEntities.add(toEntity(a, value))));
+
+      entities.put(c.getName(), contentEntities);
+    });
 
-    item.getContents(DefaultText.class).forEach(c ->
-      c.getAnnotations().getAll().forEach(a ->
-        a.getBounds().getData(c).ifPresent(extracted::add)
-      )
-    );
+    if(account != null){
+      long bytes = 0;
+      for(List<Entity> contentEntities : entities.values()){
+        for(Entity entity : contentEntities)
+          bytes += ExtractBreaker.entityBytes(entity.getValue());
+      }
+      account.add(bytes);
+    }
 
-    ingestDocument.setFieldValue(targetField, new ArrayList<>(extracted));
+    return entities;
   }
 
   /**
-   * Creates a new Text Content object for each specified field in the ingest document
+   * Returns the part of the fingerprints which covers preprocessing, which is empty if there is
+   * none so that fingerprints from before preprocessing was available are unchanged
    */
-  private void createTextContents(Item item, IngestDocument ingestDocument, Set<String> fields) throws Annot8Exception {
-    for(String field : fields) {
-      if(!ingestDocument.hasField(field))
-        continue;
+  private String preprocessingFingerprint(){
+    return preprocessor == null ? "" : "\n" + preprocessor.getSteps();
+  }
+
+  /**
+   * Returns the name and version of each resource (such as a gazetteer) that the processors are
+   * currently configured with, which is empty if they use none so that fingerprints of pipelines
+   * without resources are unchanged
+   */
+  private String resources(){
+    StringBuilder sb = new StringBuilder();
+    for(ProcessorPool pool : processors)
+      sb.append(pool.getResources());
+
+    return sb.toString();
+  }
+
+  /**
+   * Returns the fingerprint under which the entities extracted from the text with the given name
+   * are cached. If processors are routed to particular fields, this depends on which processors
+   * are run over the text.
+   */
+  private String cacheFingerprint(String name){
+    if(router == null)
+      return fingerprint;
+
+    return fingerprint + router.route(name).getKey();
+  }
+
+  /**
+   * Returns the entity covered by the annotation, with its position if it has one
+   */
+  private static Entity toEntity(Annotation annotation, String value){
+    if(annotation.getBounds() instanceof SpanBounds){
+      SpanBounds bounds = (SpanBounds) annotation.getBounds();
+      return new Entity(annotation.getType(), value, bounds.getBegin(), bounds.getEnd());
+    }
+
+    return new Entity(annotation.getType(), value, -1, -1);
+  }
 
-      String content = ingestDocument.getFieldValue(field, String.class);
+  /**
+   * Returns true if the annotation begins before limit, or doesn't have a position in the text
+   */
+  private static boolean beginsBefore(Annotation annotation, int limit){
+    if(limit == Integer.MAX_VALUE || !(annotation.getBounds() instanceof SpanBounds))
+      return true;
+
+    return ((SpanBounds) annotation.getBounds()).getBegin() < limit;
+  }
+
+  /**
+   * Returns the total number of annotations on all contents in the item
+   */
+  private static long countAnnotations(Item item){
+    return item.getContents(DefaultText.class)
+        .mapToLong(c -> c.getAnnotations().getAll().count())
+        .sum();
+  }
+
+  /**
+   * Reads the text values of the fields to be processed, returning a map of name to text. Arrays
+   * of strings produce one entry per element, and values which aren't strings are skipped.
+   */
+  private Map<String, String> readTexts(IngestDocument ingestDocument) {
+    Map<String, String> texts = new LinkedHashMap<>();
+
+    if(allFields){
+      FieldPath.resolveAll(ingestDocument, excludedFields, texts::put);
+    }else{
+      for(FieldPath field : fields)
+        field.resolve(ingestDocument, texts::put);
+    }
+
+    return texts;
+  }
+
+  /**
+   * Creates a new Text Content object for each text, named after the field it was read from
+   */
+  private void createTextContents(Item item, Map<String, String> texts) throws Annot8Exception {
+    for(Map.Entry<String, String> e : texts.entrySet()) {
       item.create(DefaultText.class)
-          .withName(field)
-          .withData(content)
+          .withName(e.getKey())
+          .withData(e.getValue())
           .save();
     }
   }
 
+  /**
+   * Returns the field to which extracted entities are added
+   */
+  String getTargetField() {
+    return targetField;
+  }
+
+  /**
+   * Returns the field in which the numeric IDs of the entities are stored, or null if they aren't
+   * stored
+   */
+  String getIdsField() {
+    return idsField;
+  }
+
+  /**
+   * Returns the maximum number of instances of each processor used by this pipeline
+   */
+  int getPoolSize() {
+    return poolSize;
+  }
+
+  /**
+   * Releases the pools of processors used by this pipeline. Documents which are still being
+   * processed finish with the instances they have borrowed, but the processor can't be
+   * initialised afterwards.
+   */
+  @Override
+  public void close() {
+    synchronized (processors) {
+      closed = true;
+      if(cleanable != null)
+        cleanable.clean();
+    }
+  }
+
   @Override
   public String getType() {
     return TYPE;
@@ -189,8 +1090,45 @@ public class ExtractProcessor extends AbstractProcessor {
    */
   public static final class Factory implements org.elasticsearch.ingest.Processor.Factory {
 
+    private final ExtractService service;
+
+    /**
+     * Create a new factory, using node level resources configured with the default node settings
+     */
+    public Factory(){
+      this(new ExtractService(org.elasticsearch.common.settings.Settings.EMPTY));
+    }
+
+    /**
+     * Create a new factory, using the node level resources held by the given service
+     */
+    public Factory(ExtractService service){
+      this.service = service;
+    }
+
+    /**
+     * Creates a processor for an ingest pipeline. Processors created by the cluster applier thread
+     * belong to the stored pipelines, and are closed once their pipeline has been replaced (see
+     * {@link PipelineTracker}). Others are only used to validate or simulate a pipeline, and their
+     * pools are released once they are no longer reachable.
+     */
     @Override
     public ExtractProcessor create(Map<String, org.elasticsearch.ingest.Processor.Factory> factories, String tag, Map<String, Object> config) throws Exception{
+      if(!PipelineTracker.isApplierThread())
+        return createUntracked(tag, config);
+
+      Map<String, Object> definition = PipelineTracker.copy(config);
+      ExtractProcessor processor = createUntracked(tag, config);
+      service.getPipelineTracker().track(processor, definition);
+
+      return processor;
+    }
+
+    /**
+     * Creates a processor which isn't part of an ingest pipeline, and which the caller is
+     * responsible for closing
+     */
+    public ExtractProcessor createUntracked(String tag, Map<String, Object> config) throws Exception{
 
       //Create ExtractSettings object from properties
       ExtractSettings settings = new ExtractSettings();
@@ -211,6 +1149,69 @@ public class ExtractProcessor extends AbstractProcessor {
       if(config.containsKey(CONFIG_TARGET_FIELD))
         settings.withTargetField(readStringProperty(TYPE, tag, config, CONFIG_TARGET_FIELD));
 
+      if(config.containsKey(CONFIG_PREFILTER) && readBooleanProperty(TYPE, tag, config, CONFIG_PREFILTER, ExtractSettings.DEFAULT_PREFILTER))
+        settings.withPrefilter();
+
+      if(config.containsKey(CONFIG_CACHE))
+        settings.withCache(readBooleanProperty(TYPE, tag, config, CONFIG_CACHE, ExtractSettings.DEFAULT_CACHE));
+
+      if(config.containsKey(CONFIG_PARALLEL_PROCESSORS))
+        settings.withParallelProcessors(readBooleanProperty(TYPE, tag, config, CONFIG_PARALLEL_PROCESSORS, ExtractSettings.DEFAULT_PARALLEL_PROCESSORS));
+
+      if(config.containsKey(CONFIG_POOL_SIZE))
+        settings.withPoolSize(readIntProperty(TYPE, tag, config, CONFIG_POOL_SIZE, ExtractSettings.DEFAULT_POOL_SIZE));
+
+      if(config.containsKey(CONFIG_CHUNK_THRESHOLD))
+        settings.withChunkThreshold(readIntProperty(TYPE, tag, config, CONFIG_CHUNK_THRESHOLD, ExtractSettings.DEFAULT_CHUNK_THRESHOLD));
+
+      if(config.containsKey(CONFIG_CHUNK_SIZE))
+        settings.withChunkSize(readIntProperty(TYPE, tag, config, CONFIG_CHUNK_SIZE, ExtractSettings.DEFAULT_CHUNK_SIZE));
+
+      if(config.containsKey(CONFIG_CHUNK_OVERLAP))
+        settings.withChunkOverlap(readIntProperty(TYPE, tag, config, CONFIG_CHUNK_OVERLAP, ExtractSettings.DEFAULT_CHUNK_OVERLAP));
+
+      if(config.containsKey(CONFIG_TIMEOUT))
+        settings.withTimeout(TimeValue.parseTimeValue(readStringProperty(TYPE, tag, config, CONFIG_TIMEOUT), CONFIG_TIMEOUT));
+
+      if(config.containsKey(CONFIG_TIMEOUT_POLICY))
+        settings.withTimeoutPolicy(parseTimeoutPolicy(readStringProperty(TYPE, tag, config, CONFIG_TIMEOUT_POLICY)));
+
+      if(config.containsKey(CONFIG_FINGERPRINT_FIELD))
+        settings.withFingerprintField(readStringProperty(TYPE, tag, config, CONFIG_FINGERPRINT_FIELD));
+
+      if(config.containsKey(CONFIG_IDS_FIELD))
+        settings.withIdsField(readStringProperty(TYPE, tag, config, CONFIG_IDS_FIELD));
+
+      if(config.containsKey(CONFIG_SLOWLOG))
+        parseSlowLog(readMap(TYPE, tag, config, CONFIG_SLOWLOG), settings);
+
+      if(config.containsKey(CONFIG_INIT))
+        settings.withInit(parseInitPolicy(readStringProperty(TYPE, tag, config, CONFIG_INIT)));
+
+      if(config.containsKey(CONFIG_WARMUP))
+        settings.withWarmup(readIntProperty(TYPE, tag, config, CONFIG_WARMUP, ExtractSettings.DEFAULT_WARMUP));
+
+      if(config.containsKey(CONFIG_WARMUP_TEXTS))
+        settings.withWarmupTexts(readList(TYPE, tag, config, CONFIG_WARMUP_TEXTS));
+
+      if(config.containsKey(CONFIG_OUTPUT))
+        settings.withOutput(parseOutputMode(readStringProperty(TYPE, tag, config, CONFIG_OUTPUT)));
+
+      if(config.containsKey(CONFIG_OUTPUT_COUNTS))
+        settings.withOutputCounts(readBooleanProperty(TYPE, tag, config, CONFIG_OUTPUT_COUNTS, ExtractSettings.DEFAULT_OUTPUT_COUNTS));
+
+      if(config.containsKey(CONFIG_OUTPUT_OFFSETS))
+        settings.withOutputOffsets(readBooleanProperty(TYPE, tag, config, CONFIG_OUTPUT_OFFSETS, ExtractSettings.DEFAULT_OUTPUT_OFFSETS));
+
+      if(config.containsKey(CONFIG_MAX_ENTITIES))
+        settings.withMaxEntities(readIntProperty(TYPE, tag, config, CONFIG_MAX_ENTITIES, ExtractSettings.DEFAULT_MAX_ENTITIES));
+
+      if(config.containsKey(CONFIG_PREPROCESS)){
+        List<String> steps = readList(TYPE, tag, config, CONFIG_PREPROCESS);
+        settings.withPreprocessing(steps.stream()
+            .map(Factory::parsePreprocessing)
+            .collect(Collectors.toList()));
+      }
 
       if(config.containsKey(CONFIG_PROCESSORS)){
         List<Map<String, Object>> l = readList(TYPE, tag, config, CONFIG_PROCESSORS);
@@ -221,7 +1222,82 @@ public class ExtractProcessor extends AbstractProcessor {
         }
       }
 
-      return new ExtractProcessor(tag, settings);
+      return new ExtractProcessor(tag, settings, service);
+    }
+
+    /**
+     * Parses the name of a timeout policy (e.g. tag)
+     */
+    private static TimeoutPolicy parseTimeoutPolicy(String policy){
+      try {
+        return TimeoutPolicy.valueOf(policy.toUpperCase(Locale.ROOT));
+      }catch (IllegalArgumentException e){
+        throw new IllegalArgumentException("Unknown timeout policy " + policy, e);
+      }
+    }
+
+    /**
+     * Parses the slow log configuration, which has `document` and `processor` objects holding the
+     * threshold for each level (e.g. `"warn": "1s"`)
+     */
+    private static void parseSlowLog(Map<String, Object> config, ExtractSettings settings){
+      for(Map.Entry<String, Object> e : config.entrySet()){
+        if(!(e.getValue() instanceof Map))
+          throw new IllegalArgumentException("Slow log property " + e.getKey() + " must be a Map");
+
+        boolean processor;
+        if("document".equals(e.getKey())){
+          processor = false;
+        }else if("processor".equals(e.getKey())){
+          processor = true;
+        }else{
+          throw new IllegalArgumentException("Unknown slow log property " + e.getKey());
+        }
+
+        for(Map.Entry<?, ?> t : ((Map<?, ?>) e.getValue()).entrySet()){
+          SlowLogLevel level = SlowLogLevel.parse(String.valueOf(t.getKey()));
+          TimeValue threshold = TimeValue.parseTimeValue(String.valueOf(t.getValue()), CONFIG_SLOWLOG + "." + e.getKey() + "." + t.getKey());
+
+          if(processor){
+            settings.withProcessorSlowLogThreshold(level, threshold);
+          }else{
+            settings.withSlowLogThreshold(level, threshold);
+          }
+        }
+      }
+    }
+
+    /**
+     * Parses the name of an init policy (e.g. lazy)
+     */
+    private static InitPolicy parseInitPolicy(String policy){
+      try {
+        return InitPolicy.valueOf(policy.toUpperCase(Locale.ROOT));
+      }catch (IllegalArgumentException e){
+        throw new IllegalArgumentException("Unknown init policy " + policy, e);
+      }
+    }
+
+    /**
+     * Parses the name of an output mode (e.g. typed)
+     */
+    private static OutputMode parseOutputMode(String output){
+      try {
+        return OutputMode.valueOf(output.toUpperCase(Locale.ROOT));
+      }catch (IllegalArgumentException e){
+        throw new IllegalArgumentException("Unknown output " + output, e);
+      }
+    }
+
+    /**
+     * Parses the name of a preprocessing step (e.g. lowercase)
+     */
+    private static Preprocessing parsePreprocessing(String step){
+      try {
+        return Preprocessing.valueOf(step.toUpperCase(Locale.ROOT));
+      }catch (IllegalArgumentException e){
+        throw new IllegalArgumentException("Unknown preprocessing step " + step, e);
+      }
     }
 
     /**
@@ -243,10 +1319,10 @@ public class ExtractProcessor extends AbstractProcessor {
             Settings processorSettings = AccessController.doPrivileged(
                 (PrivilegedAction<Settings>) () -> objectMapper.convertValue(def.getSettings(), s));
 
-            return new ProcessorSettingsPair(processor, processorSettings);
+            return new ProcessorSettingsPair(processor, processorSettings, def.getTriggers(), def.getTimeout(), def.getFields());
           }
         }else{
-          return new ProcessorSettingsPair(processor);
+          return new ProcessorSettingsPair(processor, EmptySettings.getInstance(), def.getTriggers(), def.getTimeout(), def.getFields());
         }
       } catch (ClassNotFoundException e) {
         throw new IllegalArgumentException("Could not find processor", e);
@@ -264,12 +1340,18 @@ public class ExtractProcessor extends AbstractProcessor {
   private static final class ProcessorDefinition {
     private final String clazz;
     private final Map<String, Object> settings;
+    private final List<String> triggers;
+    private final TimeValue timeout;
+    private final FieldFilter fields;
 
     /**
      * Create a new processor definition from a configuration map (e.g. JSON).
      *
      * This map must have a `class` property which defines the processor, and a `settings` property
-     * which contains the settings for the processor.
+     * which contains the settings for the processor. It may also have a `triggers` property which
+     * lists the trigger literals for the prefilter, a `timeout` property which limits the time
+     * spent running the processor on each document, and a `fields` property which limits the
+     * fields the processor is run over.
      */
     public ProcessorDefinition(Map<String, Object> config){
       if(!config.containsKey("class"))
@@ -290,6 +1372,28 @@ public class ExtractProcessor extends AbstractProcessor {
       }else{
         settings = Collections.emptyMap();
       }
+
+      if(config.containsKey("triggers")){
+        try {
+          triggers = (List<String>) config.get("triggers");
+        }catch (ClassCastException e){
+          throw new IllegalArgumentException("Property triggers must be a List");
+        }
+      }else{
+        triggers = null;
+      }
+
+      if(config.containsKey("timeout")){
+        try {
+          timeout = TimeValue.parseTimeValue((String) config.get("timeout"), "timeout");
+        }catch (ClassCastException e){
+          throw new IllegalArgumentException("Property timeout must be a String");
+        }
+      }else{
+        timeout = null;
+      }
+
+      fields = config.containsKey("fields") ? FieldFilter.parse(config.get("fields")) : null;
     }
 
     /**
@@ -306,5 +1410,26 @@ public class ExtractProcessor extends AbstractProcessor {
       return settings;
     }
 
+    /**
+     * Returns the trigger literals specified by this definition, or null if none were specified
+     */
+    public List<String> getTriggers() {
+      return triggers;
+    }
+
+    /**
+     * Returns the time allowed for the processor on each document, or null if none was specified
+     */
+    public TimeValue getTimeout() {
+      return timeout;
+    }
+
+    /**
+     * Returns the fields the processor is run over, or null if none were specified
+     */
+    public FieldFilter getFields() {
+      return fields;
+    }
+
   }
 }
@@ -0,0 +1,292 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.xcontent.ToXContentFragment;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.elasticsearch.ingest.IngestDocument;
+
+/**
+ * Runs a corpus of documents through an extract processor, and measures its performance.
+ *
+ * Documents are read from newline delimited JSON, one document per line, and processed by a
+ * fixed number of threads. Each document is processed with {@link ExtractProcessor#execute}, so
+ * the measurements reflect the performance of the processor during ingest.
+ */
+class ExtractProfiler {
+
+  private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+  private final ExtractProcessor processor;
+  private final int threads;
+  private final int slowest;
+
+  /**
+   * Create a new profiler for the processor, which uses the given number of threads and reports
+   * the given number of slowest documents
+   */
+  ExtractProfiler(ExtractProcessor processor, int threads, int slowest){
+    if(threads < 1)
+      throw new IllegalArgumentException("Number of threads must be at least 1");
+
+    if(slowest < 0)
+      throw new IllegalArgumentException("Number of slowest documents must not be negative");
+
+    this.processor = processor;
+    this.threads = threads;
+    this.slowest = slowest;
+  }
+
+  /**
+   * Processes every document in the corpus, and returns the results
+   */
+  Result profile(BufferedReader reader) throws Exception {
+    Corpus corpus = new Corpus(reader);
+    Result result = new Result(slowest);
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads, EsExecutors.daemonThreadFactory("extract_profile"));
+    try {
+      long start = System.nanoTime();
+
+      List<Future<?>> workers = new ArrayList<>();
+      for(int i = 0; i < threads; i++){
+        workers.add(executor.submit(() -> {
+          work(corpus, result);
+          return null;
+        }));
+      }
+
+      for(Future<?> f : workers)
+        f.get();
+
+      result.nanos = System.nanoTime() - start;
+    }finally {
+      executor.shutdownNow();
+    }
+
+    return result;
+  }
+
+  /**
+   * Processes documents from the corpus until there are none left
+   */
+  private void work(Corpus corpus, Result result) throws IOException {
+    String[] line = new String[1];
+    long number;
+    while((number = corpus.next(line)) > 0){
+      Map<String, Object> source;
+      try {
+        source = XContentHelper.convertToMap(JsonXContent.jsonXContent, line[0], false);
+      }catch (Exception e){
+        result.invalid.increment();
+        continue;
+      }
+
+      IngestDocument ingestDocument = new IngestDocument(source, Collections.emptyMap());
+
+      long allocated = allocatedBytes();
+      long start = System.nanoTime();
+      boolean success = false;
+      try {
+        processor.execute(ingestDocument);
+        success = true;
+      }catch (Exception e){
+        //Failures are counted by the result
+      }
+      long took = System.nanoTime() - start;
+
+      if(allocated >= 0)
+        result.allocated.add(allocatedBytes() - allocated);
+
+      result.record(number, line[0].length(), took, success);
+    }
+  }
+
+  /**
+   * Returns the number of bytes allocated by the current thread, or -1 if this isn't supported
+   * by the JVM
+   */
+  private static long allocatedBytes(){
+    if(THREADS instanceof com.sun.management.ThreadMXBean)
+      return ((com.sun.management.ThreadMXBean) THREADS).getThreadAllocatedBytes(Thread.currentThread().getId());
+
+    return -1;
+  }
+
+  /**
+   * Reads the documents in a corpus, shared between threads
+   */
+  private static final class Corpus {
+    private final BufferedReader reader;
+    private long lineNumber = 0;
+
+    private Corpus(BufferedReader reader){
+      this.reader = reader;
+    }
+
+    /**
+     * Reads the next non-empty line into line[0], returning its line number, or 0 if there are
+     * no lines left
+     */
+    synchronized long next(String[] line) throws IOException {
+      String text;
+      while((text = reader.readLine()) != null){
+        lineNumber++;
+
+        if(!text.trim().isEmpty()){
+          line[0] = text;
+          return lineNumber;
+        }
+      }
+
+      return 0;
+    }
+  }
+
+  /**
+   * The results of profiling a corpus
+   */
+  static final class Result implements ToXContentFragment {
+    private final LongAdder documents = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder invalid = new LongAdder();
+    private final LongAdder allocated = new LongAdder();
+    private final PriorityQueue<Document> slowest = new PriorityQueue<>(Comparator.comparingLong(d -> d.nanos));
+    private final int slowestCount;
+    private long nanos = 0;
+
+    private Result(int slowestCount){
+      this.slowestCount = slowestCount;
+    }
+
+    private void record(long lineNumber, int length, long took, boolean success){
+      documents.increment();
+      if(!success)
+        failed.increment();
+
+      if(slowestCount > 0){
+        synchronized (slowest) {
+          if(slowest.size() < slowestCount){
+            slowest.add(new Document(lineNumber, length, took));
+          }else if(slowest.peek().nanos < took){
+            slowest.poll();
+            slowest.add(new Document(lineNumber, length, took));
+          }
+        }
+      }
+    }
+
+    /**
+     * Returns the number of documents processed
+     */
+    long getDocuments(){
+      return documents.sum();
+    }
+
+    /**
+     * Returns the number of documents which failed
+     */
+    long getFailed(){
+      return failed.sum();
+    }
+
+    /**
+     * Returns the number of lines which weren't valid JSON documents
+     */
+    long getInvalid(){
+      return invalid.sum();
+    }
+
+    /**
+     * Returns the line numbers of the slowest documents, slowest first
+     */
+    List<Long> getSlowest(){
+      List<Long> lines = new ArrayList<>();
+      sortedSlowest().forEach(d -> lines.add(d.lineNumber));
+
+      return lines;
+    }
+
+    private List<Document> sortedSlowest(){
+      List<Document> sorted;
+      synchronized (slowest) {
+        sorted = new ArrayList<>(slowest);
+      }
+      sorted.sort(Comparator.comparingLong((Document d) -> d.nanos).reversed());
+
+      return sorted;
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+      long count = getDocuments();
+
+      builder.field("documents", count);
+      builder.field("failed", getFailed());
+      builder.field("invalid", getInvalid());
+      builder.field("took_in_millis", TimeUnit.NANOSECONDS.toMillis(nanos));
+      builder.field("documents_per_second", nanos == 0 ? 0.0 : count * 1e9 / nanos);
+      if(count > 0)
+        builder.field("allocated_bytes_per_document", allocated.sum() / count);
+
+      builder.startArray("slowest");
+      for(Document d : sortedSlowest()){
+        builder.startObject();
+        builder.field("line", d.lineNumber);
+        builder.field("characters", d.length);
+        builder.field("took_in_micros", TimeUnit.NANOSECONDS.toMicros(d.nanos));
+        builder.endObject();
+      }
+      builder.endArray();
+
+      return builder;
+    }
+  }
+
+  /**
+   * A document in the corpus, and the time taken to process it
+   */
+  private static final class Document {
+    private final long lineNumber;
+    private final int length;
+    private final long nanos;
+
+    private Document(long lineNumber, int length, long nanos){
+      this.lineNumber = lineNumber;
+      this.length = length;
+      this.nanos = nanos;
+    }
+  }
+}
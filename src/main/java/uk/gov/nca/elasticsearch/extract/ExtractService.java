@@ -0,0 +1,198 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import java.io.Closeable;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Setting.Property;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.env.Environment;
+
+/**
+ * Holds the node level resources which are shared by all ExtractProcessor instances on a node.
+ */
+public class ExtractService implements Closeable {
+
+  /**
+   * Maximum number of threads used to process the chunks of long texts (defaults to the number of
+   * available processors)
+   */
+  static final Setting<Integer> CHUNK_THREADS_SETTING =
+      Setting.intSetting("extract.chunk.threads", Runtime.getRuntime().availableProcessors(), 1, Property.NodeScope);
+
+  /**
+   * Node settings used by the plugin
+   */
+  static final List<Setting<?>> SETTINGS = Collections.unmodifiableList(Arrays.asList(
+      ResultCache.CACHE_SIZE_SETTING,
+      ResultCache.CACHE_EXPIRE_SETTING,
+      ExtractBreaker.BREAKER_LIMIT_SETTING,
+      ExtractBreaker.BREAKER_OVERHEAD_SETTING,
+      CHUNK_THREADS_SETTING
+  ));
+
+  private final Settings settings;
+  private final ResultCache resultCache;
+  private final ExtractBreaker breaker;
+  private final ExtractStats stats = new ExtractStats();
+  private final Gazetteers gazetteers = new Gazetteers();
+  private final ProcessorRegistry processorRegistry = new ProcessorRegistry(gazetteers);
+  private final PipelineTracker pipelineTracker = new PipelineTracker(stats);
+
+  private ForkJoinPool chunkPool = null;
+  private volatile Environment environment = null;
+
+  /**
+   * Create a new service configured from the node settings
+   */
+  public ExtractService(Settings settings){
+    this.settings = settings;
+    this.resultCache = new ResultCache(settings);
+    this.breaker = new ExtractBreaker(settings);
+  }
+
+  /**
+   * Returns the cache of extracted entities
+   */
+  ResultCache getResultCache() {
+    return resultCache;
+  }
+
+  /**
+   * Returns the circuit breaker for the memory used while extracting entities
+   */
+  ExtractBreaker getBreaker() {
+    return breaker;
+  }
+
+  /**
+   * Returns the extraction statistics for this node
+   */
+  ExtractStats getStats() {
+    return stats;
+  }
+
+  /**
+   * Returns the gazetteers loaded on this node
+   */
+  Gazetteers getGazetteers() {
+    return gazetteers;
+  }
+
+  /**
+   * Returns the registry of processors shared between pipelines
+   */
+  ProcessorRegistry getProcessorRegistry() {
+    return processorRegistry;
+  }
+
+  /**
+   * Returns the tracker which closes processors once their pipelines have been replaced
+   */
+  PipelineTracker getPipelineTracker() {
+    return pipelineTracker;
+  }
+
+  /**
+   * Sets the environment of the node, which determines where local files are read from
+   */
+  void setEnvironment(Environment environment) {
+    this.environment = environment;
+  }
+
+  /**
+   * Returns the environment of the node, or null if it isn't yet known
+   */
+  Environment getEnvironment() {
+    return environment;
+  }
+
+  /**
+   * Returns the maximum number of threads in the pool used to process chunks and to run
+   * processors in parallel
+   */
+  int getChunkThreads() {
+    return CHUNK_THREADS_SETTING.get(settings);
+  }
+
+  /**
+   * Returns the pool used to process the chunks of long texts in parallel, creating it the first
+   * time it is needed so that no threads are started on nodes which don't use chunking
+   */
+  synchronized ForkJoinPool getChunkPool() {
+    if(chunkPool == null){
+      int threads = getChunkThreads();
+      String name = EsExecutors.threadName(settings, "extract_chunk");
+
+      chunkPool = AccessController.doPrivileged((PrivilegedAction<ForkJoinPool>) () ->
+          new ForkJoinPool(threads, pool -> {
+            ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            t.setName(name + "[" + t.getPoolIndex() + "]");
+            return t;
+          }, null, false));
+    }
+
+    return chunkPool;
+  }
+
+  /**
+   * Reloads the resources used by the processors on this node. Gazetteers are read again, every
+   * processor pool is replaced with newly configured instances, and the result cache is cleared.
+   * Documents being processed while the reload takes place continue with the instances they
+   * started with.
+   *
+   * A snapshot of the gazetteers is staged when the reload starts, and every reloaded pool is
+   * configured from it, including the instances created later by the threads using the pool. The
+   * snapshot only replaces the current gazetteers once every processor has been reloaded. If any
+   * processors couldn't be reloaded, the gazetteers that were read successfully are added, and the
+   * rest are kept. The cache is cleared once every pool has been replaced, so that it doesn't hold
+   * entities extracted with the old gazetteers.
+   *
+   * Returns the exceptions thrown by any processors that couldn't be reloaded, which continue to
+   * use their existing instances.
+   */
+  List<Exception> reload(){
+    Gazetteers.Snapshot staged = gazetteers.stage();
+    List<Exception> failures = processorRegistry.reload(staged);
+    gazetteers.commit(staged, failures.isEmpty());
+
+    resultCache.clear();
+
+    return failures;
+  }
+
+  /**
+   * Closes the processors of the node's pipelines, and shuts down the threads used by the service
+   */
+  @Override
+  public synchronized void close() {
+    pipelineTracker.closeAll();
+
+    if(chunkPool != null){
+      chunkPool.shutdownNow();
+      chunkPool = null;
+    }
+  }
+}
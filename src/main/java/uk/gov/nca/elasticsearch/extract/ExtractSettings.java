@@ -23,9 +23,15 @@ import io.annot8.core.settings.Settings;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.SlowLogLevel;
 
 /**
  * Holds settings for the Extract processor
@@ -42,6 +48,94 @@ public class ExtractSettings {
    */
   public static final String DEFAULT_TARGET_FIELD = "extracted";
 
+  /**
+   * Default maximum number of instances of each processor (the number of available processors,
+   * which matches the size of the Elasticsearch write thread pool)
+   */
+  public static final int DEFAULT_POOL_SIZE = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * Default value (false) for the "Prefilter" setting
+   */
+  public static final boolean DEFAULT_PREFILTER = false;
+
+  /**
+   * Default value (true) for the "Cache" setting
+   */
+  public static final boolean DEFAULT_CACHE = true;
+
+  /**
+   * Default value (false) for the "Parallel Processors" setting
+   */
+  public static final boolean DEFAULT_PARALLEL_PROCESSORS = false;
+
+  /**
+   * Default length (0) above which texts are split into chunks, where 0 disables chunking
+   */
+  public static final int DEFAULT_CHUNK_THRESHOLD = 0;
+
+  /**
+   * Default maximum length (65536 characters) of each chunk
+   */
+  public static final int DEFAULT_CHUNK_SIZE = 65536;
+
+  /**
+   * Default overlap (256 characters) between consecutive chunks
+   */
+  public static final int DEFAULT_CHUNK_OVERLAP = 256;
+
+  /**
+   * Default time allowed for processing each document (0, meaning no limit)
+   */
+  public static final TimeValue DEFAULT_TIMEOUT = TimeValue.ZERO;
+
+  /**
+   * Default action (tag) taken when a document runs out of time
+   */
+  public static final TimeoutPolicy DEFAULT_TIMEOUT_POLICY = TimeoutPolicy.TAG;
+
+  /**
+   * Default field (none, meaning source fingerprints aren't used) in which the source fingerprint
+   * is stored
+   */
+  public static final String DEFAULT_FINGERPRINT_FIELD = null;
+
+  /**
+   * Default field (none, meaning entity IDs aren't stored) in which the numeric IDs of the
+   * extracted entities are stored
+   */
+  public static final String DEFAULT_IDS_FIELD = null;
+
+  /**
+   * Default time (eager) at which processors are created and configured
+   */
+  public static final InitPolicy DEFAULT_INIT = InitPolicy.EAGER;
+
+  /**
+   * Default number of times (0) the warmup texts are processed when the pipeline is created
+   */
+  public static final int DEFAULT_WARMUP = 0;
+
+  /**
+   * Default form (flat) of the extracted entities
+   */
+  public static final OutputMode DEFAULT_OUTPUT = OutputMode.FLAT;
+
+  /**
+   * Default value (false) for the "Output Counts" setting
+   */
+  public static final boolean DEFAULT_OUTPUT_COUNTS = false;
+
+  /**
+   * Default value (false) for the "Output Offsets" setting
+   */
+  public static final boolean DEFAULT_OUTPUT_OFFSETS = false;
+
+  /**
+   * Default maximum number (0, meaning no limit) of distinct entities stored for each document
+   */
+  public static final int DEFAULT_MAX_ENTITIES = 0;
+
   /**
    * Default Annot8 processors (Email) to use when extracting entities
    */
@@ -53,6 +147,27 @@ public class ExtractSettings {
   private boolean allFields = DEFAULT_PROCESS_ALL_FIELDS;
   private String targetField = DEFAULT_TARGET_FIELD;
   private List<ProcessorSettingsPair> processors = new ArrayList<>();
+  private int poolSize = DEFAULT_POOL_SIZE;
+  private boolean prefilter = DEFAULT_PREFILTER;
+  private boolean cache = DEFAULT_CACHE;
+  private boolean parallelProcessors = DEFAULT_PARALLEL_PROCESSORS;
+  private int chunkThreshold = DEFAULT_CHUNK_THRESHOLD;
+  private int chunkSize = DEFAULT_CHUNK_SIZE;
+  private int chunkOverlap = DEFAULT_CHUNK_OVERLAP;
+  private TimeValue timeout = DEFAULT_TIMEOUT;
+  private TimeoutPolicy timeoutPolicy = DEFAULT_TIMEOUT_POLICY;
+  private String fingerprintField = DEFAULT_FINGERPRINT_FIELD;
+  private String idsField = DEFAULT_IDS_FIELD;
+  private InitPolicy init = DEFAULT_INIT;
+  private int warmup = DEFAULT_WARMUP;
+  private List<String> warmupTexts = new ArrayList<>();
+  private OutputMode output = DEFAULT_OUTPUT;
+  private boolean outputCounts = DEFAULT_OUTPUT_COUNTS;
+  private boolean outputOffsets = DEFAULT_OUTPUT_OFFSETS;
+  private int maxEntities = DEFAULT_MAX_ENTITIES;
+  private Set<Preprocessing> preprocessing = EnumSet.noneOf(Preprocessing.class);
+  private Map<SlowLogLevel, TimeValue> slowLogThresholds = new EnumMap<>(SlowLogLevel.class);
+  private Map<SlowLogLevel, TimeValue> processorSlowLogThresholds = new EnumMap<>(SlowLogLevel.class);
 
   /**
    * Adds field to list of fields to process, and disables the processing
@@ -96,6 +211,250 @@ public class ExtractSettings {
     return this;
   }
 
+  /**
+   * Sets the maximum number of instances of each processor that can be created, and therefore
+   * the maximum number of threads that can use a processor at the same time
+   */
+  public ExtractSettings withPoolSize(int poolSize){
+    if(poolSize < 1)
+      throw new IllegalArgumentException("Pool size must be at least 1");
+
+    this.poolSize = poolSize;
+
+    return this;
+  }
+
+  /**
+   * Enables the literal prefilter, so that processors are skipped for documents which do not
+   * contain any of their trigger literals
+   */
+  public ExtractSettings withPrefilter(){
+    this.prefilter = true;
+
+    return this;
+  }
+
+  /**
+   * Sets whether results should be cached (if the cache is enabled on the node). Caching
+   * should be disabled for processors whose results for a field depend on anything other than
+   * the text of that field.
+   */
+  public ExtractSettings withCache(boolean cache){
+    this.cache = cache;
+
+    return this;
+  }
+
+  /**
+   * Sets whether the processors should be run in parallel on each document, rather than one after
+   * another. Each processor annotates its own copy of the text, so processors must not depend on
+   * the annotations of other processors.
+   */
+  public ExtractSettings withParallelProcessors(boolean parallelProcessors){
+    this.parallelProcessors = parallelProcessors;
+
+    return this;
+  }
+
+  /**
+   * Sets the field in which a fingerprint of the processed text and the processor configuration
+   * is stored, so that documents which haven't changed since they were last processed can be
+   * skipped. Null disables source fingerprints.
+   */
+  public ExtractSettings withFingerprintField(String fingerprintField){
+    this.fingerprintField = fingerprintField;
+
+    return this;
+  }
+
+  /**
+   * Sets the field in which a 64 bit numeric ID of each extracted entity is stored, which can be
+   * aggregated on more efficiently than the entities themselves. Null disables entity IDs.
+   */
+  public ExtractSettings withIdsField(String idsField){
+    this.idsField = idsField;
+
+    return this;
+  }
+
+  /**
+   * Sets the length (in characters) above which texts are split into chunks that are processed in
+   * parallel. Zero disables chunking.
+   */
+  public ExtractSettings withChunkThreshold(int chunkThreshold){
+    if(chunkThreshold < 0)
+      throw new IllegalArgumentException("Chunk threshold must not be negative");
+
+    this.chunkThreshold = chunkThreshold;
+
+    return this;
+  }
+
+  /**
+   * Sets the maximum length (in characters) of each chunk
+   */
+  public ExtractSettings withChunkSize(int chunkSize){
+    if(chunkSize < 1)
+      throw new IllegalArgumentException("Chunk size must be at least 1");
+
+    this.chunkSize = chunkSize;
+
+    return this;
+  }
+
+  /**
+   * Sets the number of characters by which consecutive chunks overlap, which should be at least
+   * the length of the longest entity expected to span whitespace
+   */
+  public ExtractSettings withChunkOverlap(int chunkOverlap){
+    if(chunkOverlap < 0)
+      throw new IllegalArgumentException("Chunk overlap must not be negative");
+
+    this.chunkOverlap = chunkOverlap;
+
+    return this;
+  }
+
+  /**
+   * Sets the time allowed for processing each document. Zero means no limit.
+   */
+  public ExtractSettings withTimeout(TimeValue timeout){
+    if(timeout == null || timeout.nanos() < 0)
+      throw new IllegalArgumentException("Timeout must not be negative");
+
+    this.timeout = timeout;
+
+    return this;
+  }
+
+  /**
+   * Sets the action taken when a document runs out of time
+   */
+  public ExtractSettings withTimeoutPolicy(TimeoutPolicy timeoutPolicy){
+    if(timeoutPolicy == null)
+      throw new IllegalArgumentException("Timeout policy must not be null");
+
+    this.timeoutPolicy = timeoutPolicy;
+
+    return this;
+  }
+
+  /**
+   * Sets when processors are created and configured
+   */
+  public ExtractSettings withInit(InitPolicy init){
+    if(init == null)
+      throw new IllegalArgumentException("Init policy must not be null");
+
+    this.init = init;
+
+    return this;
+  }
+
+  /**
+   * Sets the number of times the warmup texts are processed when the pipeline is created. Zero
+   * disables warmup.
+   */
+  public ExtractSettings withWarmup(int warmup){
+    if(warmup < 0)
+      throw new IllegalArgumentException("Warmup must not be negative");
+
+    this.warmup = warmup;
+
+    return this;
+  }
+
+  /**
+   * Adds texts to the list of sample texts processed during warmup
+   */
+  public ExtractSettings withWarmupTexts(Collection<String> warmupTexts){
+    this.warmupTexts.addAll(warmupTexts);
+
+    return this;
+  }
+
+  /**
+   * Sets the form in which the extracted entities are stored in the target field
+   */
+  public ExtractSettings withOutput(OutputMode output){
+    if(output == null)
+      throw new IllegalArgumentException("Output must not be null");
+
+    this.output = output;
+
+    return this;
+  }
+
+  /**
+   * Sets whether the number of times each entity is mentioned should be stored
+   */
+  public ExtractSettings withOutputCounts(boolean outputCounts){
+    this.outputCounts = outputCounts;
+
+    return this;
+  }
+
+  /**
+   * Sets whether the position of each mention of each entity should be stored
+   */
+  public ExtractSettings withOutputOffsets(boolean outputOffsets){
+    this.outputOffsets = outputOffsets;
+
+    return this;
+  }
+
+  /**
+   * Sets the maximum number of distinct entities stored for each document. Zero means there is no
+   * limit.
+   */
+  public ExtractSettings withMaxEntities(int maxEntities){
+    if(maxEntities < 0)
+      throw new IllegalArgumentException("Maximum number of entities must not be negative");
+
+    this.maxEntities = maxEntities;
+
+    return this;
+  }
+
+  /**
+   * Adds steps to the set of steps applied to each text before it is processed. Steps are
+   * always applied in the order in which they are declared in {@link Preprocessing}.
+   */
+  public ExtractSettings withPreprocessing(Collection<Preprocessing> preprocessing){
+    if(preprocessing.stream().anyMatch(Objects::isNull))
+      throw new IllegalArgumentException("Preprocessing steps must not be null");
+
+    this.preprocessing.addAll(preprocessing);
+
+    return this;
+  }
+
+  /**
+   * Sets the slow log threshold for the given level, above which the time taken to process a
+   * document is logged. A negative threshold disables logging at that level.
+   */
+  public ExtractSettings withSlowLogThreshold(SlowLogLevel level, TimeValue threshold){
+    if(level == null || threshold == null)
+      throw new IllegalArgumentException("Slow log level and threshold must not be null");
+
+    this.slowLogThresholds.put(level, threshold);
+
+    return this;
+  }
+
+  /**
+   * Sets the slow log threshold for the given level, above which the time taken by a single
+   * Annot8 processor on a document is logged. A negative threshold disables logging at that level.
+   */
+  public ExtractSettings withProcessorSlowLogThreshold(SlowLogLevel level, TimeValue threshold){
+    if(level == null || threshold == null)
+      throw new IllegalArgumentException("Slow log level and threshold must not be null");
+
+    this.processorSlowLogThresholds.put(level, threshold);
+
+    return this;
+  }
+
   /**
    * Adds an Annot8 processor to the list with no settings (i.e. EmptySettings)
    */
@@ -190,6 +549,158 @@ public class ExtractSettings {
     return targetField;
   }
 
+  /**
+   * Returns the maximum number of instances of each processor
+   */
+  public int getPoolSize() {
+    return poolSize;
+  }
+
+  /**
+   * Returns true if the literal prefilter should be used
+   */
+  public boolean isPrefilter() {
+    return prefilter;
+  }
+
+  /**
+   * Returns true if results should be cached
+   */
+  public boolean isCache() {
+    return cache;
+  }
+
+  /**
+   * Returns true if the processors should be run in parallel on each document
+   */
+  public boolean isParallelProcessors() {
+    return parallelProcessors;
+  }
+
+  /**
+   * Returns the field in which the source fingerprint is stored, or null if source fingerprints
+   * aren't used
+   */
+  public String getFingerprintField() {
+    return fingerprintField;
+  }
+
+  /**
+   * Returns the field in which the numeric IDs of the extracted entities are stored, or null if
+   * they aren't stored
+   */
+  public String getIdsField() {
+    return idsField;
+  }
+
+  /**
+   * Returns the length above which texts are split into chunks, or 0 if chunking is disabled
+   */
+  public int getChunkThreshold() {
+    return chunkThreshold;
+  }
+
+  /**
+   * Returns the maximum length of each chunk
+   */
+  public int getChunkSize() {
+    return chunkSize;
+  }
+
+  /**
+   * Returns the overlap between consecutive chunks
+   */
+  public int getChunkOverlap() {
+    return chunkOverlap;
+  }
+
+  /**
+   * Returns the time allowed for processing each document, where zero means no limit
+   */
+  public TimeValue getTimeout() {
+    return timeout;
+  }
+
+  /**
+   * Returns the action taken when a document runs out of time
+   */
+  public TimeoutPolicy getTimeoutPolicy() {
+    return timeoutPolicy;
+  }
+
+  /**
+   * Returns when processors are created and configured
+   */
+  public InitPolicy getInit() {
+    return init;
+  }
+
+  /**
+   * Returns the number of times the warmup texts are processed when the pipeline is created
+   */
+  public int getWarmup() {
+    return warmup;
+  }
+
+  /**
+   * Returns the sample texts processed during warmup, which if empty are generated
+   */
+  public List<String> getWarmupTexts() {
+    return warmupTexts;
+  }
+
+  /**
+   * Returns the form in which the extracted entities are stored in the target field
+   */
+  public OutputMode getOutput() {
+    return output;
+  }
+
+  /**
+   * Returns true if the number of times each entity is mentioned should be stored
+   */
+  public boolean isOutputCounts() {
+    return outputCounts;
+  }
+
+  /**
+   * Returns true if the position of each mention of each entity should be stored
+   */
+  public boolean isOutputOffsets() {
+    return outputOffsets;
+  }
+
+  /**
+   * Returns the maximum number of distinct entities stored for each document, or 0 if there is
+   * no limit
+   */
+  public int getMaxEntities() {
+    return maxEntities;
+  }
+
+  /**
+   * Returns the steps applied to each text before it is processed, in the order they are applied
+   */
+  public Set<Preprocessing> getPreprocessing() {
+    return preprocessing;
+  }
+
+  /**
+   * Returns the slow log thresholds for the time taken to process a document, by level. Levels
+   * without a threshold are disabled.
+   */
+  public Map<SlowLogLevel, TimeValue> getSlowLogThresholds() {
+    return slowLogThresholds;
+  }
+
+  /**
+   * Returns the slow log thresholds for the time taken by a single Annot8 processor on a
+   * document, by level. Levels without a threshold are disabled.
+   */
+  public Map<SlowLogLevel, TimeValue> getProcessorSlowLogThresholds() {
+    return processorSlowLogThresholds;
+  }
+
   /**
    * Returns the current set of processors and settings
    */
@@ -200,28 +711,143 @@ public class ExtractSettings {
     return processors;
   }
 
+  /**
+   * Actions that can be taken when a document runs out of time
+   */
+  public enum TimeoutPolicy {
+    /**
+     * Keep the entities extracted so far, and mark the document as having timed out
+     */
+    TAG,
+
+    /**
+     * Fail the document
+     */
+    FAIL
+  }
+
+  /**
+   * Times at which processors can be created and configured
+   */
+  public enum InitPolicy {
+    /**
+     * When the pipeline is created, optionally followed by warmup
+     */
+    EAGER,
+
+    /**
+     * When the first document is processed
+     */
+    LAZY
+  }
+
+  /**
+   * Steps which can be applied to each text before it is processed by the Annot8 processors
+   */
+  public enum Preprocessing {
+    /**
+     * Remove HTML tags and comments, and decode character references
+     */
+    STRIP_HTML,
+
+    /**
+     * Apply Unicode NFKC normalisation
+     */
+    NFKC,
+
+    /**
+     * Reverse common obfuscations of e-mail addresses and URLs, such as `[at]` and `hxxp://`
+     */
+    DEOBFUSCATE,
+
+    /**
+     * Convert the text to lower case
+     */
+    LOWERCASE
+  }
+
+  /**
+   * Forms in which the extracted entities can be stored
+   */
+  public enum OutputMode {
+    /**
+     * A single list of the entities of all types
+     */
+    FLAT,
+
+    /**
+     * An object with a list of entities for each annotation type
+     */
+    TYPED
+  }
+
   /**
    * Holds an Annot8 processor class (not an instantiated copy of the processor),
    * and the settings to be used for instances created of that class.
+   *
+   * Pairs are equal if they have the same processor and their settings have equal values (as
+   * determined by serialising them to JSON). Settings which can't be serialised are compared with
+   * their own equals method instead, and are never equal to settings which can.
+   *
+   * Optionally, the pair can also hold the trigger literals used by the prefilter and the time
+   * allowed for the processor on each document. These don't affect the processor itself, and so
+   * aren't considered when comparing pairs.
    */
   static class ProcessorSettingsPair{
     private final Class<? extends Processor> processor;
     private final Settings processorSettings;
+    private final String settingsFingerprint;
+    private final Set<String> triggers;
+    private final TimeValue timeout;
+    private final FieldFilter fields;
 
     /**
      * Create a pair using the supplied processor and EmptySettings
      */
     public ProcessorSettingsPair(Class<? extends Processor> processor){
-      this.processor = processor;
-      this.processorSettings = EmptySettings.getInstance();
+      this(processor, EmptySettings.getInstance());
     }
 
     /**
      * Create a pair using the supplied processor and settings
      */
     public ProcessorSettingsPair(Class<? extends Processor> processor, Settings processorSettings){
+      this(processor, processorSettings, null);
+    }
+
+    /**
+     * Create a pair using the supplied processor, settings and trigger literals.
+     *
+     * If triggers is null, the built-in triggers for the processor (if any) are used by the
+     * prefilter. If it is empty, the processor is always run.
+     */
+    public ProcessorSettingsPair(Class<? extends Processor> processor, Settings processorSettings, Collection<String> triggers){
+      this(processor, processorSettings, triggers, null);
+    }
+
+    /**
+     * Create a pair using the supplied processor, settings, trigger literals and the time allowed
+     * for the processor on each document.
+     *
+     * If timeout is null or zero, the processor is only limited by the timeout for the document.
+     */
+    public ProcessorSettingsPair(Class<? extends Processor> processor, Settings processorSettings, Collection<String> triggers, TimeValue timeout){
+      this(processor, processorSettings, triggers, timeout, null);
+    }
+
+    /**
+     * Create a pair using the supplied processor, settings, trigger literals, the time allowed
+     * for the processor on each document, and the fields it is run over.
+     *
+     * If fields is null, the processor is run over every field that is processed.
+     */
+    public ProcessorSettingsPair(Class<? extends Processor> processor, Settings processorSettings, Collection<String> triggers, TimeValue timeout, FieldFilter fields){
       this.processor = processor;
       this.processorSettings = processorSettings;
+      this.settingsFingerprint = Fingerprints.settings(processorSettings);
+      this.triggers = triggers == null ? null : Collections.unmodifiableSet(new HashSet<>(triggers));
+      this.timeout = timeout;
+      this.fields = fields;
     }
 
     /**
@@ -238,14 +864,54 @@ public class ExtractSettings {
       return processorSettings;
     }
 
+    /**
+     * Get a canonical string form of the settings, or null if the settings can't be serialised
+     */
+    public String getSettingsFingerprint() {
+      return settingsFingerprint;
+    }
+
+    /**
+     * Get trigger literals, or null if none were declared
+     */
+    public Set<String> getTriggers() {
+      return triggers;
+    }
+
+    /**
+     * Get the time allowed for the processor on each document, or null if none was declared
+     */
+    public TimeValue getTimeout() {
+      return timeout;
+    }
+
+    /**
+     * Get the fields the processor is run over, or null if it is run over every field
+     */
+    public FieldFilter getFields() {
+      return fields;
+    }
+
     @Override
     public boolean equals(Object obj) {
       if(!ProcessorSettingsPair.class.isInstance(obj))
         return false;
 
       ProcessorSettingsPair psp = (ProcessorSettingsPair) obj;
-      return psp.getProcessor().equals(this.processor) &&
-          psp.getSettings().equals(this.processorSettings);
+      if(!psp.getProcessor().equals(this.processor))
+        return false;
+
+      //Compare on the same basis as hashCode, so a pair with a fingerprint never equals one without
+      if(psp.getSettingsFingerprint() != null || this.settingsFingerprint != null)
+        return Objects.equals(psp.getSettingsFingerprint(), this.settingsFingerprint);
+
+      return Objects.equals(psp.getSettings(), this.processorSettings);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * processor.hashCode() +
+          (settingsFingerprint != null ? settingsFingerprint.hashCode() : Objects.hashCode(processorSettings));
     }
   }
 }
@@ -0,0 +1,198 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.logging.log4j.Logger;
+import org.elasticsearch.common.logging.Loggers;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.SlowLogLevel;
+import org.elasticsearch.ingest.IngestDocument;
+
+/**
+ * Slow log for an extract processor, in the style of the Elasticsearch indexing slow log.
+ *
+ * Documents are logged if the time spent extracting entities from them, or the time spent by any
+ * single Annot8 processor on them, exceeds one of the configured thresholds. The level at which
+ * a document is logged is that of the highest threshold exceeded. Entries record the document ID,
+ * the length of each field processed, the slowest processor and the number of entities, but not
+ * the content of the document.
+ *
+ * Entries are written to the `extract.slowlog` logger, so they can be directed to their own file
+ * in the Elasticsearch logging configuration.
+ */
+class ExtractSlowLog {
+
+  /**
+   * Name of the logger to which entries are written
+   */
+  static final String LOGGER_NAME = "extract.slowlog";
+
+  private static final Logger logger = Loggers.getLogger(LOGGER_NAME);
+
+  //Levels in decreasing order of severity, matching the thresholds below
+  private static final SlowLogLevel[] LEVELS = { SlowLogLevel.WARN, SlowLogLevel.INFO, SlowLogLevel.DEBUG, SlowLogLevel.TRACE };
+
+  private final String tag;
+  private final List<String> processors;
+  private final long[] documentThresholds = new long[LEVELS.length];
+  private final long[] processorThresholds = new long[LEVELS.length];
+
+  /**
+   * Create a new slow log for the extract processor with the given tag and Annot8 processors
+   * (by class name). Thresholds which are missing or negative are disabled.
+   */
+  ExtractSlowLog(String tag, List<String> processors, Map<SlowLogLevel, TimeValue> documentThresholds,
+      Map<SlowLogLevel, TimeValue> processorThresholds){
+    this.tag = tag == null ? ExtractStats.UNTAGGED : tag;
+    this.processors = processors;
+
+    for(int i = 0; i < LEVELS.length; i++){
+      this.documentThresholds[i] = nanos(documentThresholds.get(LEVELS[i]));
+      this.processorThresholds[i] = nanos(processorThresholds.get(LEVELS[i]));
+    }
+  }
+
+  /**
+   * Creates a slow log with the thresholds from the settings, or returns null if no thresholds
+   * are enabled
+   */
+  static ExtractSlowLog forSettings(String tag, ExtractSettings settings, List<String> processors){
+    boolean enabled = settings.getSlowLogThresholds().values().stream().anyMatch(t -> t.nanos() >= 0)
+        || settings.getProcessorSlowLogThresholds().values().stream().anyMatch(t -> t.nanos() >= 0);
+
+    if(!enabled)
+      return null;
+
+    return new ExtractSlowLog(tag, processors, settings.getSlowLogThresholds(), settings.getProcessorSlowLogThresholds());
+  }
+
+  private static long nanos(TimeValue threshold){
+    return threshold == null ? -1 : threshold.nanos();
+  }
+
+  /**
+   * Returns the level at which a document should be logged, given the time taken to process it
+   * and the time spent by each processor, or null if it shouldn't be logged
+   */
+  SlowLogLevel level(long tookNanos, TimeBudget budget){
+    long slowest = budget.getUsed(slowestProcessor(budget));
+
+    for(int i = 0; i < LEVELS.length; i++){
+      if(exceeds(tookNanos, documentThresholds[i]) || exceeds(slowest, processorThresholds[i]))
+        return LEVELS[i];
+    }
+
+    return null;
+  }
+
+  private static boolean exceeds(long nanos, long threshold){
+    return threshold >= 0 && nanos > threshold;
+  }
+
+  /**
+   * Logs the document at the given level. The texts are the fields processed (keyed by name), of
+   * which only the lengths are logged.
+   */
+  void log(SlowLogLevel level, IngestDocument ingestDocument, long tookNanos, TimeBudget budget, Map<String, String> texts, int entities, boolean success){
+    Entry entry = new Entry(ingestDocument, tookNanos, budget, texts, entities, success);
+    switch (level) {
+      case WARN:
+        logger.warn("{}", entry);
+        break;
+      case INFO:
+        logger.info("{}", entry);
+        break;
+      case DEBUG:
+        logger.debug("{}", entry);
+        break;
+      default:
+        logger.trace("{}", entry);
+        break;
+    }
+  }
+
+  /**
+   * Returns the index of the processor which spent the longest on the document
+   */
+  private int slowestProcessor(TimeBudget budget){
+    int slowest = 0;
+    for(int i = 1; i < processors.size(); i++){
+      if(budget.getUsed(i) > budget.getUsed(slowest))
+        slowest = i;
+    }
+
+    return slowest;
+  }
+
+  /**
+   * A slow log entry, which is only formatted if it is actually written
+   */
+  private final class Entry {
+    private final IngestDocument ingestDocument;
+    private final long tookNanos;
+    private final TimeBudget budget;
+    private final Map<String, String> texts;
+    private final int entities;
+    private final boolean success;
+
+    private Entry(IngestDocument ingestDocument, long tookNanos, TimeBudget budget, Map<String, String> texts, int entities, boolean success){
+      this.ingestDocument = ingestDocument;
+      this.tookNanos = tookNanos;
+      this.budget = budget;
+      this.texts = texts;
+      this.entities = entities;
+      this.success = success;
+    }
+
+    @Override
+    public String toString() {
+      Map<String, Object> metadata = ingestDocument.getSourceAndMetadata();
+      int slowest = slowestProcessor(budget);
+
+      StringBuilder sb = new StringBuilder();
+      sb.append('[').append(tag).append("] ");
+      sb.append("took[").append(TimeValue.timeValueNanos(tookNanos)).append("], ");
+      sb.append("took_millis[").append(TimeUnit.NANOSECONDS.toMillis(tookNanos)).append("], ");
+      sb.append("index[").append(metadata.get(IngestDocument.MetaData.INDEX.getFieldName())).append("], ");
+      sb.append("id[").append(metadata.get(IngestDocument.MetaData.ID.getFieldName())).append("], ");
+
+      sb.append("fields[");
+      boolean first = true;
+      for(Map.Entry<String, String> e : texts.entrySet()){
+        if(!first)
+          sb.append(", ");
+        sb.append(e.getKey()).append('=').append(e.getValue().length());
+        first = false;
+      }
+      sb.append("], ");
+
+      if(!processors.isEmpty()){
+        sb.append("slowest_processor[").append(processors.get(slowest)).append("], ");
+        sb.append("slowest_processor_took[").append(TimeValue.timeValueNanos(budget.getUsed(slowest))).append("], ");
+      }
+
+      sb.append("entities[").append(entities).append("], ");
+      sb.append("timed_out[").append(budget.isExceeded()).append("], ");
+      sb.append("failed[").append(!success).append(']');
+
+      return sb.toString();
+    }
+  }
+}
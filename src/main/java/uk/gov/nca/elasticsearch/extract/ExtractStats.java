@@ -0,0 +1,335 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.elasticsearch.common.xcontent.ToXContentFragment;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * Node level statistics for extract processors, grouped by the ID of the ingest pipeline, then by
+ * the tag of the extract processor within it, and then by Annot8 processor class. Extract
+ * processors used by the bulk extract endpoint rather than a pipeline are grouped together.
+ *
+ * Counters are striped ({@link LongAdder}) and latencies are recorded in wait-free HDR
+ * histograms, so that statistics can be collected on the ingest path with little overhead.
+ */
+class ExtractStats implements ToXContentFragment {
+
+  /**
+   * Name used for extract processors which don't have a tag
+   */
+  static final String UNTAGGED = "_untagged";
+
+  private final Map<String, Map<String, PipelineStats>> pipelines = new ConcurrentHashMap<>();
+  private final PipelineStats bulk = new PipelineStats();
+
+  /**
+   * Returns the statistics for the extract processor with the given tag in the given pipeline,
+   * creating them if necessary
+   */
+  PipelineStats pipeline(String pipeline, String tag){
+    return pipelines.computeIfAbsent(pipeline, p -> new ConcurrentHashMap<>())
+        .computeIfAbsent(tag == null ? UNTAGGED : tag, t -> new PipelineStats());
+  }
+
+  /**
+   * Returns the statistics for the extract processors used by the bulk extract endpoint
+   */
+  PipelineStats bulk(){
+    return bulk;
+  }
+
+  /**
+   * Removes the statistics for every extract processor except those given, which are the tags of
+   * the extract processors within each pipeline
+   */
+  void retain(Map<String, Set<String>> keep){
+    pipelines.keySet().retainAll(keep.keySet());
+    pipelines.forEach((pipeline, tags) -> tags.keySet().retainAll(keep.get(pipeline)));
+  }
+
+  /**
+   * Removes all statistics
+   */
+  void clear(){
+    pipelines.clear();
+  }
+
+  @Override
+  public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+    builder.startObject("pipelines");
+    for(Map.Entry<String, Map<String, PipelineStats>> p : new TreeMap<>(pipelines).entrySet()){
+      builder.startObject(p.getKey());
+      for(Map.Entry<String, PipelineStats> e : new TreeMap<>(p.getValue()).entrySet()){
+        builder.startObject(e.getKey());
+        e.getValue().toXContent(builder, params);
+        builder.endObject();
+      }
+      builder.endObject();
+    }
+    builder.endObject();
+
+    builder.startObject("bulk");
+    bulk.toXContent(builder, params);
+    builder.endObject();
+
+    return builder;
+  }
+
+  /**
+   * Timing statistics for an operation, recording the number of times it was carried out, the
+   * number of failures and timeouts, and the distribution of the time taken
+   */
+  static class TimingStats implements ToXContentFragment {
+    private final LongAdder count = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder timedOut = new LongAdder();
+    private final LongAdder nanos = new LongAdder();
+    private final ConcurrentHistogram latency = new ConcurrentHistogram(2);
+
+    /**
+     * Records a completed operation which took the given number of nanoseconds
+     */
+    void record(long tookNanos, boolean success){
+      count.increment();
+      nanos.add(tookNanos);
+      latency.recordValue(Math.max(0, tookNanos));
+
+      if(!success)
+        failed.increment();
+    }
+
+    /**
+     * Records that an operation ran out of time
+     */
+    void recordTimeout(){
+      timedOut.increment();
+    }
+
+    /**
+     * Returns the number of operations recorded
+     */
+    long getCount(){
+      return count.sum();
+    }
+
+    /**
+     * Returns the number of failed operations recorded
+     */
+    long getFailed(){
+      return failed.sum();
+    }
+
+    /**
+     * Returns the number of operations which ran out of time
+     */
+    long getTimedOut(){
+      return timedOut.sum();
+    }
+
+    /**
+     * Returns the total time taken by recorded operations, in nanoseconds
+     */
+    long getNanos(){
+      return nanos.sum();
+    }
+
+    /**
+     * Returns the given percentile of the time taken, in nanoseconds
+     */
+    long getPercentile(double percentile){
+      return latency.copy().getValueAtPercentile(percentile);
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+      builder.field("count", getCount());
+      builder.field("failed", getFailed());
+      builder.field("timed_out", getTimedOut());
+      builder.field("time_in_nanos", getNanos());
+
+      Histogram h = latency.copy();
+      builder.startObject("latency_in_micros");
+      builder.field("mean", TimeUnit.NANOSECONDS.toMicros((long) h.getMean()));
+      builder.field("p50", TimeUnit.NANOSECONDS.toMicros(h.getValueAtPercentile(50.0)));
+      builder.field("p90", TimeUnit.NANOSECONDS.toMicros(h.getValueAtPercentile(90.0)));
+      builder.field("p99", TimeUnit.NANOSECONDS.toMicros(h.getValueAtPercentile(99.0)));
+      builder.field("p999", TimeUnit.NANOSECONDS.toMicros(h.getValueAtPercentile(99.9)));
+      builder.field("max", TimeUnit.NANOSECONDS.toMicros(h.getMaxValue()));
+      builder.endObject();
+
+      return builder;
+    }
+  }
+
+  /**
+   * Statistics for a single extract processor, and the Annot8 processors within it
+   */
+  static class PipelineStats extends TimingStats {
+    private final Map<String, ProcessorStats> processors = new ConcurrentHashMap<>();
+    private final LongAdder skipped = new LongAdder();
+    private final LongAdder truncated = new LongAdder();
+    private volatile long initNanos = -1;
+    private volatile long warmupNanos = 0;
+
+    /**
+     * Returns the statistics for the given Annot8 processor class, creating them if necessary
+     */
+    ProcessorStats processor(Class<?> clazz){
+      return processors.computeIfAbsent(clazz.getName(), c -> new ProcessorStats());
+    }
+
+    /**
+     * Records that a document was skipped, as it hadn't changed since it was last processed
+     */
+    void recordSkipped(){
+      skipped.increment();
+    }
+
+    /**
+     * Returns the number of documents skipped as they hadn't changed
+     */
+    long getSkipped(){
+      return skipped.sum();
+    }
+
+    /**
+     * Records that some of the entities extracted from a document weren't stored, as there were
+     * more than the maximum
+     */
+    void recordTruncated(){
+      truncated.increment();
+    }
+
+    /**
+     * Returns the number of documents whose entities were truncated
+     */
+    long getTruncated(){
+      return truncated.sum();
+    }
+
+    /**
+     * Records that the processors haven't been initialised yet, for example because the extract
+     * processor has been replaced by one with lazy initialisation
+     */
+    void resetInit(){
+      initNanos = -1;
+      warmupNanos = 0;
+    }
+
+    /**
+     * Records the time taken to create and configure the processors
+     */
+    void recordInit(long tookNanos){
+      initNanos = tookNanos;
+    }
+
+    /**
+     * Records the time taken to warm up the processors
+     */
+    void recordWarmup(long tookNanos){
+      warmupNanos = tookNanos;
+    }
+
+    /**
+     * Returns the time taken to create and configure the processors, in nanoseconds, or -1 if
+     * they haven't been initialised yet
+     */
+    long getInitNanos(){
+      return initNanos;
+    }
+
+    /**
+     * Returns the time taken to warm up the processors, in nanoseconds
+     */
+    long getWarmupNanos(){
+      return warmupNanos;
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+      super.toXContent(builder, params);
+      builder.field("skipped", getSkipped());
+      builder.field("truncated", getTruncated());
+
+      long init = initNanos;
+      builder.startObject("init");
+      builder.field("initialised", init >= 0);
+      builder.field("time_in_nanos", Math.max(0, init));
+      builder.field("warmup_time_in_nanos", warmupNanos);
+      builder.endObject();
+
+      builder.startObject("processors");
+      for(Map.Entry<String, ProcessorStats> e : new TreeMap<>(processors).entrySet()){
+        builder.startObject(e.getKey());
+        e.getValue().toXContent(builder, params);
+        builder.endObject();
+      }
+      builder.endObject();
+
+      return builder;
+    }
+  }
+
+  /**
+   * Statistics for a single Annot8 processor
+   */
+  static class ProcessorStats extends TimingStats {
+    private final LongAdder characters = new LongAdder();
+    private final LongAdder entities = new LongAdder();
+
+    /**
+     * Records the amount of text processed, and the number of entities extracted from it
+     */
+    void recordOutput(long characterCount, long entityCount){
+      characters.add(characterCount);
+      entities.add(entityCount);
+    }
+
+    /**
+     * Returns the number of characters of text processed
+     */
+    long getCharacters(){
+      return characters.sum();
+    }
+
+    /**
+     * Returns the number of entities extracted
+     */
+    long getEntities(){
+      return entities.sum();
+    }
+
+    @Override
+    public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+      super.toXContent(builder, params);
+      builder.field("characters", getCharacters());
+      builder.field("entities", getEntities());
+
+      return builder;
+    }
+  }
+}
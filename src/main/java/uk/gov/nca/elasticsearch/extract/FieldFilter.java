@@ -0,0 +1,145 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.elasticsearch.common.regex.Regex;
+
+/**
+ * Selects fields by their path, using include and exclude globs (e.g. `headers.*`).
+ *
+ * A path is selected if it matches any of the include globs (or there are none), and doesn't
+ * match any of the exclude globs. Paths are matched without array indices, so `messages.body`
+ * matches the text read from `messages.0.body`.
+ */
+final class FieldFilter {
+  private final String[] includes;
+  private final String[] excludes;
+
+  /**
+   * Create a new filter from include and exclude globs, either of which may be empty
+   */
+  FieldFilter(Collection<String> includes, Collection<String> excludes){
+    this.includes = includes.toArray(new String[0]);
+    this.excludes = excludes.toArray(new String[0]);
+
+    for(String glob : this.includes)
+      validate(glob);
+    for(String glob : this.excludes)
+      validate(glob);
+  }
+
+  /**
+   * Creates a filter from its configuration, which is either a list of include globs or an object
+   * with `include` and `exclude` lists
+   */
+  static FieldFilter parse(Object config){
+    if(config instanceof List)
+      return new FieldFilter(readGlobs(config, "fields"), Collections.emptyList());
+
+    if(config instanceof Map){
+      Map<?, ?> map = (Map<?, ?>) config;
+      for(Object key : map.keySet()){
+        if(!"include".equals(key) && !"exclude".equals(key))
+          throw new IllegalArgumentException("Unknown property " + key + " in fields");
+      }
+
+      return new FieldFilter(readGlobs(map.get("include"), "include"), readGlobs(map.get("exclude"), "exclude"));
+    }
+
+    throw new IllegalArgumentException("Property fields must be a List or a Map");
+  }
+
+  private static List<String> readGlobs(Object config, String name){
+    if(config == null)
+      return Collections.emptyList();
+
+    if(config instanceof String)
+      return Collections.singletonList((String) config);
+
+    if(!(config instanceof List))
+      throw new IllegalArgumentException("Property " + name + " must be a List");
+
+    for(Object o : (List<?>) config){
+      if(!(o instanceof String))
+        throw new IllegalArgumentException("Property " + name + " must only contain Strings");
+    }
+
+    return (List<String>) config;
+  }
+
+  private static void validate(String glob){
+    if(glob == null || glob.isEmpty())
+      throw new IllegalArgumentException("Field globs must not be empty");
+  }
+
+  /**
+   * Returns true if the path (without array indices) is selected by this filter
+   */
+  boolean matches(String path){
+    if(includes.length > 0 && !Regex.simpleMatch(includes, path))
+      return false;
+
+    return !Regex.simpleMatch(excludes, path);
+  }
+
+  /**
+   * Returns the path of the text with the given name, which is the name without array indices
+   */
+  static String pathOf(String name){
+    int start = 0;
+    StringBuilder sb = null;
+    while(start <= name.length()){
+      int end = name.indexOf('.', start);
+      if(end < 0)
+        end = name.length();
+
+      if(isIndex(name, start, end)){
+        if(sb == null)
+          sb = new StringBuilder(name.length()).append(name, 0, Math.max(0, start - 1));
+      }else if(sb != null){
+        if(sb.length() > 0)
+          sb.append('.');
+        sb.append(name, start, end);
+      }
+
+      start = end + 1;
+    }
+
+    return sb == null ? name : sb.toString();
+  }
+
+  private static boolean isIndex(String name, int start, int end){
+    if(start == end)
+      return false;
+
+    for(int i = start; i < end; i++){
+      if(!Character.isDigit(name.charAt(i)))
+        return false;
+    }
+
+    return true;
+  }
+
+  @Override
+  public String toString() {
+    return "include=" + String.join(",", includes) + ";exclude=" + String.join(",", excludes);
+  }
+}
@@ -0,0 +1,209 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.stream.Collectors;
+import org.elasticsearch.ingest.IngestDocument;
+
+/**
+ * A precompiled path to a field in an ingest document, which resolves all of the text values at
+ * that path in a single traversal of the document.
+ *
+ * Paths are dot separated (e.g. `message.body`). Arrays are traversed implicitly, so
+ * `messages.body` resolves the `body` field of every object in the `messages` array. Arrays can
+ * also be marked explicitly (`messages[].body`), or a single element can be selected by its index
+ * (`messages.0.body`). As with other ingest processors, paths beginning with `_source.` refer to
+ * the document source and paths beginning with `_ingest.` refer to the ingest metadata.
+ *
+ * Each text value is resolved with a name, which is the path with the index of each array element
+ * included (e.g. `messages.0.body`), so that names are unique within a document. Values which
+ * aren't strings are skipped.
+ */
+final class FieldPath {
+  private static final String SOURCE_PREFIX = "_source";
+  private static final String INGEST_PREFIX = "_ingest";
+
+  private static final Set<String> METADATA_FIELDS = Arrays.stream(IngestDocument.MetaData.values())
+      .map(IngestDocument.MetaData::getFieldName)
+      .collect(Collectors.toSet());
+
+  private final String path;
+  private final boolean ingestMetadata;
+  private final String[] segments;
+  private final String[] prefixes;
+
+  private FieldPath(String path){
+    String[] parts = path.split("\\.");
+
+    int start = 0;
+    boolean ingest = false;
+    if(parts.length > 1 && SOURCE_PREFIX.equals(parts[0])){
+      start = 1;
+    }else if(parts.length > 1 && INGEST_PREFIX.equals(parts[0])){
+      start = 1;
+      ingest = true;
+    }
+
+    this.ingestMetadata = ingest;
+    this.segments = new String[parts.length - start];
+    for(int i = 0; i < segments.length; i++){
+      String s = parts[i + start];
+      segments[i] = s.endsWith("[]") ? s.substring(0, s.length() - 2) : s;
+
+      if(segments[i].isEmpty())
+        throw new IllegalArgumentException("Invalid field path " + path);
+    }
+
+    //Precompute the names of each prefix of the path, so that they don't need to be built
+    //when no arrays are traversed
+    this.prefixes = new String[segments.length + 1];
+    prefixes[0] = "";
+    for(int i = 0; i < segments.length; i++)
+      prefixes[i + 1] = i == 0 ? segments[0] : prefixes[i] + "." + segments[i];
+
+    this.path = prefixes[segments.length];
+  }
+
+  /**
+   * Compiles the path
+   */
+  static FieldPath compile(String path){
+    if(path == null || path.isEmpty())
+      throw new IllegalArgumentException("Field path must not be empty");
+
+    return new FieldPath(path);
+  }
+
+  /**
+   * Returns the path, with any array markers and the `_source` prefix removed
+   */
+  String getPath(){
+    return path;
+  }
+
+  /**
+   * Passes the name and value of each text value at this path in the document to the consumer
+   */
+  void resolve(IngestDocument ingestDocument, BiConsumer<String, String> consumer){
+    Map<String, Object> root = ingestMetadata ? ingestDocument.getIngestMetadata() : ingestDocument.getSourceAndMetadata();
+    resolve(root, 0, null, consumer);
+  }
+
+  /**
+   * Resolves the remaining segments of the path against the node. The name is the name of the
+   * node, or null if no arrays have been traversed (in which case the name is the corresponding
+   * prefix of the path).
+   */
+  private void resolve(Object node, int segment, String name, BiConsumer<String, String> consumer){
+    if(node instanceof List){
+      List<?> list = (List<?>) node;
+
+      //Select a single element if the next segment is an index
+      if(segment < segments.length){
+        int index = parseIndex(segments[segment]);
+        if(index >= 0){
+          if(index < list.size())
+            resolve(list.get(index), segment + 1, name == null ? null : name + "." + index, consumer);
+
+          return;
+        }
+      }
+
+      String prefix = name == null ? prefixes[segment] : name;
+      for(int i = 0; i < list.size(); i++)
+        resolve(list.get(i), segment, prefix + "." + i, consumer);
+
+      return;
+    }
+
+    if(segment == segments.length){
+      if(node instanceof String)
+        consumer.accept(name == null ? path : name, (String) node);
+
+      return;
+    }
+
+    if(node instanceof Map){
+      Object child = ((Map<?, ?>) node).get(segments[segment]);
+      if(child != null)
+        resolve(child, segment + 1, name == null ? null : name + "." + segments[segment], consumer);
+    }
+  }
+
+  /**
+   * Passes the name and value of every text value in the document source to the consumer,
+   * including those in nested objects and arrays. Fields whose name is in excluded are skipped,
+   * as are the document metadata fields (e.g. _id).
+   */
+  static void resolveAll(IngestDocument ingestDocument, Set<String> excluded, BiConsumer<String, String> consumer){
+    for(Map.Entry<String, Object> e : ingestDocument.getSourceAndMetadata().entrySet()){
+      if(isMetadata(e.getKey()))
+        continue;
+
+      resolveAll(e.getValue(), e.getKey(), excluded, consumer);
+    }
+  }
+
+  private static void resolveAll(Object node, String name, Set<String> excluded, BiConsumer<String, String> consumer){
+    if(excluded.contains(name))
+      return;
+
+    if(node instanceof String){
+      consumer.accept(name, (String) node);
+    }else if(node instanceof List){
+      List<?> list = (List<?>) node;
+      for(int i = 0; i < list.size(); i++)
+        resolveAll(list.get(i), name + "." + i, excluded, consumer);
+    }else if(node instanceof Map){
+      for(Map.Entry<?, ?> e : ((Map<?, ?>) node).entrySet())
+        resolveAll(e.getValue(), name + "." + e.getKey(), excluded, consumer);
+    }
+  }
+
+  /**
+   * Returns true if the field is one of the document metadata fields
+   */
+  private static boolean isMetadata(String field){
+    return METADATA_FIELDS.contains(field);
+  }
+
+  /**
+   * Returns the segment as an array index, or -1 if it isn't a number
+   */
+  private static int parseIndex(String segment){
+    for(int i = 0; i < segment.length(); i++){
+      if(!Character.isDigit(segment.charAt(i)))
+        return -1;
+    }
+
+    try {
+      return Integer.parseInt(segment);
+    }catch (NumberFormatException e){
+      return -1;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return path;
+  }
+}
@@ -0,0 +1,150 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import uk.gov.nca.elasticsearch.extract.ExtractSettings.ProcessorSettingsPair;
+
+/**
+ * Decides which processors are run over each field, so that processors which only need some of
+ * the fields of a document don't scan the rest.
+ *
+ * Each processor may declare a {@link FieldFilter}, and processors without one are run over
+ * every field. Fields are grouped by the processors routed to them, so that each group of
+ * processors is run once over all of its fields. The route for each field path is computed the
+ * first time the path is seen (or when the pipeline is created, for fields named explicitly) and
+ * then looked up for each document.
+ */
+class FieldRouter {
+
+  /**
+   * Maximum number of field paths for which routes are remembered, to bound the memory used when
+   * processing all fields of documents with arbitrary field names
+   */
+  static final int MAX_ROUTES = 10000;
+
+  private final FieldFilter[] filters;
+  private final Map<String, Route> routes = new ConcurrentHashMap<>();
+  private final Map<String, Route> canonical = new ConcurrentHashMap<>();
+
+  /**
+   * Create a router from a list of filters, one per processor. A null filter means that the
+   * corresponding processor is run over every field.
+   */
+  FieldRouter(List<FieldFilter> filters){
+    this.filters = filters.toArray(new FieldFilter[0]);
+  }
+
+  /**
+   * Creates a router for the processors, or returns null if none of them declare which fields
+   * they are run over
+   */
+  static FieldRouter forProcessors(List<ProcessorSettingsPair> processors){
+    List<FieldFilter> filters = new ArrayList<>(processors.size());
+    boolean any = false;
+    for(ProcessorSettingsPair psp : processors){
+      filters.add(psp.getFields());
+      any |= psp.getFields() != null;
+    }
+
+    return any ? new FieldRouter(filters) : null;
+  }
+
+  /**
+   * Computes the routes for the given field paths in advance
+   */
+  void prepare(Collection<String> paths){
+    paths.forEach(this::routeForPath);
+  }
+
+  /**
+   * Returns the route for the text with the given name
+   */
+  Route route(String name){
+    return routeForPath(FieldFilter.pathOf(name));
+  }
+
+  private Route routeForPath(String path){
+    Route route = routes.get(path);
+    if(route != null)
+      return route;
+
+    int[] selected = new int[filters.length];
+    int count = 0;
+    for(int i = 0; i < filters.length; i++){
+      if(filters[i] == null || filters[i].matches(path))
+        selected[count++] = i;
+    }
+
+    //Share a single instance between paths with the same processors, so routes can be grouped by identity
+    Route r = new Route(Arrays.copyOf(selected, count));
+    route = canonical.computeIfAbsent(r.getKey(), k -> r);
+
+    if(routes.size() < MAX_ROUTES)
+      routes.put(path, route);
+
+    return route;
+  }
+
+  /**
+   * Groups the texts (keyed by name) by their route, omitting texts which no processors are
+   * routed to
+   */
+  Map<Route, Map<String, String>> group(Map<String, String> texts){
+    Map<Route, Map<String, String>> groups = new LinkedHashMap<>();
+    for(Map.Entry<String, String> e : texts.entrySet()){
+      Route route = route(e.getKey());
+      if(route.getProcessors().length > 0)
+        groups.computeIfAbsent(route, r -> new LinkedHashMap<>()).put(e.getKey(), e.getValue());
+    }
+
+    return groups;
+  }
+
+  /**
+   * The processors (by index) which are run over a field
+   */
+  static final class Route {
+    private final int[] processors;
+    private final String key;
+
+    private Route(int[] processors){
+      this.processors = processors;
+      this.key = Arrays.toString(processors);
+    }
+
+    /**
+     * Returns the indices of the processors, in order
+     */
+    int[] getProcessors(){
+      return processors;
+    }
+
+    /**
+     * Returns a string which uniquely identifies the processors in this route
+     */
+    String getKey(){
+      return key;
+    }
+  }
+}
@@ -0,0 +1,153 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import com.fasterxml.jackson.databind.MapperFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import io.annot8.core.settings.EmptySettings;
+import io.annot8.core.settings.Settings;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.AccessController;
+import java.security.MessageDigest;
+import java.security.PrivilegedAction;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.elasticsearch.common.hash.MessageDigests;
+import org.elasticsearch.common.hash.MurmurHash3;
+import uk.gov.nca.elasticsearch.extract.ExtractSettings.ProcessorSettingsPair;
+
+/**
+ * Utility methods for computing fingerprints of processor configuration and text, used to
+ * recognise identical configurations and content.
+ */
+final class Fingerprints {
+
+  private static final ObjectMapper objectMapper = new ObjectMapper()
+      .registerModule(new JavaTimeModule())
+      .registerModule(new Jdk8Module())
+      .configure(MapperFeature.SORT_PROPERTIES_ALPHABETICALLY, true)
+      .configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+
+  private static final AtomicLong unique = new AtomicLong();
+
+  private Fingerprints(){
+    //Utility class
+  }
+
+  /**
+   * Returns a canonical string form of the settings, such that settings with equal values have
+   * equal fingerprints.
+   *
+   * Settings are serialised to JSON. If the settings can't be serialised (for example, because
+   * they have no public properties) then null is returned.
+   */
+  static String settings(Settings settings){
+    if(settings == null || settings instanceof EmptySettings)
+      return "{}";
+
+    String json = AccessController.doPrivileged((PrivilegedAction<String>) () -> {
+      try {
+        return objectMapper.writeValueAsString(settings);
+      } catch (Exception e) {
+        return null;
+      }
+    });
+
+    if(json == null)
+      return null;
+
+    return settings.getClass().getName() + json;
+  }
+
+  /**
+   * Returns a fingerprint of a list of processors and their settings, as a hex encoded SHA-256
+   * hash. The order of the processors is significant.
+   *
+   * Settings which can't be serialised are given a unique fingerprint, so the result will never
+   * be equal to that of any other list of processors.
+   */
+  static String processors(List<ProcessorSettingsPair> processors){
+    StringBuilder sb = new StringBuilder();
+    for(ProcessorSettingsPair psp : processors){
+      String settings = psp.getSettingsFingerprint();
+
+      sb.append(psp.getProcessor().getName())
+          .append('\n')
+          .append(settings != null ? settings : "#" + unique.incrementAndGet())
+          .append('\n');
+
+      if(psp.getFields() != null)
+        sb.append(psp.getFields()).append('\n');
+    }
+
+    return MessageDigests.toHexString(text(sb.toString()));
+  }
+
+  /**
+   * Returns a compact fingerprint of the texts (keyed by field name) and the configuration of
+   * the processor, as the URL safe base64 encoding of the first 128 bits of their SHA-256 hash.
+   * The order of the texts isn't significant.
+   */
+  static String source(String configuration, Map<String, String> texts){
+    MessageDigest digest = MessageDigests.sha256();
+    update(digest, configuration);
+
+    for(Map.Entry<String, String> e : new TreeMap<>(texts).entrySet()){
+      update(digest, e.getKey());
+      update(digest, e.getValue());
+    }
+
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest.digest(), 16));
+  }
+
+  /**
+   * Adds the length and content of the string to the digest, so that the boundaries between
+   * consecutive strings are unambiguous
+   */
+  private static void update(MessageDigest digest, String s){
+    byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+
+    digest.update(ByteBuffer.allocate(Integer.BYTES).putInt(bytes.length).array());
+    digest.update(bytes);
+  }
+
+  /**
+   * Returns a stable 64 bit ID for an entity, which is the same for all entities that are equal
+   * once normalised (by removing leading and trailing whitespace and converting to lower case).
+   * IDs are the first 64 bits of the 128 bit MurmurHash3 hash of the normalised entity.
+   */
+  static long entity(String entity){
+    byte[] bytes = entity.trim().toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8);
+    return MurmurHash3.hash128(bytes, 0, bytes.length, 0, new MurmurHash3.Hash128()).h1;
+  }
+
+  /**
+   * Returns the SHA-256 hash of the text
+   */
+  static byte[] text(String text){
+    return MessageDigests.sha256().digest(text.getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,258 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.lucene.util.IntsRefBuilder;
+import org.apache.lucene.util.fst.Builder;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.NoOutputs;
+import org.apache.lucene.util.fst.Util;
+import org.elasticsearch.common.hash.MessageDigests;
+import org.elasticsearch.common.xcontent.ToXContentFragment;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * A list of entries (e.g. names or domains) compiled into a Lucene FST, which is matched against
+ * text by walking the FST from each word boundary in turn.
+ *
+ * Matching restarts at each word boundary, and reads the text from there until the FST has no
+ * entry beginning with the characters read, so the time taken grows with the length of the text
+ * times the length of the longest prefix of an entry found in it (at most the longest entry).
+ *
+ * Entries are matched on word boundaries, so an entry is only matched if it isn't immediately
+ * preceded or followed by a letter or digit. If the gazetteer ignores case, entries and text are
+ * both lower cased (character by character, so offsets are unaffected) before matching.
+ *
+ * Gazetteers are immutable once loaded, and so can be shared by any number of threads.
+ */
+class Gazetteer implements ToXContentFragment {
+
+  /**
+   * Callback for matches found in text
+   */
+  interface MatchConsumer {
+    /**
+     * Called with the start (inclusive) and end (exclusive) of each match
+     */
+    void accept(int begin, int end);
+  }
+
+  private final FST<Object> fst;
+  private final boolean ignoreCase;
+  private final long entries;
+  private final String version;
+  private final long loadNanos;
+
+  private final LongAdder texts = new LongAdder();
+  private final LongAdder characters = new LongAdder();
+  private final LongAdder matches = new LongAdder();
+
+  private Gazetteer(FST<Object> fst, boolean ignoreCase, long entries, String version, long loadNanos){
+    this.fst = fst;
+    this.ignoreCase = ignoreCase;
+    this.entries = entries;
+    this.version = version;
+    this.loadNanos = loadNanos;
+  }
+
+  /**
+   * Loads a gazetteer from a UTF-8 file with one entry per line. Blank lines, and lines beginning
+   * with #, are ignored.
+   */
+  static Gazetteer load(Path file, boolean ignoreCase) throws IOException {
+    long start = System.nanoTime();
+
+    SortedSet<String> sorted = new TreeSet<>();
+    try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+      String line;
+      while((line = reader.readLine()) != null){
+        String entry = line.trim();
+        if(entry.isEmpty() || entry.startsWith("#"))
+          continue;
+
+        sorted.add(ignoreCase ? fold(entry) : entry);
+      }
+    }
+
+    return new Gazetteer(compile(sorted), ignoreCase, sorted.size(), version(sorted, ignoreCase), System.nanoTime() - start);
+  }
+
+  /**
+   * Creates a gazetteer from the given entries
+   */
+  static Gazetteer of(Iterable<String> entries, boolean ignoreCase) throws IOException {
+    long start = System.nanoTime();
+
+    SortedSet<String> sorted = new TreeSet<>();
+    for(String entry : entries)
+      sorted.add(ignoreCase ? fold(entry) : entry);
+
+    return new Gazetteer(compile(sorted), ignoreCase, sorted.size(), version(sorted, ignoreCase), System.nanoTime() - start);
+  }
+
+  /**
+   * Returns a hex encoded SHA-256 hash of the entries (which must be in order), so that
+   * gazetteers with the same entries have the same version however their files are laid out
+   */
+  private static String version(SortedSet<String> entries, boolean ignoreCase){
+    MessageDigest digest = MessageDigests.sha256();
+    digest.update((byte) (ignoreCase ? 1 : 0));
+    for(String entry : entries){
+      digest.update(entry.getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) '\n');
+    }
+
+    return MessageDigests.toHexString(digest.digest());
+  }
+
+  /**
+   * Compiles the entries (which must be in order) into an FST over UTF-16 code units, so that
+   * text can be matched without converting it to bytes
+   */
+  private static FST<Object> compile(SortedSet<String> entries) throws IOException {
+    NoOutputs outputs = NoOutputs.getSingleton();
+    Builder<Object> builder = new Builder<>(FST.INPUT_TYPE.BYTE2, outputs);
+
+    IntsRefBuilder scratch = new IntsRefBuilder();
+    for(String entry : entries)
+      builder.add(Util.toUTF16(entry, scratch), outputs.getNoOutput());
+
+    return builder.finish();
+  }
+
+  /**
+   * Passes every match of an entry in the text to the consumer, and returns the number of matches.
+   * Overlapping matches (e.g. of an entry and a longer entry that begins with it) are all reported.
+   * The FST is walked again from each word boundary, rather than in a single pass over the text.
+   */
+  int match(String text, MatchConsumer consumer) throws IOException {
+    int count = 0;
+
+    if(fst != null){
+      FST.BytesReader reader = fst.getBytesReader();
+      FST.Arc<Object> arc = new FST.Arc<>();
+      FST.Arc<Object> next = new FST.Arc<>();
+
+      int length = text.length();
+      for(int begin = 0; begin < length; begin++){
+        if(begin > 0 && isWordCharacter(text.charAt(begin - 1)))
+          continue;
+
+        fst.getFirstArc(arc);
+        for(int end = begin; end < length; end++){
+          if(fst.findTargetArc(label(text.charAt(end)), arc, next, reader) == null)
+            break;
+
+          if(next.isFinal() && (end + 1 == length || !isWordCharacter(text.charAt(end + 1)))){
+            consumer.accept(begin, end + 1);
+            count++;
+          }
+
+          FST.Arc<Object> swap = arc;
+          arc = next;
+          next = swap;
+        }
+      }
+    }
+
+    texts.increment();
+    characters.add(text.length());
+    matches.add(count);
+
+    return count;
+  }
+
+  private int label(char c){
+    return ignoreCase ? Character.toLowerCase(c) : c;
+  }
+
+  private static boolean isWordCharacter(char c){
+    return Character.isLetterOrDigit(c);
+  }
+
+  private static String fold(String s){
+    char[] chars = s.toCharArray();
+    for(int i = 0; i < chars.length; i++)
+      chars[i] = Character.toLowerCase(chars[i]);
+
+    return new String(chars);
+  }
+
+  /**
+   * Returns the number of distinct entries
+   */
+  long getEntries() {
+    return entries;
+  }
+
+  /**
+   * Returns a hash of the entries, which changes whenever the entries change
+   */
+  String getVersion() {
+    return version;
+  }
+
+  /**
+   * Returns the memory used by the compiled entries, in bytes
+   */
+  long getSizeInBytes() {
+    return fst == null ? 0 : fst.ramBytesUsed();
+  }
+
+  /**
+   * Returns the time taken to load and compile the entries, in nanoseconds
+   */
+  long getLoadNanos() {
+    return loadNanos;
+  }
+
+  /**
+   * Returns the number of texts matched against
+   */
+  long getTexts() {
+    return texts.sum();
+  }
+
+  /**
+   * Returns the number of matches found
+   */
+  long getMatches() {
+    return matches.sum();
+  }
+
+  @Override
+  public XContentBuilder toXContent(XContentBuilder builder, Params params) throws IOException {
+    builder.field("entries", entries);
+    builder.field("version", version);
+    builder.field("size_in_bytes", getSizeInBytes());
+    builder.field("load_time_in_millis", loadNanos / 1_000_000);
+    builder.field("texts", getTexts());
+    builder.field("characters", characters.sum());
+    builder.field("matches", getMatches());
+
+    return builder;
+  }
+}
@@ -0,0 +1,167 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import io.annot8.common.data.bounds.SpanBounds;
+import io.annot8.common.data.content.Text;
+import io.annot8.core.components.Processor;
+import io.annot8.core.components.responses.ProcessorResponse;
+import io.annot8.core.context.Context;
+import io.annot8.core.data.Item;
+import io.annot8.core.exceptions.Annot8Exception;
+import io.annot8.core.exceptions.BadConfigurationException;
+import io.annot8.core.exceptions.MissingResourceException;
+import io.annot8.core.settings.Settings;
+import io.annot8.core.settings.SettingsClass;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Annot8 processor which annotates every match of a gazetteer (a list of names, handles, domains,
+ * etc.) in text content.
+ *
+ * Gazetteers are loaded from the Elasticsearch configuration directory (see {@link Gazetteers})
+ * and compiled into an FST, which is shared by every instance of the processor on the node that
+ * uses the same gazetteer. Gazetteers belong to the node, so the processor can only be used by
+ * the extract processor, which gives each instance an {@link ExtractContext} holding a snapshot of
+ * the node's gazetteers, so that they all use the same version of it.
+ */
+@SettingsClass(GazetteerProcessor.GazetteerSettings.class)
+public class GazetteerProcessor implements Processor {
+
+  private Gazetteer gazetteer = null;
+  private String type = GazetteerSettings.DEFAULT_TYPE;
+
+  @Override
+  public void configure(Context context) throws BadConfigurationException, MissingResourceException {
+    GazetteerSettings settings = context.getSettings(GazetteerSettings.class)
+        .orElseThrow(() -> new BadConfigurationException("Gazetteer settings are required"));
+
+    if(!settings.validate())
+      throw new BadConfigurationException("A gazetteer must be specified");
+
+    if(!(context instanceof ExtractContext))
+      throw new MissingResourceException("Gazetteers are only available to processors created by the extract processor");
+
+    try {
+      gazetteer = ((ExtractContext) context).getGazetteer(settings.getGazetteer(), settings.isIgnoreCase());
+    }catch (IOException | IllegalArgumentException e){
+      throw new MissingResourceException("Could not load gazetteer " + settings.getGazetteer() + ": " + e.getMessage());
+    }
+
+    type = settings.getType();
+  }
+
+  /**
+   * Returns the gazetteer this processor matches, or null if it hasn't been configured
+   */
+  Gazetteer getGazetteer() {
+    return gazetteer;
+  }
+
+  @Override
+  public ProcessorResponse process(Item item) throws Annot8Exception {
+    if(gazetteer == null)
+      return ProcessorResponse.processingError();
+
+    Iterator<Text> iter = item.getContents(Text.class).iterator();
+    while(iter.hasNext()){
+      Text content = iter.next();
+
+      List<int[]> matches = new ArrayList<>();
+      try {
+        gazetteer.match(content.getData(), (begin, end) -> matches.add(new int[]{begin, end}));
+      }catch (IOException e){
+        return ProcessorResponse.processingError();
+      }
+
+      for(int[] match : matches){
+        content.getAnnotations().create()
+            .withType(type)
+            .withBounds(new SpanBounds(match[0], match[1]))
+            .save();
+      }
+    }
+
+    return ProcessorResponse.ok();
+  }
+
+  /**
+   * Settings for the {@link GazetteerProcessor}
+   */
+  public static class GazetteerSettings implements Settings {
+
+    /**
+     * Default type (gazetteer) of the annotations created
+     */
+    public static final String DEFAULT_TYPE = "gazetteer";
+
+    private String gazetteer = null;
+    private boolean ignoreCase = false;
+    private String type = DEFAULT_TYPE;
+
+    /**
+     * Returns the name of the gazetteer
+     */
+    public String getGazetteer() {
+      return gazetteer;
+    }
+
+    /**
+     * Sets the name of the gazetteer, which is read from the file {@code <name>.txt} in the
+     * gazetteer directory
+     */
+    public void setGazetteer(String gazetteer) {
+      this.gazetteer = gazetteer;
+    }
+
+    /**
+     * Returns true if case is ignored when matching
+     */
+    public boolean isIgnoreCase() {
+      return ignoreCase;
+    }
+
+    /**
+     * Sets whether case is ignored when matching
+     */
+    public void setIgnoreCase(boolean ignoreCase) {
+      this.ignoreCase = ignoreCase;
+    }
+
+    /**
+     * Returns the type of the annotations created
+     */
+    public String getType() {
+      return type;
+    }
+
+    /**
+     * Sets the type of the annotations created
+     */
+    public void setType(String type) {
+      this.type = type;
+    }
+
+    @Override
+    public boolean validate() {
+      return gazetteer != null && !gazetteer.isEmpty() && type != null;
+    }
+  }
+}
@@ -0,0 +1,177 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.security.AccessController;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Node level registry of gazetteers, so that each gazetteer is loaded once and shared by every
+ * pipeline (and every instance of {@link GazetteerProcessor}) on the node that uses it.
+ *
+ * Gazetteers are read from files named {@code <name>.txt} in the gazetteer directory, which is
+ * {@code extract/gazetteers} in the Elasticsearch configuration directory of the node.
+ *
+ * Each node has its own registry, held by its {@link ExtractService}, so nodes sharing a JVM (as
+ * in integration tests) read gazetteers from their own configuration directories.
+ *
+ * Gazetteers are held in snapshots. Processors are configured from a snapshot, which is passed to
+ * them in an {@link ExtractContext}, so every instance of a processor created from the same
+ * snapshot uses the same gazetteers. Gazetteers are reloaded by staging a new, empty snapshot (see
+ * {@link #stage()}), which reads gazetteers again as the processors configured from it use them,
+ * and which only replaces the current snapshot when the reload is committed. A failed reload
+ * therefore doesn't lose the gazetteers in use.
+ */
+final class Gazetteers {
+  private static final Pattern VALID_NAME = Pattern.compile("[A-Za-z0-9_\\-]+");
+
+  private volatile Snapshot current = new Snapshot(Collections.emptyMap());
+  private volatile Path directory = null;
+
+  /**
+   * Sets the directory from which gazetteers are read
+   */
+  void setDirectory(Path directory){
+    this.directory = directory;
+  }
+
+  /**
+   * Returns the directory from which gazetteers are read, or null if it hasn't been set
+   */
+  Path getDirectory(){
+    return directory;
+  }
+
+  /**
+   * Returns the named gazetteer from the current snapshot, loading it if it hasn't already been
+   * loaded
+   */
+  Gazetteer get(String name, boolean ignoreCase) throws IOException {
+    return current.get(name, ignoreCase);
+  }
+
+  /**
+   * Returns the current snapshot, from which new processors are configured
+   */
+  Snapshot current(){
+    return current;
+  }
+
+  /**
+   * Returns all gazetteers loaded in the current snapshot, keyed by name (with a /ignore_case
+   * suffix for those that ignore case)
+   */
+  Map<String, Gazetteer> all(){
+    return Collections.unmodifiableMap(new TreeMap<>(current.gazetteers));
+  }
+
+  /**
+   * Removes all loaded gazetteers, so that they are read again when next used
+   */
+  void clear(){
+    current = new Snapshot(Collections.emptyMap());
+  }
+
+  /**
+   * Starts a reload, returning an empty snapshot which reads gazetteers again as they are used.
+   * The current snapshot is unaffected until the reload is passed to {@link #commit(Snapshot, boolean)}.
+   */
+  Snapshot stage(){
+    return new Snapshot(Collections.emptyMap());
+  }
+
+  /**
+   * Finishes a reload started with {@link #stage()}. If complete is true, the staged snapshot
+   * becomes the current snapshot, so gazetteers that are no longer used are removed. Otherwise,
+   * some processors couldn't be reloaded and may still use the existing gazetteers, so the
+   * current snapshot is replaced by one holding the gazetteers read during the reload, and the
+   * rest of the existing gazetteers.
+   */
+  void commit(Snapshot staged, boolean complete){
+    synchronized (this) {
+      if(complete){
+        current = staged;
+      }else{
+        Map<String, Gazetteer> next = new HashMap<>(current.gazetteers);
+        next.putAll(staged.gazetteers);
+        current = new Snapshot(next);
+      }
+    }
+  }
+
+  private static String key(String name, boolean ignoreCase){
+    return ignoreCase ? name + "/ignore_case" : name;
+  }
+
+  private Gazetteer load(String name, boolean ignoreCase) throws IOException {
+    Path dir = directory;
+    if(dir == null)
+      throw new IOException("Gazetteer directory has not been configured");
+
+    Path file = dir.resolve(name + ".txt");
+    try {
+      return AccessController.doPrivileged((PrivilegedExceptionAction<Gazetteer>) () -> Gazetteer.load(file, ignoreCase));
+    }catch (PrivilegedActionException e){
+      throw (IOException) e.getException();
+    }
+  }
+
+  /**
+   * A set of gazetteers, each loaded from the registry's directory the first time it is used from
+   * the snapshot and shared by every processor configured from it afterwards
+   */
+  final class Snapshot {
+    private final Map<String, Gazetteer> gazetteers;
+
+    private Snapshot(Map<String, Gazetteer> gazetteers){
+      this.gazetteers = new ConcurrentHashMap<>(gazetteers);
+    }
+
+    /**
+     * Returns the named gazetteer, loading it if it hasn't already been loaded in this snapshot
+     */
+    Gazetteer get(String name, boolean ignoreCase) throws IOException {
+      if(name == null || !VALID_NAME.matcher(name).matches())
+        throw new IllegalArgumentException("Invalid gazetteer name " + name);
+
+      String key = key(name, ignoreCase);
+
+      Gazetteer gazetteer = gazetteers.get(key);
+      if(gazetteer != null)
+        return gazetteer;
+
+      synchronized (this) {
+        gazetteer = gazetteers.get(key);
+        if(gazetteer == null){
+          gazetteer = load(name, ignoreCase);
+          gazetteers.put(key, gazetteer);
+        }
+      }
+
+      return gazetteer;
+    }
+  }
+}
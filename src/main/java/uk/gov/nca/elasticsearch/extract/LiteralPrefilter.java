@@ -0,0 +1,228 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import io.annot8.components.cyber.processors.Email;
+import io.annot8.components.cyber.processors.EpochTime;
+import io.annot8.components.cyber.processors.IPv4;
+import io.annot8.components.cyber.processors.IPv6;
+import io.annot8.components.cyber.processors.Url;
+import io.annot8.core.components.Processor;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import uk.gov.nca.elasticsearch.extract.ExtractSettings.ProcessorSettingsPair;
+
+/**
+ * Decides which processors could possibly produce annotations for a document, so that those
+ * which cannot are skipped.
+ *
+ * Each processor may have a set of trigger literals, at least one of which must appear in the
+ * text for the processor to match anything (for example, an e-mail address must contain `@`).
+ * All trigger literals are compiled into a single Aho-Corasick automaton, so the text is scanned
+ * once regardless of how many processors or literals there are. Processors without triggers are
+ * always run.
+ */
+class LiteralPrefilter {
+
+  /**
+   * Built-in triggers for the processors in annot8-components-cyber
+   */
+  static final Map<Class<? extends Processor>, Set<String>> DEFAULT_TRIGGERS;
+
+  static {
+    Map<Class<? extends Processor>, Set<String>> triggers = new HashMap<>();
+    triggers.put(Email.class, Collections.singleton("@"));
+    triggers.put(EpochTime.class, new LinkedHashSet<>(Arrays.asList("0", "1", "2", "3", "4", "5", "6", "7", "8", "9")));
+    triggers.put(IPv4.class, Collections.singleton("."));
+    triggers.put(IPv6.class, Collections.singleton(":"));
+    triggers.put(Url.class, new LinkedHashSet<>(Arrays.asList(".", ":")));
+
+    DEFAULT_TRIGGERS = Collections.unmodifiableMap(triggers);
+  }
+
+  private static final int ROOT = 0;
+
+  private final int size;
+  private final boolean[] ungated;
+  private final int gatedCount;
+
+  private final char[][] labels;
+  private final int[][] targets;
+  private final int[] fail;
+  private final int[][] outputs;
+
+  /**
+   * Create a prefilter from a list of trigger sets, one per processor.
+   *
+   * A null or empty set means that the corresponding processor is always run.
+   */
+  LiteralPrefilter(List<? extends Collection<String>> triggers){
+    this.size = triggers.size();
+    this.ungated = new boolean[size];
+
+    //Build the trie
+    List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+    List<Set<Integer>> out = new ArrayList<>();
+    trie.add(new TreeMap<>());
+    out.add(new LinkedHashSet<>());
+
+    int gated = 0;
+    for(int i = 0; i < size; i++){
+      Collection<String> literals = triggers.get(i);
+      if(literals == null || literals.isEmpty()){
+        ungated[i] = true;
+        continue;
+      }
+
+      gated++;
+      for(String literal : literals){
+        if(literal.isEmpty())
+          throw new IllegalArgumentException("Trigger literals must not be empty");
+
+        int state = ROOT;
+        for(char c : literal.toCharArray()){
+          Integer next = trie.get(state).get(c);
+          if(next == null){
+            next = trie.size();
+            trie.add(new TreeMap<>());
+            out.add(new LinkedHashSet<>());
+            trie.get(state).put(c, next);
+          }
+          state = next;
+        }
+        out.get(state).add(i);
+      }
+    }
+    this.gatedCount = gated;
+
+    //Compact the trie into arrays
+    int states = trie.size();
+    labels = new char[states][];
+    targets = new int[states][];
+    for(int s = 0; s < states; s++){
+      TreeMap<Character, Integer> t = trie.get(s);
+      labels[s] = new char[t.size()];
+      targets[s] = new int[t.size()];
+
+      int j = 0;
+      for(Map.Entry<Character, Integer> e : t.entrySet()){
+        labels[s][j] = e.getKey();
+        targets[s][j] = e.getValue();
+        j++;
+      }
+    }
+
+    //Compute failure links breadth first, merging the outputs of each state's failure state
+    fail = new int[states];
+    Queue<Integer> queue = new ArrayDeque<>();
+    for(int t : targets[ROOT]){
+      fail[t] = ROOT;
+      queue.add(t);
+    }
+
+    while(!queue.isEmpty()){
+      int s = queue.poll();
+      for(int j = 0; j < labels[s].length; j++){
+        int t = targets[s][j];
+        queue.add(t);
+
+        fail[t] = next(fail[s], labels[s][j]);
+        out.get(t).addAll(out.get(fail[t]));
+      }
+    }
+
+    outputs = new int[states][];
+    for(int s = 0; s < states; s++)
+      outputs[s] = out.get(s).stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  /**
+   * Create a prefilter for the given processors, using any triggers declared on the processors
+   * and falling back to the built-in triggers. Returns null if none of the processors have
+   * triggers, in which case there is nothing to filter.
+   */
+  static LiteralPrefilter forProcessors(List<ProcessorSettingsPair> processors){
+    List<Set<String>> triggers = new ArrayList<>(processors.size());
+    boolean any = false;
+
+    for(ProcessorSettingsPair psp : processors){
+      Set<String> t = psp.getTriggers();
+      if(t == null)
+        t = DEFAULT_TRIGGERS.get(psp.getProcessor());
+
+      any |= t != null && !t.isEmpty();
+      triggers.add(t);
+    }
+
+    return any ? new LiteralPrefilter(triggers) : null;
+  }
+
+  /**
+   * Scans the texts and returns an array indicating, for each processor, whether it could match
+   * anything in them. Scanning stops as soon as every processor is known to be required.
+   */
+  boolean[] select(Collection<String> texts){
+    boolean[] selected = Arrays.copyOf(ungated, size);
+
+    int remaining = gatedCount;
+    for(String text : texts){
+      if(remaining == 0)
+        break;
+
+      int state = ROOT;
+      for(int i = 0; i < text.length() && remaining > 0; i++){
+        state = next(state, text.charAt(i));
+
+        for(int p : outputs[state]){
+          if(!selected[p]){
+            selected[p] = true;
+            remaining--;
+          }
+        }
+      }
+    }
+
+    return selected;
+  }
+
+  /**
+   * Returns the state reached from the given state on the given character, following failure
+   * links where there is no direct transition
+   */
+  private int next(int state, char c){
+    while(true){
+      int j = Arrays.binarySearch(labels[state], c);
+      if(j >= 0)
+        return targets[state][j];
+
+      if(state == ROOT)
+        return ROOT;
+
+      state = fail[state];
+    }
+  }
+}
@@ -0,0 +1,190 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import io.annot8.common.data.bounds.SpanBounds;
+import io.annot8.common.data.content.Text;
+import io.annot8.core.components.Processor;
+import io.annot8.core.components.responses.ProcessorResponse;
+import io.annot8.core.context.Context;
+import io.annot8.core.data.Item;
+import io.annot8.core.exceptions.Annot8Exception;
+import io.annot8.core.exceptions.BadConfigurationException;
+import io.annot8.core.settings.Settings;
+import io.annot8.core.settings.SettingsClass;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.lucene.util.automaton.Operations;
+
+/**
+ * Annot8 processor which annotates every match of a set of named regular expressions (such as case
+ * numbers, internal IDs or wallet addresses) in text content, using the name of the pattern as the
+ * type of the annotation.
+ *
+ * The patterns are compiled into a single deterministic automaton (see {@link PatternSet}), so
+ * the text is matched against all of them together, and matching can't backtrack. The automaton
+ * is restarted at each possible start of a match, and reads at most the maximum match length from
+ * there.
+ */
+@SettingsClass(PatternProcessor.PatternSettings.class)
+public class PatternProcessor implements Processor {
+
+  private PatternSet patterns = null;
+
+  @Override
+  public void configure(Context context) throws BadConfigurationException {
+    PatternSettings settings = context.getSettings(PatternSettings.class)
+        .orElseThrow(() -> new BadConfigurationException("Pattern settings are required"));
+
+    if(!settings.validate())
+      throw new BadConfigurationException("At least one pattern must be specified");
+
+    try {
+      patterns = PatternSet.compile(settings.getPatterns(), settings.isIgnoreCase(), settings.isWholeWords(), settings.getMaxStates(), settings.getMaxLength());
+    }catch (IllegalArgumentException e){
+      throw new BadConfigurationException(e.getMessage());
+    }
+  }
+
+  @Override
+  public ProcessorResponse process(Item item) throws Annot8Exception {
+    if(patterns == null)
+      return ProcessorResponse.processingError();
+
+    List<String> names = patterns.getNames();
+
+    Iterator<Text> iter = item.getContents(Text.class).iterator();
+    while(iter.hasNext()){
+      Text content = iter.next();
+
+      List<int[]> matches = new ArrayList<>();
+      patterns.matchFromEachStart(content.getData(), (pattern, begin, end) -> matches.add(new int[]{pattern, begin, end}));
+
+      for(int[] match : matches){
+        content.getAnnotations().create()
+            .withType(names.get(match[0]))
+            .withBounds(new SpanBounds(match[1], match[2]))
+            .save();
+      }
+    }
+
+    return ProcessorResponse.ok();
+  }
+
+  /**
+   * Settings for the {@link PatternProcessor}
+   */
+  public static class PatternSettings implements Settings {
+
+    /**
+     * Default maximum number of states in the compiled automaton
+     */
+    public static final int DEFAULT_MAX_STATES = Operations.DEFAULT_MAX_DETERMINIZED_STATES;
+
+    /**
+     * Default maximum length of a match, in characters
+     */
+    public static final int DEFAULT_MAX_LENGTH = 256;
+
+    private Map<String, String> patterns = new LinkedHashMap<>();
+    private boolean ignoreCase = false;
+    private boolean wholeWords = true;
+    private int maxStates = DEFAULT_MAX_STATES;
+    private int maxLength = DEFAULT_MAX_LENGTH;
+
+    /**
+     * Returns the regular expressions, keyed by the name of the pattern
+     */
+    public Map<String, String> getPatterns() {
+      return patterns;
+    }
+
+    /**
+     * Sets the regular expressions (in Lucene regular expression syntax), keyed by the name of the
+     * pattern, which is used as the type of the annotations created
+     */
+    public void setPatterns(Map<String, String> patterns) {
+      this.patterns = patterns;
+    }
+
+    /**
+     * Returns true if case is ignored when matching
+     */
+    public boolean isIgnoreCase() {
+      return ignoreCase;
+    }
+
+    /**
+     * Sets whether case is ignored when matching, in which case patterns should be lower case
+     */
+    public void setIgnoreCase(boolean ignoreCase) {
+      this.ignoreCase = ignoreCase;
+    }
+
+    /**
+     * Returns true if matches must begin and end on word boundaries
+     */
+    public boolean isWholeWords() {
+      return wholeWords;
+    }
+
+    /**
+     * Sets whether matches must begin and end on word boundaries
+     */
+    public void setWholeWords(boolean wholeWords) {
+      this.wholeWords = wholeWords;
+    }
+
+    /**
+     * Returns the maximum number of states in the compiled automaton
+     */
+    public int getMaxStates() {
+      return maxStates;
+    }
+
+    /**
+     * Sets the maximum number of states in the compiled automaton, which limits the time and
+     * memory used to compile complex patterns
+     */
+    public void setMaxStates(int maxStates) {
+      this.maxStates = maxStates;
+    }
+
+    /**
+     * Returns the maximum length of a match, in characters
+     */
+    public int getMaxLength() {
+      return maxLength;
+    }
+
+    /**
+     * Sets the maximum length of a match, in characters, which bounds the text read from each
+     * possible start of a match
+     */
+    public void setMaxLength(int maxLength) {
+      this.maxLength = maxLength;
+    }
+
+    @Override
+    public boolean validate() {
+      return patterns != null && !patterns.isEmpty() && maxStates > 0 && maxLength > 0;
+    }
+  }
+}
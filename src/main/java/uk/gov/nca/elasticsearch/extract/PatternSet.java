@@ -0,0 +1,237 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.apache.lucene.util.automaton.Automata;
+import org.apache.lucene.util.automaton.Automaton;
+import org.apache.lucene.util.automaton.CharacterRunAutomaton;
+import org.apache.lucene.util.automaton.MinimizationOperations;
+import org.apache.lucene.util.automaton.Operations;
+import org.apache.lucene.util.automaton.RegExp;
+import org.apache.lucene.util.automaton.TooComplexToDeterminizeException;
+
+/**
+ * A set of named regular expressions compiled into a single deterministic Lucene automaton, so
+ * that text can be matched against all of them together without any backtracking.
+ *
+ * Patterns use the Lucene regular expression syntax (as used by the `regexp` query), and must
+ * match the whole of an entity. To tell which patterns have matched, each pattern is followed by
+ * its own marker character (from the Unicode private use plane 16) before the patterns are
+ * combined, and the states from which each marker leads to acceptance are worked out when the set
+ * is compiled. Text containing characters from that plane can't be matched.
+ *
+ * Matching is bounded-restart rather than single pass: the automaton is restarted at each possible
+ * start position, and run until it can't match any more of the text or until it has read the
+ * maximum match length. Each run examines the characters once for every pattern together rather
+ * than once per pattern, so the cost is proportional to the length of the text times the length of
+ * the longest partial match (at most the maximum match length), not to the length of the text
+ * alone. At each start, the longest match of each pattern is reported, and matches of the same
+ * pattern don't overlap; matches longer than the maximum match length aren't found. If whole words
+ * are required, matches must begin and end on word boundaries (i.e. not be immediately preceded or
+ * followed by a letter or digit), which also limits the start positions to the beginning of each
+ * word. If case is ignored, the text is lower cased before matching, so patterns should be written
+ * in lower case.
+ *
+ * Pattern sets are immutable once compiled, and so can be shared by any number of threads.
+ */
+class PatternSet {
+
+  /**
+   * Callback for matches found in text
+   */
+  interface MatchConsumer {
+    /**
+     * Called with the index of the pattern, and the start (inclusive) and end (exclusive) of each
+     * match
+     */
+    void accept(int pattern, int begin, int end);
+  }
+
+  private static final int MARKER_BASE = 0x100000;
+  private static final int MAX_PATTERNS = 0x10FFFD - MARKER_BASE;
+
+  private final List<String> names;
+  private final CharacterRunAutomaton automaton;
+  private final int[][] accepts;
+  private final boolean ignoreCase;
+  private final boolean wholeWords;
+  private final int maxLength;
+
+  private PatternSet(List<String> names, CharacterRunAutomaton automaton, int[][] accepts, boolean ignoreCase, boolean wholeWords, int maxLength){
+    this.names = names;
+    this.automaton = automaton;
+    this.accepts = accepts;
+    this.ignoreCase = ignoreCase;
+    this.wholeWords = wholeWords;
+    this.maxLength = maxLength;
+  }
+
+  /**
+   * Compiles the patterns, keyed by name, into a single automaton. The automaton may have at most
+   * maxStates states, which limits the time and memory used to compile complex patterns. Matches
+   * may be at most maxLength characters long, which bounds the work done at each start position.
+   *
+   * Throws an IllegalArgumentException if a pattern is invalid, can match empty text or can't
+   * match any text, or if the patterns are too complex.
+   */
+  static PatternSet compile(Map<String, String> patterns, boolean ignoreCase, boolean wholeWords, int maxStates, int maxLength){
+    if(patterns == null || patterns.isEmpty())
+      throw new IllegalArgumentException("At least one pattern must be specified");
+
+    if(maxLength <= 0)
+      throw new IllegalArgumentException("Maximum match length must be positive");
+
+    if(patterns.size() > MAX_PATTERNS)
+      throw new IllegalArgumentException("Too many patterns");
+
+    //Patterns may only match characters below the markers
+    Automaton text = Operations.repeat(Automata.makeCharRange(0, MARKER_BASE - 1));
+
+    List<String> names = new ArrayList<>(patterns.size());
+    List<Automaton> automata = new ArrayList<>(patterns.size());
+    for(Map.Entry<String, String> e : patterns.entrySet()){
+      if(e.getKey() == null || e.getKey().isEmpty() || e.getValue() == null)
+        throw new IllegalArgumentException("Patterns must have a name and a regular expression");
+
+      Automaton a;
+      try {
+        a = Operations.intersection(new RegExp(e.getValue()).toAutomaton(maxStates), text);
+        a = MinimizationOperations.minimize(a, maxStates);
+      }catch (IllegalArgumentException | TooComplexToDeterminizeException ex){
+        throw new IllegalArgumentException("Invalid pattern " + e.getKey() + ": " + ex.getMessage(), ex);
+      }
+
+      if(Operations.isEmpty(a))
+        throw new IllegalArgumentException("Pattern " + e.getKey() + " can't match any text");
+
+      if(a.isAccept(0))
+        throw new IllegalArgumentException("Pattern " + e.getKey() + " matches empty text");
+
+      automata.add(Operations.concatenate(a, Automata.makeChar(MARKER_BASE + names.size())));
+      names.add(e.getKey());
+    }
+
+    CharacterRunAutomaton automaton;
+    try {
+      automaton = new CharacterRunAutomaton(MinimizationOperations.minimize(Operations.union(automata), maxStates), maxStates);
+    }catch (TooComplexToDeterminizeException ex){
+      throw new IllegalArgumentException("Patterns are too complex to combine: " + ex.getMessage(), ex);
+    }
+
+    //Work out which patterns have matched on reaching each state
+    int[][] accepts = new int[automaton.getSize()][];
+    int[] scratch = new int[names.size()];
+    for(int state = 0; state < accepts.length; state++){
+      int count = 0;
+      for(int p = 0; p < names.size(); p++){
+        int next = automaton.step(state, MARKER_BASE + p);
+        if(next != -1 && automaton.isAccept(next))
+          scratch[count++] = p;
+      }
+
+      if(count > 0)
+        accepts[state] = Arrays.copyOf(scratch, count);
+    }
+
+    return new PatternSet(Collections.unmodifiableList(names), automaton, accepts, ignoreCase, wholeWords, maxLength);
+  }
+
+  /**
+   * Passes every match of a pattern in the text to the consumer, restarting the automaton at each
+   * start position and reading at most the maximum match length from it, and returns the number
+   * of matches. This is O(n * maxLength) for a text of length n in the worst case.
+   */
+  int matchFromEachStart(String text, MatchConsumer consumer){
+    int count = 0;
+
+    int[] nextStart = new int[names.size()];
+    int[] longest = new int[names.size()];
+    Arrays.fill(longest, -1);
+    int[] matched = new int[names.size()];
+
+    int length = text.length();
+    for(int begin = 0; begin < length; begin++){
+      if(Character.isLowSurrogate(text.charAt(begin)) && begin > 0 && Character.isHighSurrogate(text.charAt(begin - 1)))
+        continue;
+
+      if(wholeWords && begin > 0 && isWordCharacter(text.charAt(begin - 1)))
+        continue;
+
+      //Run the automaton until it can't match any more or reaches the maximum length, noting the
+      //longest match of each pattern
+      int matchedCount = 0;
+      int state = 0;
+      int end = begin;
+      int limit = (int) Math.min(length, (long) begin + maxLength);
+      while(end < limit){
+        int c = Character.codePointAt(text, end);
+        state = automaton.step(state, ignoreCase ? Character.toLowerCase(c) : c);
+        if(state == -1)
+          break;
+
+        end += Character.charCount(c);
+
+        int[] patterns = accepts[state];
+        if(patterns == null || (wholeWords && end < length && isWordCharacter(text.charAt(end))))
+          continue;
+
+        for(int p : patterns){
+          if(begin < nextStart[p])
+            continue;
+
+          if(longest[p] == -1)
+            matched[matchedCount++] = p;
+          longest[p] = end;
+        }
+      }
+
+      for(int i = 0; i < matchedCount; i++){
+        int p = matched[i];
+        consumer.accept(p, begin, longest[p]);
+        count++;
+
+        nextStart[p] = longest[p];
+        longest[p] = -1;
+      }
+    }
+
+    return count;
+  }
+
+  /**
+   * Returns the names of the patterns, in the order of their indices
+   */
+  List<String> getNames() {
+    return names;
+  }
+
+  /**
+   * Returns the number of states in the compiled automaton
+   */
+  int getStates() {
+    return automaton.getSize();
+  }
+
+  private static boolean isWordCharacter(char c){
+    return Character.isLetterOrDigit(c);
+  }
+}
@@ -0,0 +1,255 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import org.elasticsearch.cluster.ClusterChangedEvent;
+import org.elasticsearch.cluster.ClusterStateListener;
+import org.elasticsearch.cluster.service.ClusterApplierService;
+import org.elasticsearch.gateway.GatewayService;
+import org.elasticsearch.ingest.ConfigurationUtils;
+import org.elasticsearch.ingest.IngestMetadata;
+import org.elasticsearch.ingest.Pipeline;
+import org.elasticsearch.ingest.PipelineConfiguration;
+
+/**
+ * Closes the extract processors belonging to ingest pipelines that are no longer used, so that
+ * the pools of processors they hold are released as soon as they are replaced.
+ *
+ * Elasticsearch doesn't tell processors when their pipeline is removed. Instead, whenever the
+ * pipelines stored in the cluster state change, every pipeline on the node is created again by
+ * the cluster applier thread, and the previous pipelines are discarded. This listener is called
+ * on the same thread once that has happened, so the processors created by that thread since the
+ * last change are the ones now in use, and any others tracked before then can be closed.
+ *
+ * Only processors created on the cluster applier thread are tracked. Those created on other
+ * threads (to validate a pipeline before it is stored, or to simulate it) aren't part of a stored
+ * pipeline, so nothing would ever replace them. They aren't tracked, and their pools are released
+ * once they are no longer reachable (see {@link ProcessorRegistry#releaseWhenUnreachable}).
+ *
+ * Processors aren't told which pipeline they belong to, so the processors now in use are matched
+ * with the extract processor definitions in the stored pipelines by comparing their tag and
+ * configuration. Matched processors are attached to the node level statistics for their pipeline
+ * and tag, and the statistics of pipelines and tags no longer in use are removed. If a pipeline
+ * holds several extract processors with the same tag, the second and subsequent ones are
+ * numbered (e.g. {@code _untagged[1]}).
+ *
+ * Remaining processors are closed when the node is closed.
+ */
+class PipelineTracker implements ClusterStateListener {
+
+  private static final String IGNORE_FAILURE_KEY = "ignore_failure";
+
+  private final ExtractStats stats;
+  private final List<Tracked> tracked = new ArrayList<>();
+  private long generation = 0;
+
+  /**
+   * Create a new tracker, which attaches processors to the given statistics
+   */
+  PipelineTracker(ExtractStats stats){
+    this.stats = stats;
+  }
+
+  /**
+   * Returns true if the current thread is the cluster applier thread, on which the pipelines
+   * stored in the cluster state are created
+   */
+  static boolean isApplierThread(){
+    return Thread.currentThread().getName().contains(ClusterApplierService.CLUSTER_UPDATE_THREAD_NAME);
+  }
+
+  /**
+   * Tracks a processor created on the cluster applier thread for a stored pipeline from the given
+   * configuration, so that it is closed once the pipeline has been replaced. The configuration
+   * must not be modified afterwards.
+   */
+  synchronized void track(ExtractProcessor processor, Map<String, Object> config){
+    tracked.add(new Tracked(processor, config, Thread.currentThread().getId(), generation));
+  }
+
+  @Override
+  public void clusterChanged(ClusterChangedEvent event) {
+    //Pipelines aren't created until the cluster state has been recovered, or if they haven't changed
+    if(event.state().blocks().hasGlobalBlock(GatewayService.STATE_NOT_RECOVERED_BLOCK))
+      return;
+
+    IngestMetadata previous = event.previousState().getMetaData().custom(IngestMetadata.TYPE);
+    IngestMetadata current = event.state().getMetaData().custom(IngestMetadata.TYPE);
+    if(Objects.equals(previous, current))
+      return;
+
+    update(current == null ? Collections.emptyList() : current.getPipelines().values());
+  }
+
+  /**
+   * Closes every tracked processor except those created by the current thread since the last
+   * update, which belong to the given pipelines, and attaches those to the statistics of their
+   * pipeline
+   */
+  void update(Collection<PipelineConfiguration> pipelines){
+    List<Tracked> inUse = new ArrayList<>();
+    List<ExtractProcessor> toClose = new ArrayList<>();
+    long thread = Thread.currentThread().getId();
+
+    synchronized (this) {
+      Iterator<Tracked> iter = tracked.iterator();
+      while(iter.hasNext()){
+        Tracked t = iter.next();
+        if(t.thread == thread && t.generation == generation){
+          inUse.add(t);
+        }else{
+          toClose.add(t.processor);
+          iter.remove();
+        }
+      }
+      generation++;
+    }
+
+    //Pipelines are created in the same order as they are listed, so where identical processors
+    //are used by several pipelines, they are matched in the order they were created
+    Map<String, Set<String>> keep = new HashMap<>();
+    for(PipelineConfiguration pipeline : pipelines){
+      List<Map<String, Object>> definitions = new ArrayList<>();
+      findDefinitions(pipeline.getConfigAsMap(), definitions);
+
+      Set<String> tags = new HashSet<>();
+      for(Map<String, Object> definition : definitions){
+        Map<String, Object> config = new HashMap<>(definition);
+        Object tag = config.remove(ConfigurationUtils.TAG_KEY);
+        config.remove(Pipeline.ON_FAILURE_KEY);
+        config.remove(IGNORE_FAILURE_KEY);
+
+        Iterator<Tracked> iter = inUse.iterator();
+        while(iter.hasNext()){
+          Tracked t = iter.next();
+          if(Objects.equals(Objects.toString(tag, null), t.processor.getTag()) && config.equals(t.config)){
+            String key = Objects.toString(tag, ExtractStats.UNTAGGED);
+            for(int i = 1; tags.contains(key); i++)
+              key = Objects.toString(tag, ExtractStats.UNTAGGED) + "[" + i + "]";
+            tags.add(key);
+
+            t.processor.attach(stats.pipeline(pipeline.getId(), key));
+            iter.remove();
+            break;
+          }
+        }
+      }
+
+      if(!tags.isEmpty())
+        keep.put(pipeline.getId(), tags);
+    }
+    stats.retain(keep);
+
+    toClose.forEach(ExtractProcessor::close);
+  }
+
+  /**
+   * Finds the configuration of each extract processor within part of a pipeline's configuration,
+   * including those within on_failure blocks and other processors
+   */
+  @SuppressWarnings("unchecked")
+  private static void findDefinitions(Object o, List<Map<String, Object>> definitions){
+    if(o instanceof Map){
+      for(Map.Entry<String, Object> e : ((Map<String, Object>) o).entrySet()){
+        if(ExtractProcessor.TYPE.equals(e.getKey()) && e.getValue() instanceof Map){
+          definitions.add((Map<String, Object>) e.getValue());
+        }else{
+          findDefinitions(e.getValue(), definitions);
+        }
+      }
+    }else if(o instanceof List){
+      for(Object item : (List<Object>) o)
+        findDefinitions(item, definitions);
+    }
+  }
+
+  /**
+   * Returns a deep copy of a processor's configuration, taken before the factory reads (and
+   * removes) its properties
+   */
+  static Map<String, Object> copy(Map<String, Object> config){
+    Map<String, Object> copy = new HashMap<>();
+    config.forEach((k, v) -> copy.put(k, copyValue(v)));
+
+    return copy;
+  }
+
+  /**
+   * Returns a deep copy of a configuration value
+   */
+  @SuppressWarnings("unchecked")
+  private static Object copyValue(Object o){
+    if(o instanceof Map)
+      return copy((Map<String, Object>) o);
+
+    if(o instanceof List){
+      List<Object> copy = new ArrayList<>();
+      ((List<Object>) o).forEach(v -> copy.add(copyValue(v)));
+      return copy;
+    }
+
+    return o;
+  }
+
+  /**
+   * Closes every tracked processor
+   */
+  void closeAll(){
+    List<ExtractProcessor> toClose = new ArrayList<>();
+    synchronized (this) {
+      tracked.forEach(t -> toClose.add(t.processor));
+      tracked.clear();
+    }
+
+    toClose.forEach(ExtractProcessor::close);
+  }
+
+  /**
+   * Returns the number of processors currently tracked
+   */
+  synchronized int size(){
+    return tracked.size();
+  }
+
+  /**
+   * A processor, the configuration it was created from, and the thread and generation in which
+   * it was created
+   */
+  private static final class Tracked {
+    private final ExtractProcessor processor;
+    private final Map<String, Object> config;
+    private final long thread;
+    private final long generation;
+
+    private Tracked(ExtractProcessor processor, Map<String, Object> config, long thread, long generation){
+      this.processor = processor;
+      this.config = config;
+      this.thread = thread;
+      this.generation = generation;
+    }
+  }
+}
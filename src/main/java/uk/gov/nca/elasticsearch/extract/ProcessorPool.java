@@ -0,0 +1,270 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import io.annot8.core.components.Processor;
+import java.util.Collections;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import uk.gov.nca.elasticsearch.extract.ExtractSettings.ProcessorSettingsPair;
+
+/**
+ * Bounded pool of configured instances of a single Annot8 processor.
+ *
+ * Annot8 processors are not guaranteed to be thread safe, so each ingest thread borrows an
+ * instance for its exclusive use while processing, and returns it afterwards. Instances are
+ * created lazily, so no more are created than there are threads concurrently using the pool,
+ * and never more than the maximum size of the pool. If all instances are in use, callers wait
+ * until one is returned.
+ *
+ * The instances in the pool can be replaced with newly configured ones (for example, to pick up
+ * changes to the resources they use) with {@link #reload(Gazetteers.Snapshot)}. Instances from
+ * before the reload that are still in use are closed when they are returned, so in-flight
+ * documents aren't affected.
+ *
+ * The instances created since the pool was created or last reloaded form a generation, and are
+ * all configured with the same snapshot of the gazetteers, including those created later by the
+ * threads borrowing them.
+ *
+ * Once a pool is closed, idle instances are closed, and instances that are still in use are
+ * closed when they are returned.
+ */
+class ProcessorPool {
+  private final ProcessorSettingsPair processorSettingsPair;
+  private final Permits permits;
+
+  private volatile Generation generation;
+  private volatile int maxSize;
+  private volatile boolean closed = false;
+
+  /**
+   * Create a new pool for the given processor and settings, holding at most maxSize instances
+   * configured with the given gazetteers.
+   *
+   * A single instance is created immediately, so that configuration errors are reported when the
+   * pipeline is created rather than when the first document is processed.
+   */
+  ProcessorPool(ProcessorSettingsPair processorSettingsPair, int maxSize, Gazetteers.Snapshot gazetteers) throws Exception {
+    if(maxSize < 1)
+      throw new IllegalArgumentException("Pool size must be at least 1");
+
+    this.processorSettingsPair = processorSettingsPair;
+    this.permits = new Permits(maxSize);
+    this.maxSize = maxSize;
+    this.generation = new Generation(gazetteers);
+
+    generation.idle.add(createProcessor(generation));
+  }
+
+  /**
+   * Borrow a processor from the pool, waiting if all instances are currently in use.
+   *
+   * The caller has exclusive use of the processor until it is returned with {@link #release(Processor)}.
+   * Callers include the ingest threads and, for pipelines which split texts into chunks or run
+   * processors in parallel, the threads of the node level chunk pool. A pool smaller than the
+   * number of such threads makes them wait here, and a waiting chunk pool thread can't process
+   * other chunks meanwhile, which is why those pipelines size their pools for both.
+   */
+  Processor acquire() throws Exception {
+    permits.acquire();
+
+    Generation g = generation;
+    Processor p = g.idle.poll();
+    if(p != null)
+      return p;
+
+    try {
+      return createProcessor(g);
+    }catch (Exception e){
+      permits.release();
+      throw e;
+    }
+  }
+
+  /**
+   * Return a processor previously borrowed with {@link #acquire()}
+   */
+  void release(Processor p){
+    Generation g = generation;
+    if(closed || !g.members.contains(p) || g.members.size() > maxSize){
+      g.members.remove(p);
+      closeProcessor(p);
+    }else{
+      g.idle.add(p);
+
+      //Catch instances returned concurrently with the pool being closed or reloaded
+      if((closed || generation != g) && g.idle.remove(p))
+        closeProcessor(p);
+    }
+
+    permits.release();
+  }
+
+  /**
+   * Replaces the instances in the pool with newly created ones, configured with the given
+   * gazetteers. A single new instance is created and configured before any are replaced, so if it
+   * can't be configured the existing instances are kept and the exception is thrown.
+   */
+  void reload(Gazetteers.Snapshot gazetteers) throws Exception {
+    Generation next = new Generation(gazetteers);
+    next.idle.add(createProcessor(next));
+
+    Generation previous;
+    synchronized (this) {
+      previous = generation;
+      generation = next;
+    }
+
+    retire(previous);
+  }
+
+  /**
+   * Changes the maximum size of the pool. If the pool shrinks, idle instances above the new size
+   * are closed now, and instances in use above the new size are closed when they are returned.
+   */
+  synchronized void setMaxSize(int size){
+    if(size < 1)
+      throw new IllegalArgumentException("Pool size must be at least 1");
+
+    if(size > maxSize){
+      permits.release(size - maxSize);
+    }else if(size < maxSize){
+      permits.reduce(maxSize - size);
+    }
+    maxSize = size;
+
+    Generation g = generation;
+    while(g.members.size() > size){
+      Processor p = g.idle.poll();
+      if(p == null)
+        break;
+
+      g.members.remove(p);
+      closeProcessor(p);
+    }
+  }
+
+  /**
+   * Returns the maximum number of instances in the pool
+   */
+  int getMaxSize(){
+    return maxSize;
+  }
+
+  /**
+   * Closes the pool and all idle instances in it
+   */
+  void close(){
+    closed = true;
+    retire(generation);
+  }
+
+  /**
+   * Returns the processor and settings that instances in this pool are created from
+   */
+  ProcessorSettingsPair getProcessorSettingsPair() {
+    return processorSettingsPair;
+  }
+
+  /**
+   * Returns the name and version of each resource (such as a gazetteer) that the current instances
+   * were configured with, or an empty string if they use none. This changes when the pool is
+   * reloaded with different resources.
+   */
+  String getResources(){
+    String resources = generation.resources;
+    return resources == null ? "" : resources;
+  }
+
+  /**
+   * Returns the number of instances currently held idle in the pool
+   */
+  int idleCount(){
+    return generation.idle.size();
+  }
+
+  /**
+   * Closes the idle instances of a generation that is no longer used. Instances that are in use
+   * are closed when they are returned.
+   */
+  private static void retire(Generation g){
+    Processor p;
+    while((p = g.idle.poll()) != null)
+      closeProcessor(p);
+  }
+
+  /**
+   * Closes a processor, ignoring any errors as there is nothing that can be done about them
+   */
+  private static void closeProcessor(Processor p){
+    try {
+      p.close();
+    }catch (Exception e){
+      //Do nothing
+    }
+  }
+
+  /**
+   * Instantiates and configures a new copy of the processor, belonging to the given generation and
+   * using its gazetteers
+   */
+  private Processor createProcessor(Generation g) throws Exception {
+    Processor p = processorSettingsPair.getProcessor().getConstructor().newInstance();
+
+    ExtractContext context = new ExtractContext(processorSettingsPair.getSettings(), g.gazetteers);
+    p.configure(context);
+
+    //Every instance in a generation is configured the same way, so the first records the resources
+    if(g.resources == null)
+      g.resources = context.getResources();
+
+    g.members.add(p);
+    return p;
+  }
+
+  /**
+   * Semaphore whose number of permits can be reduced, so that the pool can shrink while
+   * instances are in use
+   */
+  private static final class Permits extends Semaphore {
+    private Permits(int permits){
+      super(permits);
+    }
+
+    private void reduce(int reduction){
+      reducePermits(reduction);
+    }
+  }
+
+  /**
+   * The instances created since the pool was created or last reloaded, and the gazetteers they
+   * are configured with
+   */
+  private static final class Generation {
+    private final Queue<Processor> idle = new ConcurrentLinkedQueue<>();
+    private final Set<Processor> members = Collections.newSetFromMap(new ConcurrentHashMap<>());
+    private final Gazetteers.Snapshot gazetteers;
+    private volatile String resources = null;
+
+    private Generation(Gazetteers.Snapshot gazetteers){
+      this.gazetteers = gazetteers;
+    }
+  }
+}
@@ -0,0 +1,157 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import java.lang.ref.Cleaner;
+import java.lang.ref.Cleaner.Cleanable;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import uk.gov.nca.elasticsearch.extract.ExtractSettings.ProcessorSettingsPair;
+
+/**
+ * Node level registry of processor pools, so that identical processors (the same class with
+ * equal settings) are only created and configured once, and are shared by all pipelines that use
+ * them.
+ *
+ * Pools are reference counted. When the last user of a pool releases it, the pool is removed from
+ * the registry and its processors are closed. Each pool is as large as the largest size asked for
+ * by its current users, so it shrinks again when the user that asked for the largest size
+ * releases it.
+ *
+ * Users normally release their pools when they are closed (see {@link PipelineTracker}). Pools
+ * are also released if their user is garbage collected without having been closed (see
+ * {@link #releaseWhenUnreachable(Object, List, int)}).
+ */
+class ProcessorRegistry {
+
+  private static final Cleaner CLEANER = AccessController.doPrivileged((PrivilegedAction<Cleaner>) Cleaner::create);
+
+  private final Map<ProcessorSettingsPair, Entry> pools = new HashMap<>();
+  private final Gazetteers gazetteers;
+
+  /**
+   * Create a new registry, whose pools are configured with the given gazetteers
+   */
+  ProcessorRegistry(Gazetteers gazetteers){
+    this.gazetteers = gazetteers;
+  }
+
+  /**
+   * Returns a pool for the given processor and settings with at least the given maximum size,
+   * creating it if necessary, and increments its reference count. New pools are configured with
+   * the current gazetteers.
+   */
+  synchronized ProcessorPool acquire(ProcessorSettingsPair processorSettingsPair, int maxSize) throws Exception {
+    Entry entry = pools.get(processorSettingsPair);
+    if(entry == null){
+      entry = new Entry(new ProcessorPool(processorSettingsPair, maxSize, gazetteers.current()));
+      pools.put(processorSettingsPair, entry);
+    }
+
+    entry.sizes.add(maxSize);
+    entry.pool.setMaxSize(Collections.max(entry.sizes));
+
+    return entry.pool;
+  }
+
+  /**
+   * Decrements the reference count of a pool acquired with the given maximum size. The pool is
+   * closed if it is no longer used, and otherwise shrunk to the largest size its remaining users
+   * asked for.
+   */
+  synchronized void release(ProcessorPool pool, int maxSize){
+    ProcessorSettingsPair key = pool.getProcessorSettingsPair();
+
+    Entry entry = pools.get(key);
+    if(entry == null || entry.pool != pool || !entry.sizes.remove(Integer.valueOf(maxSize)))
+      return;
+
+    if(entry.sizes.isEmpty()){
+      pools.remove(key);
+      pool.close();
+    }else{
+      pool.setMaxSize(Collections.max(entry.sizes));
+    }
+  }
+
+  /**
+   * Releases each of the pools, which were acquired with the given maximum size
+   */
+  void releaseAll(List<ProcessorPool> pools, int maxSize){
+    pools.forEach(p -> release(p, maxSize));
+  }
+
+  /**
+   * Releases the pools once the owner is no longer reachable, unless they have already been
+   * released by calling {@link Cleanable#clean()} on the returned object, which releases them
+   * immediately
+   */
+  Cleanable releaseWhenUnreachable(Object owner, List<ProcessorPool> pools, int maxSize){
+    //Copy the list, so that the clean up action doesn't hold a reference to the owner
+    List<ProcessorPool> toRelease = new ArrayList<>(pools);
+    return CLEANER.register(owner, () -> releaseAll(toRelease, maxSize));
+  }
+
+  /**
+   * Reloads every pool in the registry with the given gazetteers (see
+   * {@link ProcessorPool#reload(Gazetteers.Snapshot)}), returning the exceptions thrown by any
+   * pools that couldn't be reloaded. Pools are reloaded one at a time, without holding the lock on
+   * the registry, so pipelines can still be created meanwhile.
+   */
+  List<Exception> reload(Gazetteers.Snapshot gazetteers){
+    List<ProcessorPool> toReload;
+    synchronized (this) {
+      toReload = new ArrayList<>(pools.size());
+      pools.values().forEach(e -> toReload.add(e.pool));
+    }
+
+    List<Exception> failures = new ArrayList<>();
+    for(ProcessorPool pool : toReload){
+      try {
+        pool.reload(gazetteers);
+      }catch (Exception e){
+        failures.add(e);
+      }
+    }
+
+    return failures;
+  }
+
+  /**
+   * Returns the number of pools in the registry
+   */
+  synchronized int size(){
+    return pools.size();
+  }
+
+  /**
+   * A pool and the maximum size asked for by each of its users
+   */
+  private static final class Entry {
+    private final ProcessorPool pool;
+    private final List<Integer> sizes = new ArrayList<>();
+
+    private Entry(ProcessorPool pool){
+      this.pool = pool;
+    }
+  }
+}
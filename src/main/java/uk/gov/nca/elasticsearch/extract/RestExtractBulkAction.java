@@ -0,0 +1,208 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.io.stream.BytesStreamOutput;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.AbstractRunnable;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.elasticsearch.ingest.IngestDocument;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.threadpool.ExecutorBuilder;
+import org.elasticsearch.threadpool.FixedExecutorBuilder;
+
+/**
+ * REST endpoint (POST /_extract/_bulk) which extracts entities from a batch of documents without
+ * indexing them.
+ *
+ * The body is newline delimited JSON. The first line holds the configuration of the extract
+ * processor, in the same form as in an ingest pipeline, and each following line holds a
+ * document. The response is also newline delimited JSON, with one line for each document (in the
+ * same order) holding either the extracted entities or the reason that the document failed.
+ *
+ * Requests are run on a dedicated fixed size thread pool with a bounded queue, so that batch
+ * extraction doesn't compete with the write thread pool. Requests are rejected (with a 429
+ * status) when the queue is full.
+ */
+public class RestExtractBulkAction extends BaseRestHandler {
+
+  /**
+   * Name of the thread pool used to process requests
+   */
+  public static final String THREAD_POOL_NAME = "extract_bulk";
+
+  /**
+   * Tag given to the extract processors used for requests, whose statistics are reported together
+   */
+  public static final String TAG = "_bulk";
+
+  private static final String NDJSON_CONTENT_TYPE = "application/x-ndjson";
+
+  private final ExtractService service;
+  private final ExtractProcessor.Factory factory;
+
+  /**
+   * Create a new handler and register it with the controller
+   */
+  public RestExtractBulkAction(Settings settings, RestController controller, ExtractService service){
+    super(settings);
+    this.service = service;
+    this.factory = new ExtractProcessor.Factory(service);
+
+    controller.registerHandler(POST, "/_extract/_bulk", this);
+  }
+
+  /**
+   * Returns the builder for the thread pool used to process requests, which can be configured
+   * with the thread_pool.extract_bulk.size and thread_pool.extract_bulk.queue_size node settings
+   */
+  static ExecutorBuilder<?> executorBuilder(Settings settings){
+    int size = Math.max(1, EsExecutors.numberOfProcessors(settings) / 2);
+    return new FixedExecutorBuilder(settings, THREAD_POOL_NAME, size, 16, "thread_pool." + THREAD_POOL_NAME);
+  }
+
+  @Override
+  public String getName() {
+    return "extract_bulk_action";
+  }
+
+  @Override
+  public boolean supportsContentStream() {
+    return true;
+  }
+
+  @Override
+  protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) {
+    if(!request.hasContent())
+      throw new IllegalArgumentException("Request body is required");
+
+    BytesReference content = request.content();
+
+    return channel -> client.threadPool().executor(THREAD_POOL_NAME).execute(new AbstractRunnable() {
+      @Override
+      protected void doRun() throws Exception {
+        channel.sendResponse(new BytesRestResponse(RestStatus.OK, NDJSON_CONTENT_TYPE, extract(content)));
+      }
+
+      @Override
+      public void onFailure(Exception e) {
+        sendFailure(channel, e);
+      }
+    });
+  }
+
+  /**
+   * Extracts entities from each document in the request body, returning the response body
+   */
+  BytesReference extract(BytesReference content) throws Exception {
+    List<String> lines = splitLines(content);
+    if(lines.isEmpty())
+      throw new IllegalArgumentException("Request body must start with the processor configuration");
+
+    Map<String, Object> config = XContentHelper.convertToMap(JsonXContent.jsonXContent, lines.get(0), false);
+    BytesStreamOutput out = new BytesStreamOutput();
+    try(ExtractProcessor processor = createProcessor(factory, TAG, config)) {
+      processor.attach(service.getStats().bulk());
+      for(String line : lines.subList(1, lines.size()))
+        extract(processor, line, out);
+    }
+
+    return out.bytes();
+  }
+
+  /**
+   * Extracts entities from a single document, writing its line of the response body
+   */
+  private static void extract(ExtractProcessor processor, String line, BytesStreamOutput out) throws IOException {
+    XContentBuilder builder = XContentFactory.jsonBuilder();
+    builder.startObject();
+    try {
+      Map<String, Object> document = XContentHelper.convertToMap(JsonXContent.jsonXContent, line, false);
+      IngestDocument ingestDocument = new IngestDocument(document, Collections.emptyMap());
+      processor.execute(ingestDocument);
+
+      builder.field("entities", ingestDocument.getFieldValue(processor.getTargetField(), Object.class));
+      if(processor.getIdsField() != null)
+        builder.field("ids", ingestDocument.getFieldValue(processor.getIdsField(), List.class));
+      if(ingestDocument.hasField(ExtractProcessor.TIMED_OUT_FIELD))
+        builder.field("timed_out", true);
+    }catch (Exception e){
+      builder.startObject("error");
+      ElasticsearchException.generateThrowableXContent(builder, ToXContent.EMPTY_PARAMS, e);
+      builder.endObject();
+    }
+    builder.endObject();
+
+    BytesReference.bytes(builder).writeTo(out);
+    out.writeByte((byte) '\n');
+  }
+
+  /**
+   * Creates an extract processor from configuration given in a request. Unlike in an ingest
+   * pipeline, all fields of each document are processed unless told otherwise.
+   */
+  static ExtractProcessor createProcessor(ExtractProcessor.Factory factory, String tag, Map<String, Object> config) throws Exception {
+    if(!config.containsKey(ExtractProcessor.CONFIG_FIELDS) && !config.containsKey(ExtractProcessor.CONFIG_PROCESS_ALL_FIELDS))
+      config.put(ExtractProcessor.CONFIG_PROCESS_ALL_FIELDS, true);
+
+    return factory.createUntracked(tag, config);
+  }
+
+  /**
+   * Splits the content into its non-empty lines
+   */
+  private static List<String> splitLines(BytesReference content){
+    List<String> lines = new ArrayList<>();
+    for(String line : content.utf8ToString().split("\n")){
+      if(!line.trim().isEmpty())
+        lines.add(line);
+    }
+
+    return lines;
+  }
+
+  /**
+   * Sends an error response for a request that couldn't be processed (or was rejected)
+   */
+  private static void sendFailure(RestChannel channel, Exception e){
+    try {
+      channel.sendResponse(new BytesRestResponse(channel, e));
+    }catch (IOException ioe){
+      //Nothing more can be done
+    }
+  }
+}
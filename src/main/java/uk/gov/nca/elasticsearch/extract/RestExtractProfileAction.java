@@ -0,0 +1,225 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.AccessController;
+import java.security.PrivilegedAction;
+import java.security.PrivilegedActionException;
+import java.security.PrivilegedExceptionAction;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.AbstractRunnable;
+import org.elasticsearch.common.util.concurrent.EsExecutors;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.env.Environment;
+import org.elasticsearch.ingest.ConfigurationUtils;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.threadpool.ExecutorBuilder;
+import org.elasticsearch.threadpool.FixedExecutorBuilder;
+
+/**
+ * REST endpoint (POST /_extract/_profile) which measures the performance of an extract
+ * configuration against a corpus of documents held on the node that receives the request.
+ *
+ * The corpus is a newline delimited JSON file within the config or data directory of the node.
+ * Documents are processed by the same code as in an ingest pipeline, but aren't indexed. The
+ * response holds the throughput, the allocation per document, the slowest documents, and the
+ * statistics (including the latency distribution) of each Annot8 processor.
+ *
+ * Each profile runs its own threads flat out, so requests are run on a dedicated thread pool
+ * which, by default, runs one profile at a time and rejects requests made while it is running.
+ */
+public class RestExtractProfileAction extends BaseRestHandler {
+
+  /**
+   * Name of the thread pool used to run profiles
+   */
+  public static final String THREAD_POOL_NAME = "extract_profile";
+
+  static final String CONFIG_PATH = "path";
+  static final String CONFIG_LOCATION = "location";
+  static final String CONFIG_THREADS = "threads";
+  static final String CONFIG_SLOWEST = "slowest";
+  static final String CONFIG_CONFIG = "config";
+
+  static final String LOCATION_CONFIG = "config";
+  static final String LOCATION_DATA = "data";
+
+  private static final String TYPE = "extract_profile";
+  private static final String TAG_PREFIX = "_profile_";
+
+  private static final AtomicLong counter = new AtomicLong();
+
+  private final ExtractService service;
+  private final ExtractProcessor.Factory factory;
+
+  /**
+   * Create a new handler and register it with the controller
+   */
+  public RestExtractProfileAction(Settings settings, RestController controller, ExtractService service){
+    super(settings);
+    this.service = service;
+    this.factory = new ExtractProcessor.Factory(service);
+
+    controller.registerHandler(POST, "/_extract/_profile", this);
+  }
+
+  /**
+   * Returns the builder for the thread pool used to run profiles, which can be configured with the
+   * thread_pool.extract_profile.size and thread_pool.extract_profile.queue_size node settings
+   */
+  static ExecutorBuilder<?> executorBuilder(Settings settings){
+    return new FixedExecutorBuilder(settings, THREAD_POOL_NAME, 1, 0, "thread_pool." + THREAD_POOL_NAME);
+  }
+
+  @Override
+  public String getName() {
+    return "extract_profile_action";
+  }
+
+  @Override
+  protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) {
+    if(!request.hasContent())
+      throw new IllegalArgumentException("Request body is required");
+
+    Map<String, Object> body = XContentHelper.convertToMap(request.content(), false, request.getXContentType()).v2();
+
+    return channel -> client.threadPool().executor(THREAD_POOL_NAME).execute(new AbstractRunnable() {
+      @Override
+      protected void doRun() throws Exception {
+        XContentBuilder builder = channel.newBuilder();
+        builder.startObject();
+        profile(body, builder, request);
+        builder.endObject();
+
+        channel.sendResponse(new BytesRestResponse(RestStatus.OK, builder));
+      }
+
+      @Override
+      public void onFailure(Exception e) {
+        sendFailure(channel, e);
+      }
+    });
+  }
+
+  /**
+   * Profiles the configuration and corpus described by the request body, writing the results
+   * to the builder
+   */
+  void profile(Map<String, Object> body, XContentBuilder builder, RestRequest request) throws Exception {
+    String path = ConfigurationUtils.readStringProperty(TYPE, null, body, CONFIG_PATH);
+    String location = ConfigurationUtils.readStringProperty(TYPE, null, body, CONFIG_LOCATION, LOCATION_CONFIG);
+    int threads = ConfigurationUtils.readIntProperty(TYPE, null, body, CONFIG_THREADS, 1);
+    int slowest = ConfigurationUtils.readIntProperty(TYPE, null, body, CONFIG_SLOWEST, 10);
+    Map<String, Object> config = ConfigurationUtils.readMap(TYPE, null, body, CONFIG_CONFIG);
+
+    //Each thread runs flat out, so more threads than processors would only starve the node
+    int maxThreads = EsExecutors.numberOfProcessors(settings);
+    if(threads > maxThreads)
+      throw new IllegalArgumentException("Number of threads must be at most " + maxThreads);
+
+    //Results aren't cached, so the corpus doesn't affect the node's cache and is fully processed
+    //each time it is profiled
+    config.put(ExtractProcessor.CONFIG_CACHE, false);
+
+    Path corpus = resolve(location, path);
+
+    String tag = TAG_PREFIX + counter.incrementAndGet();
+    ExtractProcessor processor = RestExtractBulkAction.createProcessor(factory, tag, config);
+    ExtractProfiler profiler = new ExtractProfiler(processor, threads, slowest);
+
+    try {
+      ExtractProfiler.Result result;
+      try {
+        result = AccessController.doPrivileged((PrivilegedExceptionAction<ExtractProfiler.Result>) () -> {
+          try(BufferedReader reader = Files.newBufferedReader(corpus, StandardCharsets.UTF_8)) {
+            return profiler.profile(reader);
+          }
+        });
+      }catch (PrivilegedActionException pae){
+        throw pae.getException();
+      }
+
+      builder.field("threads", threads);
+      result.toXContent(builder, request);
+
+      builder.startObject("pipeline");
+      processor.getStats().toXContent(builder, request);
+      builder.endObject();
+    }finally {
+      processor.close();
+    }
+  }
+
+  /**
+   * Resolves the path of the corpus within the config or data directory of the node. Paths
+   * which fall outside of those directories are rejected.
+   */
+  private Path resolve(String location, String path){
+    Environment env = service.getEnvironment();
+    if(env == null)
+      throw new IllegalStateException("Node environment is not yet available");
+
+    Path[] directories;
+    if(LOCATION_CONFIG.equals(location)){
+      directories = new Path[]{ env.configFile() };
+    }else if(LOCATION_DATA.equals(location)){
+      directories = env.dataFiles();
+    }else{
+      throw new IllegalArgumentException("Location must be one of [" + LOCATION_CONFIG + ", " + LOCATION_DATA + "]");
+    }
+
+    //Nodes can have several data directories, so use the first which holds the corpus
+    for(Path directory : directories){
+      Path base = directory.toAbsolutePath().normalize();
+      Path resolved = base.resolve(path).normalize();
+      if(!resolved.startsWith(base))
+        throw new IllegalArgumentException("Path must be within the " + location + " directory");
+
+      if(AccessController.doPrivileged((PrivilegedAction<Boolean>) () -> Files.isRegularFile(resolved)))
+        return resolved;
+    }
+
+    throw new IllegalArgumentException("Corpus " + path + " not found in the " + location + " directory");
+  }
+
+  /**
+   * Sends an error response for a request that couldn't be processed
+   */
+  private static void sendFailure(RestChannel channel, Exception e){
+    try {
+      channel.sendResponse(new BytesRestResponse(channel, e));
+    }catch (IOException ioe){
+      //Nothing more can be done
+    }
+  }
+}
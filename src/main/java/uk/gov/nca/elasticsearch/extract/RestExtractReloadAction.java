@@ -0,0 +1,107 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import static org.elasticsearch.rest.RestRequest.Method.POST;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.util.concurrent.AbstractRunnable;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestChannel;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.threadpool.ThreadPool;
+
+/**
+ * REST endpoint (POST /_extract/_reload) which reloads the resources used by the extract
+ * processors on the node that receives the request, without the pipelines having to be
+ * recreated.
+ *
+ * The reload runs on the generic thread pool. New processor instances are created and configured
+ * while the existing instances continue to process documents, and are then swapped in. The
+ * existing instances are closed once the documents using them have been processed.
+ */
+public class RestExtractReloadAction extends BaseRestHandler {
+
+  private final ExtractService service;
+
+  /**
+   * Create a new handler and register it with the controller
+   */
+  public RestExtractReloadAction(Settings settings, RestController controller, ExtractService service){
+    super(settings);
+    this.service = service;
+
+    controller.registerHandler(POST, "/_extract/_reload", this);
+  }
+
+  @Override
+  public String getName() {
+    return "extract_reload_action";
+  }
+
+  @Override
+  protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) {
+    return channel -> client.threadPool().executor(ThreadPool.Names.GENERIC).execute(new AbstractRunnable() {
+      @Override
+      protected void doRun() throws Exception {
+        long start = System.nanoTime();
+        List<Exception> failures = service.reload();
+        long took = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        XContentBuilder builder = channel.newBuilder();
+        builder.startObject();
+        builder.field("took_in_millis", took);
+        builder.field("reloaded", Math.max(0, service.getProcessorRegistry().size() - failures.size()));
+        builder.startArray("failures");
+        for(Exception e : failures){
+          builder.startObject();
+          ElasticsearchException.generateThrowableXContent(builder, request, e);
+          builder.endObject();
+        }
+        builder.endArray();
+        builder.endObject();
+
+        channel.sendResponse(new BytesRestResponse(failures.isEmpty() ? RestStatus.OK : RestStatus.INTERNAL_SERVER_ERROR, builder));
+      }
+
+      @Override
+      public void onFailure(Exception e) {
+        sendFailure(channel, e);
+      }
+    });
+  }
+
+  /**
+   * Sends an error response for a reload that couldn't be carried out
+   */
+  private static void sendFailure(RestChannel channel, Exception e){
+    try {
+      channel.sendResponse(new BytesRestResponse(channel, e));
+    }catch (IOException ioe){
+      //Nothing more can be done
+    }
+  }
+}
@@ -0,0 +1,90 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import static org.elasticsearch.rest.RestRequest.Method.GET;
+
+import java.util.Map;
+import org.elasticsearch.client.node.NodeClient;
+import org.elasticsearch.common.cache.Cache.CacheStats;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.rest.BaseRestHandler;
+import org.elasticsearch.rest.BytesRestResponse;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.rest.RestRequest;
+import org.elasticsearch.rest.RestStatus;
+
+/**
+ * REST endpoint (GET /_extract/stats) returning the extract statistics of the node that
+ * receives the request
+ */
+public class RestExtractStatsAction extends BaseRestHandler {
+
+  private final ExtractService service;
+
+  /**
+   * Create a new handler and register it with the controller
+   */
+  public RestExtractStatsAction(Settings settings, RestController controller, ExtractService service){
+    super(settings);
+    this.service = service;
+
+    controller.registerHandler(GET, "/_extract/stats", this);
+  }
+
+  @Override
+  public String getName() {
+    return "extract_stats_action";
+  }
+
+  @Override
+  protected RestChannelConsumer prepareRequest(RestRequest request, NodeClient client) {
+    return channel -> {
+      XContentBuilder builder = channel.newBuilder();
+      builder.startObject();
+
+      ResultCache cache = service.getResultCache();
+      CacheStats cacheStats = cache.stats();
+      builder.startObject("cache");
+      builder.field("enabled", cache.isEnabled());
+      builder.field("count", cache.count());
+      builder.field("size_in_bytes", cache.weight());
+      builder.field("hits", cacheStats.getHits());
+      builder.field("misses", cacheStats.getMisses());
+      builder.field("evictions", cacheStats.getEvictions());
+      builder.endObject();
+
+      builder.startObject("breaker");
+      service.getBreaker().toXContent(builder, request);
+      builder.endObject();
+
+      builder.startObject("gazetteers");
+      for(Map.Entry<String, Gazetteer> e : service.getGazetteers().all().entrySet()){
+        builder.startObject(e.getKey());
+        e.getValue().toXContent(builder, request);
+        builder.endObject();
+      }
+      builder.endObject();
+
+      service.getStats().toXContent(builder, request);
+
+      builder.endObject();
+      channel.sendResponse(new BytesRestResponse(RestStatus.OK, builder));
+    };
+  }
+}
@@ -0,0 +1,182 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import org.elasticsearch.common.cache.Cache;
+import org.elasticsearch.common.cache.Cache.CacheStats;
+import org.elasticsearch.common.cache.CacheBuilder;
+import org.elasticsearch.common.settings.Setting;
+import org.elasticsearch.common.settings.Setting.Property;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+
+/**
+ * Node level cache of the entities extracted from field values, so that repeated values don't
+ * need to be processed again.
+ *
+ * Entries are keyed on a SHA-256 hash of the text and a fingerprint of the processor
+ * configuration, so pipelines with identical processors share entries. The cache is bounded by
+ * the approximate memory used by its entries, and least recently used entries are evicted first.
+ */
+class ResultCache {
+
+  /**
+   * Maximum memory used by the cache. Zero (the default) disables the cache.
+   */
+  static final Setting<ByteSizeValue> CACHE_SIZE_SETTING =
+      Setting.memorySizeSetting("extract.cache.size", new ByteSizeValue(0), Property.NodeScope);
+
+  /**
+   * Time after which entries that haven't been accessed are removed. Zero (the default) means
+   * entries don't expire.
+   */
+  static final Setting<TimeValue> CACHE_EXPIRE_SETTING =
+      Setting.positiveTimeSetting("extract.cache.expire", new TimeValue(0), Property.NodeScope);
+
+  private static final long BASE_WEIGHT = 96;
+  private static final long ENTITY_WEIGHT = 88;
+
+  private final Cache<Key, List<Entity>> cache;
+
+  /**
+   * Create a new cache configured from the node settings
+   */
+  ResultCache(Settings settings){
+    long size = CACHE_SIZE_SETTING.get(settings).getBytes();
+    TimeValue expire = CACHE_EXPIRE_SETTING.get(settings);
+
+    if(size <= 0){
+      cache = null;
+      return;
+    }
+
+    CacheBuilder<Key, List<Entity>> builder = CacheBuilder.<Key, List<Entity>>builder()
+        .setMaximumWeight(size)
+        .weigher((k, v) -> weigh(v));
+
+    if(expire.nanos() > 0)
+      builder.setExpireAfterAccess(expire);
+
+    cache = builder.build();
+  }
+
+  /**
+   * Returns true if the cache is enabled
+   */
+  boolean isEnabled(){
+    return cache != null;
+  }
+
+  /**
+   * Returns the key for the given text processed by processors with the given fingerprint
+   */
+  Key key(String processorsFingerprint, String text){
+    return new Key(processorsFingerprint, Fingerprints.text(text));
+  }
+
+  /**
+   * Returns the cached entities for the key, or null if there is no entry
+   */
+  List<Entity> get(Key key){
+    return cache == null ? null : cache.get(key);
+  }
+
+  /**
+   * Caches the entities extracted for the key
+   */
+  void put(Key key, Collection<Entity> entities){
+    if(cache != null)
+      cache.put(key, Collections.unmodifiableList(new ArrayList<>(entities)));
+  }
+
+  /**
+   * Removes all entries from the cache
+   */
+  void clear(){
+    if(cache != null)
+      cache.invalidateAll();
+  }
+
+  /**
+   * Returns the hit, miss and eviction counts for the cache
+   */
+  CacheStats stats(){
+    return cache == null ? new CacheStats(0, 0, 0) : cache.stats();
+  }
+
+  /**
+   * Returns the number of entries in the cache
+   */
+  int count(){
+    return cache == null ? 0 : cache.count();
+  }
+
+  /**
+   * Returns the approximate memory, in bytes, used by entries in the cache
+   */
+  long weight(){
+    return cache == null ? 0 : cache.weight();
+  }
+
+  /**
+   * Estimates the memory used by an entry
+   */
+  private static long weigh(List<Entity> entities){
+    long weight = BASE_WEIGHT;
+    for(Entity e : entities)
+      weight += ENTITY_WEIGHT + 2L * e.getValue().length();
+
+    return weight;
+  }
+
+  /**
+   * Cache key, combining the fingerprint of the processor configuration and the hash of the text
+   */
+  static final class Key {
+    private final String processorsFingerprint;
+    private final byte[] textHash;
+    private final int hashCode;
+
+    private Key(String processorsFingerprint, byte[] textHash){
+      this.processorsFingerprint = processorsFingerprint;
+      this.textHash = textHash;
+      this.hashCode = 31 * processorsFingerprint.hashCode() + Arrays.hashCode(textHash);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if(!Key.class.isInstance(obj))
+        return false;
+
+      Key k = (Key) obj;
+      return k.hashCode == hashCode &&
+          Arrays.equals(k.textHash, textHash) &&
+          k.processorsFingerprint.equals(processorsFingerprint);
+    }
+
+    @Override
+    public int hashCode() {
+      return hashCode;
+    }
+  }
+}
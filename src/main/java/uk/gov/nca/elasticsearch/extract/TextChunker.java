@@ -0,0 +1,168 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits long texts into overlapping chunks, so that they can be processed in parallel.
+ *
+ * Chunks are cut at whitespace where possible, and each chunk overlaps the end of the previous one
+ * so that entities spanning a cut are still found whole in the following chunk. Texts without
+ * whitespace are cut at the chunk size, and still overlap by the configured amount. To avoid entities
+ * in the overlap being reported twice (or being reported truncated by the cut), each chunk owns
+ * only the entities that begin before the start of the next chunk.
+ */
+class TextChunker {
+  private final int size;
+  private final int overlap;
+  private final int threshold;
+
+  /**
+   * Create a new chunker, which splits texts longer than threshold into chunks of at most size
+   * characters, each overlapping the previous chunk by approximately overlap characters
+   */
+  TextChunker(int size, int overlap, int threshold){
+    if(size < 1)
+      throw new IllegalArgumentException("Chunk size must be at least 1");
+
+    if(overlap < 0 || overlap >= size)
+      throw new IllegalArgumentException("Chunk overlap must be at least 0 and less than the chunk size");
+
+    if(threshold < 1)
+      throw new IllegalArgumentException("Chunk threshold must be at least 1");
+
+    this.size = size;
+    this.overlap = overlap;
+    this.threshold = threshold;
+  }
+
+  /**
+   * Returns true if the text is long enough to be split into chunks
+   */
+  boolean shouldSplit(String text){
+    return text.length() > threshold && text.length() > size;
+  }
+
+  /**
+   * Splits the text into chunks. Texts no longer than the chunk size are returned as a single
+   * chunk.
+   */
+  List<Chunk> split(String text){
+    List<Chunk> chunks = new ArrayList<>();
+
+    int length = text.length();
+    int start = 0;
+    while(start < length){
+      if(length - start <= size){
+        chunks.add(new Chunk(text.substring(start), start, length - start));
+        break;
+      }
+
+      int end = findEnd(text, start);
+      int next = findNextStart(text, start, end);
+
+      chunks.add(new Chunk(text.substring(start, end), start, next - start));
+      start = next;
+    }
+
+    return chunks;
+  }
+
+  /**
+   * Returns the end of the chunk beginning at start, which is the last whitespace boundary that
+   * leaves room for the overlap, or a hard cut at the chunk size if there is no such boundary
+   */
+  private int findEnd(String text, int start){
+    int end = start + size;
+    for(int i = end; i > start + overlap; i--){
+      if(isBoundary(text, i))
+        return i;
+    }
+
+    //Don't split a surrogate pair
+    if(Character.isHighSurrogate(text.charAt(end - 1)) && end - 1 > start + overlap)
+      end--;
+
+    return end;
+  }
+
+  /**
+   * Returns the start of the chunk following the chunk [start, end), which is the first whitespace
+   * boundary at least overlap characters before end, or exactly overlap characters before end if
+   * there is no such boundary
+   */
+  private int findNextStart(String text, int start, int end){
+    int next = Math.max(end - overlap, start + 1);
+    for(int i = next; i < end; i++){
+      if(isBoundary(text, i))
+        return i;
+    }
+
+    //Don't split a surrogate pair
+    if(Character.isLowSurrogate(text.charAt(next)))
+      next = next - 1 > start ? next - 1 : next + 1;
+
+    return next;
+  }
+
+  /**
+   * Returns true if a chunk can start at position i, because it follows whitespace
+   */
+  private static boolean isBoundary(String text, int i){
+    return Character.isWhitespace(text.charAt(i - 1));
+  }
+
+  /**
+   * A chunk of a longer text
+   */
+  static final class Chunk {
+    private final String text;
+    private final int offset;
+    private final int owned;
+
+    private Chunk(String text, int offset, int owned){
+      this.text = text;
+      this.offset = offset;
+      this.owned = owned;
+    }
+
+    /**
+     * Returns the text of the chunk
+     */
+    String getText() {
+      return text;
+    }
+
+    /**
+     * Returns the position of the start of the chunk in the original text
+     */
+    int getOffset() {
+      return offset;
+    }
+
+    /**
+     * Returns the number of characters at the start of the chunk that belong to this chunk rather
+     * than to the next one. Entities beginning at or after this position should be ignored, as
+     * they are also found in the next chunk.
+     */
+    int getOwned() {
+      return owned;
+    }
+  }
+}
@@ -0,0 +1,541 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import uk.gov.nca.elasticsearch.extract.ExtractSettings.Preprocessing;
+
+/**
+ * Normalises texts once, before they are passed to the Annot8 processors, so that processors
+ * don't each need to normalise the text themselves.
+ *
+ * The steps are always applied in the order STRIP_HTML, NFKC, DEOBFUSCATE, LOWERCASE, regardless
+ * of the order in which they are configured, so that (for example) HTML entities and full width
+ * brackets are decoded before obfuscated addresses are looked for.
+ *
+ * As steps can change the length of the text, each preprocessed text carries a map from each of
+ * its characters back to the characters of the original text which produced it, so that the
+ * positions of entities can be reported relative to the original text.
+ */
+final class TextPreprocessor {
+
+  private static final Map<String, String> HTML_ENTITIES;
+
+  static {
+    Map<String, String> entities = new HashMap<>();
+    entities.put("amp", "&");
+    entities.put("lt", "<");
+    entities.put("gt", ">");
+    entities.put("quot", "\"");
+    entities.put("apos", "'");
+    entities.put("nbsp", " ");
+
+    HTML_ENTITIES = Collections.unmodifiableMap(entities);
+  }
+
+  private static final int MAX_ENTITY_LENGTH = 10;
+
+  private final Set<Preprocessing> steps;
+
+  private TextPreprocessor(Set<Preprocessing> steps){
+    this.steps = EnumSet.copyOf(steps);
+  }
+
+  /**
+   * Returns a preprocessor applying the given steps, or null if there are no steps
+   */
+  static TextPreprocessor forSteps(Set<Preprocessing> steps){
+    if(steps == null || steps.isEmpty())
+      return null;
+
+    return new TextPreprocessor(steps);
+  }
+
+  /**
+   * Returns the steps applied by this preprocessor, in the order they are applied
+   */
+  Set<Preprocessing> getSteps(){
+    return Collections.unmodifiableSet(steps);
+  }
+
+  /**
+   * Applies each of the steps to the text in turn. Steps which wouldn't change the text are
+   * skipped, so texts which are already normalised aren't copied.
+   */
+  Preprocessed apply(String text){
+    Preprocessed p = new Preprocessed(text);
+
+    for(Preprocessing step : steps){
+      switch(step){
+        case STRIP_HTML:
+          if(p.text.indexOf('<') >= 0 || p.text.indexOf('&') >= 0)
+            p = stripHtml(p);
+          break;
+        case NFKC:
+          if(!Normalizer.isNormalized(p.text, Normalizer.Form.NFKC))
+            p = nfkc(p);
+          break;
+        case DEOBFUSCATE:
+          p = deobfuscate(p);
+          break;
+        case LOWERCASE:
+          if(hasUpperCase(p.text))
+            p = lowercase(p);
+          break;
+      }
+    }
+
+    return p;
+  }
+
+  /**
+   * Removes HTML tags and comments (and the contents of script and style elements), replacing
+   * each with a single space so that words either side aren't joined, and decodes character
+   * references. Anything which doesn't look like markup is left as it is.
+   */
+  private static Preprocessed stripHtml(Preprocessed in){
+    String text = in.text;
+    Builder out = new Builder(in);
+
+    int i = 0;
+    while(i < text.length()){
+      char c = text.charAt(i);
+
+      if(c == '<'){
+        int end = endOfTag(text, i);
+        if(end > 0){
+          out.append(' ', i, end);
+          i = end;
+          continue;
+        }
+      }else if(c == '&'){
+        int semicolon = text.indexOf(';', i);
+        if(semicolon > i + 1 && semicolon - i <= MAX_ENTITY_LENGTH){
+          String decoded = decodeEntity(text.substring(i + 1, semicolon));
+          if(decoded != null){
+            for(int j = 0; j < decoded.length(); j++)
+              out.append(decoded.charAt(j), i, semicolon + 1);
+
+            i = semicolon + 1;
+            continue;
+          }
+        }
+      }
+
+      out.append(c, i, i + 1);
+      i++;
+    }
+
+    return out.build();
+  }
+
+  /**
+   * Returns the position after the end of the tag, comment or script/style element starting at
+   * start, or -1 if there isn't one
+   */
+  private static int endOfTag(String text, int start){
+    if(start + 1 >= text.length())
+      return -1;
+
+    char next = text.charAt(start + 1);
+    if(text.startsWith("<!--", start)){
+      int end = text.indexOf("-->", start + 4);
+      return end < 0 ? -1 : end + 3;
+    }
+
+    if(!Character.isLetter(next) && next != '/' && next != '!' && next != '?')
+      return -1;
+
+    int end = text.indexOf('>', start);
+    if(end < 0)
+      return -1;
+
+    //Skip the contents of elements which don't hold text
+    for(String element : new String[]{ "script", "style" }){
+      if(text.regionMatches(true, start + 1, element, 0, element.length())){
+        int close = indexOfIgnoreCase(text, "</" + element, end);
+        if(close >= 0){
+          int closeEnd = text.indexOf('>', close);
+          return closeEnd < 0 ? -1 : closeEnd + 1;
+        }
+      }
+    }
+
+    return end + 1;
+  }
+
+  private static int indexOfIgnoreCase(String text, String s, int from){
+    for(int i = from; i <= text.length() - s.length(); i++){
+      if(text.regionMatches(true, i, s, 0, s.length()))
+        return i;
+    }
+
+    return -1;
+  }
+
+  /**
+   * Returns the text of the named or numeric character reference, or null if it isn't one
+   */
+  private static String decodeEntity(String entity){
+    if(entity.charAt(0) != '#')
+      return HTML_ENTITIES.get(entity.toLowerCase(Locale.ROOT));
+
+    try {
+      int cp;
+      if(entity.length() > 2 && (entity.charAt(1) == 'x' || entity.charAt(1) == 'X')){
+        cp = Integer.parseInt(entity.substring(2), 16);
+      }else{
+        cp = Integer.parseInt(entity.substring(1));
+      }
+
+      if(cp <= 0 || !Character.isValidCodePoint(cp))
+        return null;
+
+      return new String(Character.toChars(cp));
+    }catch (NumberFormatException e){
+      return null;
+    }
+  }
+
+  /**
+   * Applies Unicode NFKC normalisation. Each base character is normalised together with the
+   * combining marks that follow it, and all of the resulting characters map back to that sequence.
+   */
+  private static Preprocessed nfkc(Preprocessed in){
+    String text = in.text;
+    Builder out = new Builder(in);
+
+    int i = 0;
+    while(i < text.length()){
+      int end = i + Character.charCount(text.codePointAt(i));
+      while(end < text.length() && isCombining(text.codePointAt(end)))
+        end += Character.charCount(text.codePointAt(end));
+
+      if(end == i + 1 && text.charAt(i) < 0xA0){
+        //ASCII and Latin-1 control characters are unaffected
+        out.append(text.charAt(i), i, end);
+      }else{
+        String normalised = Normalizer.normalize(text.substring(i, end), Normalizer.Form.NFKC);
+        for(int j = 0; j < normalised.length(); j++)
+          out.append(normalised.charAt(j), i, end);
+      }
+
+      i = end;
+    }
+
+    return out.build();
+  }
+
+  private static boolean isCombining(int cp){
+    int type = Character.getType(cp);
+    return type == Character.NON_SPACING_MARK || type == Character.COMBINING_SPACING_MARK
+        || type == Character.ENCLOSING_MARK || (cp >= 0x1160 && cp <= 0x11FF);
+  }
+
+  /**
+   * Reverses common obfuscations of e-mail addresses and URLs: `[at]`, `(at)`, `{at}` and `[@]`
+   * become `@`, `[dot]`, `(dot)`, `{dot}` and `[.]` become `.` (along with any spaces or tabs
+   * around them), and `hxxp://` and `hxxps://` become `http://` and `https://`.
+   */
+  private static Preprocessed deobfuscate(Preprocessed in){
+    String text = in.text;
+    if(!mayBeObfuscated(text))
+      return in;
+
+    Builder out = new Builder(in);
+    int spaces = -1;
+
+    int i = 0;
+    while(i < text.length()){
+      char c = text.charAt(i);
+
+      if(c == '[' || c == '(' || c == '{'){
+        int[] match = matchObfuscation(text, i);
+        if(match != null){
+          //Remove the spaces before the obfuscation, which have already been added
+          int start = i;
+          if(spaces >= 0){
+            out.pop(i - spaces);
+            start = spaces;
+          }
+
+          out.append((char) match[1], start, match[0]);
+          i = match[0];
+          spaces = -1;
+          continue;
+        }
+      }else if((c == 'h' || c == 'H') && isHxxp(text, i)){
+        out.append(c, i, i + 1);
+        out.append(text.charAt(i + 1) == 'X' ? 'T' : 't', i + 1, i + 2);
+        out.append(text.charAt(i + 2) == 'X' ? 'T' : 't', i + 2, i + 3);
+        i += 3;
+        spaces = -1;
+        continue;
+      }
+
+      if(c == ' ' || c == '\t'){
+        if(spaces < 0)
+          spaces = i;
+      }else{
+        spaces = -1;
+      }
+
+      out.append(c, i, i + 1);
+      i++;
+    }
+
+    return out.build();
+  }
+
+  private static boolean mayBeObfuscated(String text){
+    for(int i = 0; i < text.length(); i++){
+      char c = text.charAt(i);
+      if(c == '[' || c == '(' || c == '{' || ((c == 'h' || c == 'H') && isHxxp(text, i)))
+        return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Returns true if there is `hxxp://` or `hxxps://` (in any case) at position i
+   */
+  private static boolean isHxxp(String text, int i){
+    if(!text.regionMatches(true, i, "hxxp", 0, 4))
+      return false;
+
+    return text.startsWith("://", i + 4) || text.regionMatches(true, i + 4, "s://", 0, 4);
+  }
+
+  /**
+   * If there is an obfuscated `@` or `.` beginning with the bracket at start, returns the position
+   * after it (including any trailing spaces or tabs) and the character it stands for; otherwise
+   * returns null
+   */
+  private static int[] matchObfuscation(String text, int start){
+    char close = text.charAt(start) == '[' ? ']' : text.charAt(start) == '(' ? ')' : '}';
+
+    int i = skipSpaces(text, start + 1);
+    char replacement;
+    if(text.regionMatches(true, i, "at", 0, 2)){
+      replacement = '@';
+      i += 2;
+    }else if(text.regionMatches(true, i, "dot", 0, 3)){
+      replacement = '.';
+      i += 3;
+    }else if(i < text.length() && (text.charAt(i) == '@' || text.charAt(i) == '.')){
+      replacement = text.charAt(i);
+      i++;
+    }else{
+      return null;
+    }
+
+    i = skipSpaces(text, i);
+    if(i >= text.length() || text.charAt(i) != close)
+      return null;
+
+    return new int[]{ skipSpaces(text, i + 1), replacement };
+  }
+
+  private static int skipSpaces(String text, int i){
+    while(i < text.length() && (text.charAt(i) == ' ' || text.charAt(i) == '\t'))
+      i++;
+
+    return i;
+  }
+
+  private static boolean hasUpperCase(String text){
+    for(int i = 0; i < text.length(); i += Character.charCount(text.codePointAt(i))){
+      int cp = text.codePointAt(i);
+      if(Character.toLowerCase(cp) != cp)
+        return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Converts the text to lower case, one code point at a time so that the length is unchanged
+   */
+  private static Preprocessed lowercase(Preprocessed in){
+    String text = in.text;
+    Builder out = new Builder(in);
+
+    int i = 0;
+    while(i < text.length()){
+      int cp = text.codePointAt(i);
+      int end = i + Character.charCount(cp);
+
+      char[] chars = Character.toChars(Character.toLowerCase(cp));
+      for(char c : chars)
+        out.append(c, i, end);
+
+      i = end;
+    }
+
+    return out.build();
+  }
+
+  /**
+   * A preprocessed text, and the map from each of its characters to the range of characters in
+   * the original text that produced it
+   */
+  static final class Preprocessed {
+    private final String original;
+    private final String text;
+    private final int[] begins;
+    private final int[] ends;
+
+    /**
+     * Create an unchanged text
+     */
+    private Preprocessed(String original){
+      this(original, original, null, null);
+    }
+
+    private Preprocessed(String original, String text, int[] begins, int[] ends){
+      this.original = original;
+      this.text = text;
+      this.begins = begins;
+      this.ends = ends;
+    }
+
+    /**
+     * Returns the preprocessed text
+     */
+    String getText(){
+      return text;
+    }
+
+    /**
+     * Returns the original text
+     */
+    String getOriginal(){
+      return original;
+    }
+
+    /**
+     * Returns true if the preprocessed text differs from the original text
+     */
+    boolean isChanged(){
+      return begins != null;
+    }
+
+    /**
+     * Returns the position in the original text corresponding to the start of an entity that
+     * begins at the given position in the preprocessed text
+     */
+    int toOriginalBegin(int begin){
+      if(begins == null)
+        return begin;
+
+      if(begin >= text.length())
+        return original.length();
+
+      return begins[Math.max(begin, 0)];
+    }
+
+    /**
+     * Returns the position in the original text corresponding to the end of an entity that ends
+     * at the given position in the preprocessed text
+     */
+    int toOriginalEnd(int end){
+      if(ends == null)
+        return end;
+
+      if(end <= 0)
+        return text.isEmpty() ? 0 : begins[0];
+
+      return ends[Math.min(end, text.length()) - 1];
+    }
+
+    /**
+     * Returns the entity with its position moved from the preprocessed text to the original text.
+     * The value of the entity is unchanged, so is as it appears in the preprocessed text.
+     */
+    Entity toOriginal(Entity entity){
+      if(begins == null || !entity.hasOffsets())
+        return entity;
+
+      return new Entity(entity.getType(), entity.getValue(), toOriginalBegin(entity.getBegin()), toOriginalEnd(entity.getEnd()));
+    }
+
+    /**
+     * Returns the estimated memory used by the preprocessed text and its map, beyond that of the
+     * original text
+     */
+    long bytes(){
+      return begins == null ? 0 : 2L * text.length() + 2L * Integer.BYTES * begins.length;
+    }
+  }
+
+  /**
+   * Builds the output of a step, composing the positions of each character in the input of the
+   * step with the input's own map to give positions in the original text
+   */
+  private static final class Builder {
+    private final Preprocessed in;
+    private final StringBuilder text;
+    private int[] begins;
+    private int[] ends;
+
+    private Builder(Preprocessed in){
+      this.in = in;
+      this.text = new StringBuilder(in.text.length());
+      this.begins = new int[in.text.length() + 1];
+      this.ends = new int[in.text.length() + 1];
+    }
+
+    /**
+     * Adds a character, produced from the characters from begin (inclusive) to end (exclusive)
+     * of the input
+     */
+    private void append(char c, int begin, int end){
+      int length = text.length();
+      if(length == begins.length){
+        begins = Arrays.copyOf(begins, length * 2);
+        ends = Arrays.copyOf(ends, length * 2);
+      }
+
+      text.append(c);
+      begins[length] = in.toOriginalBegin(begin);
+      ends[length] = in.toOriginalEnd(end);
+    }
+
+    /**
+     * Removes the last n characters
+     */
+    private void pop(int n){
+      text.setLength(text.length() - n);
+    }
+
+    private Preprocessed build(){
+      String s = text.toString();
+      if(s.equals(in.text) && !in.isChanged())
+        return in;
+
+      return new Preprocessed(in.original, s, Arrays.copyOf(begins, s.length()), Arrays.copyOf(ends, s.length()));
+    }
+  }
+}
@@ -0,0 +1,147 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The time allowed for extracting entities from a single document, both overall and for each
+ * Annot8 processor.
+ *
+ * Annot8 processors can't be interrupted while they are running, so the budget is checked
+ * cooperatively before and after each processor is run on each item (and so, if long texts are
+ * split into chunks, for each chunk). Once the overall budget has run out, no more processors are
+ * run for the document, and the document is marked as having exceeded its budget even if the
+ * processor that overran was the last one. Once a processor has used its own budget, it isn't run
+ * again for the document.
+ *
+ * A budget may be shared by the threads processing the chunks of a document. The ingest thread
+ * waits for those threads no longer than the time remaining (see {@link #remainingNanos()}), and
+ * abandons any chunks still being processed once the budget has run out.
+ */
+class TimeBudget {
+  private final long deadline;
+  private final boolean hasDeadline;
+  private final long[] processorBudgets;
+  private final AtomicLongArray processorUsed;
+
+  private volatile boolean exceeded = false;
+
+  /**
+   * Create a new budget, starting at the given time (from {@link System#nanoTime()}). A timeout of
+   * 0 means no limit, and processorTimeoutNanos may be null if no processor has its own limit.
+   */
+  TimeBudget(long startNanos, long timeoutNanos, long[] processorTimeoutNanos){
+    this(startNanos, timeoutNanos, processorTimeoutNanos, 0);
+  }
+
+  /**
+   * Create a new budget as above, which also keeps track of the time used by each of the given
+   * number of processors (for example, for the slow log) even if they have no limit
+   */
+  TimeBudget(long startNanos, long timeoutNanos, long[] processorTimeoutNanos, int trackedProcessors){
+    this.hasDeadline = timeoutNanos > 0;
+    this.deadline = startNanos + timeoutNanos;
+    this.processorBudgets = processorTimeoutNanos;
+
+    if(processorTimeoutNanos != null){
+      this.processorUsed = new AtomicLongArray(processorTimeoutNanos.length);
+    }else if(trackedProcessors > 0){
+      this.processorUsed = new AtomicLongArray(trackedProcessors);
+    }else{
+      this.processorUsed = null;
+    }
+  }
+
+  /**
+   * Returns true if the overall budget has run out
+   */
+  boolean isExpired(){
+    if(hasDeadline && System.nanoTime() - deadline >= 0){
+      exceeded = true;
+      return true;
+    }
+
+    return false;
+  }
+
+  /**
+   * Returns the time remaining before the overall budget runs out, which is never negative, or
+   * {@link Long#MAX_VALUE} if there is no limit
+   */
+  long remainingNanos(){
+    if(!hasDeadline)
+      return Long.MAX_VALUE;
+
+    return Math.max(0, deadline - System.nanoTime());
+  }
+
+  /**
+   * Marks the budget as exceeded, for example because work was abandoned when it ran out
+   */
+  void expire(){
+    exceeded = true;
+  }
+
+  /**
+   * Returns true if the processor at the given index can be run, because neither the overall
+   * budget nor the processor's own budget has run out
+   */
+  boolean canRun(int processor){
+    if(isExpired())
+      return false;
+
+    if(processorBudgets == null || processorBudgets[processor] <= 0
+        || processorUsed.get(processor) < processorBudgets[processor])
+      return true;
+
+    exceeded = true;
+    return false;
+  }
+
+  /**
+   * Records time spent running the processor at the given index, returning true if this used up
+   * the remainder of the processor's own budget
+   */
+  boolean record(int processor, long nanos){
+    if(processorUsed == null)
+      return false;
+
+    long used = processorUsed.addAndGet(processor, nanos);
+    if(processorBudgets == null || processorBudgets[processor] <= 0)
+      return false;
+
+    return used >= processorBudgets[processor] && used - nanos < processorBudgets[processor];
+  }
+
+  /**
+   * Returns the time spent running the processor at the given index, or 0 if the time used by
+   * processors isn't being tracked
+   */
+  long getUsed(int processor){
+    return processorUsed == null ? 0 : processorUsed.get(processor);
+  }
+
+  /**
+   * Returns true if the overall budget was found to have run out, or a processor wasn't run
+   * because its own budget had run out, in which case the results for the document may be
+   * incomplete
+   */
+  boolean isExceeded(){
+    return exceeded;
+  }
+}
@@ -0,0 +1,164 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+public class EntityCollectorTest {
+
+  @Test
+  public void testFlat(){
+    EntityCollector collector = new EntityCollector(false, false, false, 0);
+    assertTrue(collector.add("body", new Entity("entity/email", "john@example.com", 0, 16)));
+    assertTrue(collector.add("body", new Entity("entity/url", "http://www.example.com", 20, 42)));
+    assertTrue(collector.add("subject", new Entity("entity/email", "john@example.com", 5, 21)));
+
+    assertEquals(2, collector.size());
+    assertFalse(collector.isTruncated());
+    assertThat((List<Object>) collector.getOutput(), contains("john@example.com", "http://www.example.com"));
+    assertEquals(2, EntityCollector.count(collector.getOutput()));
+  }
+
+  @Test
+  public void testTyped(){
+    EntityCollector collector = new EntityCollector(true, false, false, 0);
+    collector.addAll("body", Arrays.asList(
+        new Entity("entity/email", "john@example.com", 0, 16),
+        new Entity("entity/epochTime", "1521000000", 20, 30),
+        new Entity("entity/email", "jane@example.com", 35, 51),
+        new Entity("entity/email", "john@example.com", 60, 76)));
+
+    Map<String, Object> output = (Map<String, Object>) collector.getOutput();
+    assertThat(output.keySet(), containsInAnyOrder("email", "epoch_time"));
+    assertThat((List<Object>) output.get("email"), contains("john@example.com", "jane@example.com"));
+    assertThat((List<Object>) output.get("epoch_time"), contains("1521000000"));
+    assertEquals(3, EntityCollector.count(output));
+  }
+
+  @Test
+  public void testCountsAndOffsets(){
+    EntityCollector collector = new EntityCollector(true, true, true, 0);
+    collector.add("body", new Entity("entity/email", "john@example.com", 0, 16));
+    collector.add("subject", new Entity("entity/email", "john@example.com", 5, 21));
+    collector.add("body", new Entity("entity/email", "jane@example.com", -1, -1));
+
+    List<Object> emails = (List<Object>) ((Map<String, Object>) collector.getOutput()).get("email");
+    assertEquals(2, emails.size());
+
+    Map<String, Object> john = (Map<String, Object>) emails.get(0);
+    assertEquals("john@example.com", john.get("value"));
+    assertEquals(2, john.get("count"));
+
+    List<Map<String, Object>> offsets = (List<Map<String, Object>>) john.get("offsets");
+    assertEquals(2, offsets.size());
+    assertEquals("subject", offsets.get(1).get("field"));
+    assertEquals(5, offsets.get(1).get("start"));
+    assertEquals(21, offsets.get(1).get("end"));
+
+    //Entities without a position are counted, but have no offsets
+    Map<String, Object> jane = (Map<String, Object>) emails.get(1);
+    assertEquals(1, jane.get("count"));
+    assertTrue(((List<Object>) jane.get("offsets")).isEmpty());
+  }
+
+  @Test
+  public void testFlatCounts(){
+    EntityCollector collector = new EntityCollector(false, true, false, 0);
+    collector.add("body", new Entity("entity/url", "http://www.example.com", 0, 22));
+
+    Map<String, Object> url = (Map<String, Object>) ((List<Object>) collector.getOutput()).get(0);
+    assertEquals("http://www.example.com", url.get("value"));
+    assertEquals("url", url.get("type"));
+    assertEquals(1, url.get("count"));
+    assertFalse(url.containsKey("offsets"));
+  }
+
+  @Test
+  public void testMaxEntities(){
+    EntityCollector collector = new EntityCollector(false, false, false, 2);
+    assertTrue(collector.add("body", new Entity("entity/email", "a@example.com", 0, 13)));
+    assertTrue(collector.add("body", new Entity("entity/email", "b@example.com", 14, 27)));
+    assertTrue(collector.isFull());
+    assertFalse(collector.isTruncated());
+
+    //Repeated entities are still accepted once the maximum is reached, but new ones aren't
+    assertTrue(collector.add("body", new Entity("entity/email", "a@example.com", 28, 41)));
+    assertFalse(collector.add("body", new Entity("entity/email", "c@example.com", 42, 55)));
+    assertTrue(collector.isTruncated());
+    assertTrue(collector.add("body", new Entity("entity/email", "a@example.com", 56, 69)));
+
+    assertThat((List<Object>) collector.getOutput(), contains("a@example.com", "b@example.com"));
+  }
+
+  @Test
+  public void testMaxEntitiesCounts(){
+    EntityCollector collector = new EntityCollector(false, true, true, 1);
+
+    //Mentions of collected entities after truncation are still counted
+    assertFalse(collector.addAll("body", Arrays.asList(
+        new Entity("entity/email", "a@example.com", 0, 13),
+        new Entity("entity/email", "b@example.com", 14, 27),
+        new Entity("entity/email", "a@example.com", 28, 41))));
+    assertTrue(collector.isTruncated());
+    assertTrue(collector.add("subject", new Entity("entity/email", "a@example.com", 0, 13)));
+
+    List<Map<String, Object>> output = (List<Map<String, Object>>) collector.getOutput();
+    assertEquals(1, output.size());
+    assertEquals("a@example.com", output.get(0).get("value"));
+    assertEquals(3, output.get(0).get("count"));
+  }
+
+  @Test
+  public void testIds(){
+    EntityCollector collector = new EntityCollector(true, false, false, true, 0);
+    collector.add("body", new Entity("entity/email", "john@example.com", 0, 16));
+    collector.add("body", new Entity("entity/email", "John@Example.com", 20, 36));
+    collector.add("body", new Entity("entity/url", "http://www.example.com", 40, 62));
+    collector.add("body", new Entity("entity/email", "john@example.com", 70, 86));
+
+    //Entities which only differ in case share an ID
+    assertThat(collector.getIds(), contains(Fingerprints.entity("john@example.com"), Fingerprints.entity("http://www.example.com")));
+
+    assertEquals(Fingerprints.entity("john@example.com"), Fingerprints.entity(" JOHN@example.com"));
+    assertNotEquals(Fingerprints.entity("john@example.com"), Fingerprints.entity("jane@example.com"));
+
+    assertNull(new EntityCollector(false, false, false, 0).getIds());
+  }
+
+  @Test
+  public void testTypeName(){
+    assertEquals("email", EntityCollector.typeName("entity/email"));
+    assertEquals("epoch_time", EntityCollector.typeName("entity/epochTime"));
+    assertEquals("ipv4", EntityCollector.typeName("entity/ipv4"));
+    assertEquals("bitcoin_address", EntityCollector.typeName("bitcoin-address"));
+    assertEquals("gazetteer", EntityCollector.typeName("gazetteer"));
+    assertEquals(EntityCollector.DEFAULT_TYPE, EntityCollector.typeName(null));
+    assertEquals(EntityCollector.DEFAULT_TYPE, EntityCollector.typeName("entity/"));
+  }
+}
@@ -0,0 +1,105 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.breaker.CircuitBreakingException;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.junit.Test;
+
+public class ExtractBreakerTest {
+
+  @Test
+  public void testAccount(){
+    ExtractBreaker breaker = new ExtractBreaker(Settings.builder()
+        .put(ExtractBreaker.BREAKER_LIMIT_SETTING.getKey(), "1kb")
+        .build());
+    assertTrue(breaker.isEnabled());
+
+    ExtractBreaker.Account first = breaker.account("first");
+    first.add(600);
+    assertEquals(600, breaker.getUsed());
+
+    //A second document which would take the breaker over its limit is rejected
+    ExtractBreaker.Account second = breaker.account("second");
+    try {
+      second.add(600);
+      fail("Expected exception not thrown");
+    }catch (CircuitBreakingException cbe){
+      //Expected exception, do nothing
+    }
+    assertEquals(1, breaker.getTrippedCount());
+    assertEquals(0, second.getReserved());
+    assertEquals(600, breaker.getUsed());
+
+    //Once the first document has finished, the memory is released
+    first.close();
+    second.close();
+    assertEquals(0, breaker.getUsed());
+
+    second = breaker.account("second");
+    second.add(600);
+    second.close();
+    assertEquals(0, breaker.getUsed());
+
+    //Abandoned work finishing after the document can't charge its account again
+    second.add(600);
+    assertEquals(0, breaker.getUsed());
+    assertEquals(0, second.getReserved());
+  }
+
+  @Test
+  public void testDisabled(){
+    ExtractBreaker breaker = new ExtractBreaker(Settings.builder()
+        .put(ExtractBreaker.BREAKER_LIMIT_SETTING.getKey(), "-1")
+        .build());
+
+    assertFalse(breaker.isEnabled());
+    assertNull(breaker.account("label"));
+  }
+
+  @Test
+  public void testEstimates(){
+    assertEquals(ExtractBreaker.CONTENT_BYTES + 10, ExtractBreaker.contentBytes("hello"));
+    assertEquals(ExtractBreaker.ENTITY_BYTES + 10, ExtractBreaker.entityBytes("hello"));
+  }
+
+  @Test
+  public void testToXContent() throws Exception {
+    ExtractBreaker breaker = new ExtractBreaker(Settings.EMPTY);
+
+    XContentBuilder builder = XContentFactory.jsonBuilder();
+    builder.startObject();
+    breaker.toXContent(builder, ToXContent.EMPTY_PARAMS);
+    builder.endObject();
+
+    String json = Strings.toString(builder);
+    assertThat(json, containsString("\"limit_size_in_bytes\""));
+    assertThat(json, containsString("\"tripped\":0"));
+  }
+}
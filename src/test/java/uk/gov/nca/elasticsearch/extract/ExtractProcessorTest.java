@@ -17,16 +17,35 @@ limitations under the License.
 package uk.gov.nca.elasticsearch.extract;
 
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.hamcrest.Matchers.contains;
 import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.isEmptyOrNullString;
 import static org.hamcrest.Matchers.not;
 
+import io.annot8.components.cyber.processors.Email;
+import io.annot8.components.cyber.processors.Url;
+import io.annot8.core.components.Processor;
+import io.annot8.core.components.responses.ProcessorResponse;
+import io.annot8.core.data.Item;
+import io.annot8.core.settings.EmptySettings;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import org.elasticsearch.ElasticsearchTimeoutException;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.ingest.IngestDocument;
 import org.junit.Test;
+import uk.gov.nca.elasticsearch.extract.ExtractSettings.ProcessorSettingsPair;
+import uk.gov.nca.elasticsearch.extract.ExtractStats.PipelineStats;
 
 public class ExtractProcessorTest {
 
@@ -59,5 +78,526 @@ public class ExtractProcessorTest {
     assertThat(extracted, not(contains("peter@example.com")));
   }
 
-  //TODO: Switch to full ES Test Framework to properly test in context
+  @Test
+  public void testPrefilter() throws Exception {
+    ExtractSettings settings = new ExtractSettings()
+        .withField("source_field")
+        .withField("another_source_field")
+        .withTargetField("target_field")
+        .withPrefilter()
+        .withProcessorName("io.annot8.components.cyber.processors.Email");
+
+    ExtractProcessor processor = new ExtractProcessor("abcdefghij", settings);
+
+    Map<String, Object> document = new HashMap<>();
+    document.put("source_field", "John (john@example.com) e-mailed jane@example.com last week.");
+    document.put("another_source_field", "No e-mail addresses here");
+
+    IngestDocument ingestDocument = new IngestDocument(document, Collections.emptyMap());
+    processor.execute(ingestDocument);
+
+    List<String> extracted = (List<String>) ingestDocument.getSourceAndMetadata().get("target_field");
+    assertThat(extracted, containsInAnyOrder("john@example.com", "jane@example.com"));
+
+    //Documents without any trigger literals still get an empty target field
+    document = new HashMap<>();
+    document.put("source_field", "Nothing to extract");
+
+    ingestDocument = new IngestDocument(document, Collections.emptyMap());
+    processor.execute(ingestDocument);
+
+    extracted = (List<String>) ingestDocument.getSourceAndMetadata().get("target_field");
+    assertThat(extracted, empty());
+  }
+
+  @Test
+  public void testCache() throws Exception {
+    ExtractSettings settings = new ExtractSettings()
+        .withField("source_field")
+        .withTargetField("target_field")
+        .withProcessorName("io.annot8.components.cyber.processors.Email");
+
+    ExtractService service = new ExtractService(org.elasticsearch.common.settings.Settings.builder()
+        .put(ResultCache.CACHE_SIZE_SETTING.getKey(), "1mb")
+        .build());
+    ExtractProcessor processor = new ExtractProcessor("abcdefghij", settings, service);
+
+    for(int i = 0; i < 2; i++) {
+      Map<String, Object> document = new HashMap<>();
+      document.put("source_field", "John (john@example.com) e-mailed jane@example.com last week.");
+
+      IngestDocument ingestDocument = new IngestDocument(document, Collections.emptyMap());
+      processor.execute(ingestDocument);
+
+      List<String> extracted = (List<String>) ingestDocument.getSourceAndMetadata().get("target_field");
+      assertThat(extracted, containsInAnyOrder("john@example.com", "jane@example.com"));
+    }
+
+    assertEquals(1, service.getResultCache().stats().getMisses());
+    assertEquals(1, service.getResultCache().stats().getHits());
+  }
+
+  @Test
+  public void testStats() throws Exception {
+    ExtractSettings settings = new ExtractSettings()
+        .withField("source_field")
+        .withProcessorName("io.annot8.components.cyber.processors.Email");
+
+    ExtractService service = new ExtractService(org.elasticsearch.common.settings.Settings.EMPTY);
+    ExtractProcessor processor = new ExtractProcessor("stats", settings, service);
+
+    Map<String, Object> document = new HashMap<>();
+    document.put("source_field", "John (john@example.com) e-mailed jane@example.com last week.");
+    processor.execute(new IngestDocument(document, Collections.emptyMap()));
+
+    ExtractStats.PipelineStats pipelineStats = processor.getStats();
+    assertEquals(1, pipelineStats.getCount());
+    assertEquals(0, pipelineStats.getFailed());
+
+    ExtractStats.ProcessorStats processorStats = pipelineStats.processor(Email.class);
+    assertEquals(1, processorStats.getCount());
+    assertEquals(2, processorStats.getEntities());
+    assertEquals(document.get("source_field").toString().length(), processorStats.getCharacters());
+  }
+
+  @Test
+  public void testChunking() throws Exception {
+    ExtractSettings settings = new ExtractSettings()
+        .withField("source_field")
+        .withTargetField("target_field")
+        .withChunkThreshold(100)
+        .withChunkSize(64)
+        .withChunkOverlap(24)
+        .withProcessorName("io.annot8.components.cyber.processors.Email");
+
+    ExtractService service = new ExtractService(org.elasticsearch.common.settings.Settings.EMPTY);
+    try {
+      ExtractProcessor processor = new ExtractProcessor("chunked", settings, service);
+
+      StringBuilder sb = new StringBuilder();
+      for(int i = 0; i < 20; i++)
+        sb.append("Message ").append(i).append(" was sent by user").append(i).append("@example.com today. ");
+
+      Map<String, Object> document = new HashMap<>();
+      document.put("source_field", sb.toString());
+      IngestDocument ingestDocument = new IngestDocument(document, Collections.emptyMap());
+      processor.execute(ingestDocument);
+
+      List<String> extracted = (List<String>) ingestDocument.getSourceAndMetadata().get("target_field");
+      assertEquals(20, extracted.size());
+      for(int i = 0; i < 20; i++)
+        assertThat(extracted, hasItem("user" + i + "@example.com"));
+
+      //Each chunk is processed as a separate item
+      assertThat(processor.getStats().processor(Email.class).getCount(), greaterThan(1L));
+    }finally {
+      service.close();
+    }
+  }
+
+  @Test
+  public void testChunkingPoolSize() throws Exception {
+    ExtractService service = new ExtractService(org.elasticsearch.common.settings.Settings.builder()
+        .put(ExtractService.CHUNK_THREADS_SETTING.getKey(), 3)
+        .build());
+    try {
+      ExtractProcessor whole = new ExtractProcessor("whole", new ExtractSettings()
+          .withField("source_field")
+          .withPoolSize(2), service);
+      assertEquals(2, whole.getPoolSize());
+
+      //Chunk threads also need instances, so the pool is sized for them as well
+      ExtractProcessor chunked = new ExtractProcessor("chunked", new ExtractSettings()
+          .withField("source_field")
+          .withPoolSize(2)
+          .withChunkThreshold(100), service);
+      assertEquals(5, chunked.getPoolSize());
+    }finally {
+      service.close();
+    }
+  }
+
+  @Test
+  public void testTimeout() throws Exception {
+    ExtractSettings settings = new ExtractSettings()
+        .withField("source_field")
+        .withTargetField("target_field")
+        .withTimeout(TimeValue.timeValueNanos(1))
+        .withProcessorName("io.annot8.components.cyber.processors.Email");
+
+    ExtractService service = new ExtractService(org.elasticsearch.common.settings.Settings.EMPTY);
+    ExtractProcessor processor = new ExtractProcessor("timeout", settings, service);
+
+    Map<String, Object> document = new HashMap<>();
+    document.put("source_field", "John (john@example.com) e-mailed jane@example.com last week.");
+    IngestDocument ingestDocument = new IngestDocument(document, Collections.emptyMap());
+    processor.execute(ingestDocument);
+
+    //Out of time before any processor could run, so the document is tagged with no entities
+    assertEquals(true, ingestDocument.getSourceAndMetadata().get(ExtractProcessor.TIMED_OUT_FIELD));
+    assertThat((List<String>) ingestDocument.getSourceAndMetadata().get("target_field"), empty());
+    assertEquals(1, processor.getStats().getTimedOut());
+
+    settings.withTimeoutPolicy(ExtractSettings.TimeoutPolicy.FAIL);
+    processor = new ExtractProcessor("timeout", settings, service);
+    try {
+      processor.execute(new IngestDocument(document, Collections.emptyMap()));
+      fail("Expected exception not thrown");
+    }catch (ElasticsearchTimeoutException ete){
+      //Expected exception, do nothing
+    }
+    assertEquals(1, processor.getStats().getTimedOut());
+    assertEquals(1, processor.getStats().getFailed());
+  }
+
+  @Test
+  public void testOverrun() throws Exception {
+    ExtractSettings settings = new ExtractSettings()
+        .withField("source_field")
+        .withTargetField("target_field")
+        .withTimeout(TimeValue.timeValueMillis(20))
+        .withProcessorName(SlowProcessor.class.getName());
+
+    ExtractService service = new ExtractService(org.elasticsearch.common.settings.Settings.EMPTY);
+    ExtractProcessor processor = new ExtractProcessor("overrun", settings, service);
+
+    Map<String, Object> document = new HashMap<>();
+    document.put("source_field", "Some text");
+    IngestDocument ingestDocument = new IngestDocument(document, Collections.emptyMap());
+    processor.execute(ingestDocument);
+
+    //The only processor ran, but overran the budget, so the document is still marked
+    assertEquals(true, ingestDocument.getSourceAndMetadata().get(ExtractProcessor.TIMED_OUT_FIELD));
+    assertEquals(1, processor.getStats().processor(SlowProcessor.class).getCount());
+    assertEquals(1, processor.getStats().getTimedOut());
+  }
+
+  @Test
+  public void testLazyInit() throws Exception {
+    ExtractSettings settings = new ExtractSettings()
+        .withField("source_field")
+        .withInit(ExtractSettings.InitPolicy.LAZY)
+        .withProcessorName("io.annot8.components.cyber.processors.Email");
+
+    ExtractService service = new ExtractService(org.elasticsearch.common.settings.Settings.EMPTY);
+    ExtractProcessor processor = new ExtractProcessor("lazy", settings, service);
+
+    //No processors are created until the first document is processed
+    assertEquals(0, service.getProcessorRegistry().size());
+    assertEquals(-1, processor.getStats().getInitNanos());
+
+    Map<String, Object> document = new HashMap<>();
+    document.put("source_field", "John (john@example.com) e-mailed jane@example.com last week.");
+    IngestDocument ingestDocument = new IngestDocument(document, Collections.emptyMap());
+    processor.execute(ingestDocument);
+
+    assertThat((List<String>) ingestDocument.getSourceAndMetadata().get(ExtractSettings.DEFAULT_TARGET_FIELD),
+        containsInAnyOrder("john@example.com", "jane@example.com"));
+    assertEquals(1, service.getProcessorRegistry().size());
+    assertTrue(processor.getStats().getInitNanos() >= 0);
+
+    try {
+      new ExtractProcessor("lazy", settings.withWarmup(1), service);
+      fail("Expected exception not thrown");
+    }catch (IllegalArgumentException iae){
+      //Expected exception, do nothing
+    }
+  }
+
+  @Test
+  public void testWarmup() throws Exception {
+    ExtractSettings settings = new ExtractSettings()
+        .withField("source_field")
+        .withWarmup(3)
+        .withWarmupTexts(Collections.singletonList("Contact john@example.com"))
+        .withProcessorName("io.annot8.components.cyber.processors.Email");
+
+    ExtractService service = new ExtractService(org.elasticsearch.common.settings.Settings.EMPTY);
+    ExtractProcessor processor = new ExtractProcessor("warmup", settings, service);
+
+    //Warmup is timed, but isn't included in the statistics or the cache
+    PipelineStats stats = processor.getStats();
+    assertTrue(stats.getInitNanos() >= 0);
+    assertTrue(stats.getWarmupNanos() > 0);
+    assertEquals(0, stats.getCount());
+    assertEquals(0, stats.processor(Email.class).getCount());
+    assertEquals(0, service.getResultCache().count());
+  }
+
+  @Test
+  public void testFingerprintField() throws Exception {
+    ExtractSettings settings = new ExtractSettings()
+        .withField("source_field")
+        .withFingerprintField("fingerprint")
+        .withCache(false)
+        .withProcessorName("io.annot8.components.cyber.processors.Email");
+
+    ExtractService service = new ExtractService(org.elasticsearch.common.settings.Settings.EMPTY);
+    ExtractProcessor processor = new ExtractProcessor("fingerprint", settings, service);
+
+    Map<String, Object> document = new HashMap<>();
+    document.put("source_field", "John (john@example.com) e-mailed jane@example.com last week.");
+    IngestDocument ingestDocument = new IngestDocument(document, Collections.emptyMap());
+    processor.execute(ingestDocument);
+
+    String fingerprint = (String) ingestDocument.getSourceAndMetadata().get("fingerprint");
+    assertThat(fingerprint, not(isEmptyOrNullString()));
+    assertEquals(0, processor.getStats().getSkipped());
+
+    //Reprocessing the unchanged document keeps the existing entities
+    document = new HashMap<>(ingestDocument.getSourceAndMetadata());
+    document.put(ExtractSettings.DEFAULT_TARGET_FIELD, Collections.singletonList("kept@example.com"));
+    ingestDocument = new IngestDocument(document, Collections.emptyMap());
+    processor.execute(ingestDocument);
+
+    assertThat((List<String>) ingestDocument.getSourceAndMetadata().get(ExtractSettings.DEFAULT_TARGET_FIELD), contains("kept@example.com"));
+    assertEquals(1, processor.getStats().getSkipped());
+
+    //Changing the text causes the document to be processed again
+    document.put("source_field", "Contact bob@example.com");
+    ingestDocument = new IngestDocument(document, Collections.emptyMap());
+    processor.execute(ingestDocument);
+
+    assertThat((List<String>) ingestDocument.getSourceAndMetadata().get(ExtractSettings.DEFAULT_TARGET_FIELD), contains("bob@example.com"));
+    assertNotEquals(fingerprint, ingestDocument.getSourceAndMetadata().get("fingerprint"));
+    assertEquals(1, processor.getStats().getSkipped());
+  }
+
+  @Test
+  public void testIdsField() throws Exception {
+    ExtractSettings settings = new ExtractSettings()
+        .withField("source_field")
+        .withIdsField("extracted_ids");
+
+    ExtractProcessor processor = new ExtractProcessor("ids", settings);
+
+    Map<String, Object> document = new HashMap<>();
+    document.put("source_field", "John (john@example.com) e-mailed jane@example.com last week.");
+    IngestDocument ingestDocument = new IngestDocument(document, Collections.emptyMap());
+    processor.execute(ingestDocument);
+
+    assertThat((List<Long>) ingestDocument.getSourceAndMetadata().get("extracted_ids"),
+        containsInAnyOrder(Fingerprints.entity("john@example.com"), Fingerprints.entity("jane@example.com")));
+  }
+
+  @Test
+  public void testFieldRouting() throws Exception {
+    ExtractSettings settings = new ExtractSettings()
+        .withFields(Arrays.asList("to", "body"))
+        .withProcessorSettingsPair(new ProcessorSettingsPair(Email.class, EmptySettings.getInstance(), null, null,
+            FieldFilter.parse(Collections.singletonList("to"))))
+        .withProcessorSettingsPair(new ProcessorSettingsPair(Url.class, EmptySettings.getInstance(), null, null,
+            FieldFilter.parse(Collections.singletonList("body"))));
+
+    ExtractService service = new ExtractService(org.elasticsearch.common.settings.Settings.EMPTY);
+    ExtractProcessor processor = new ExtractProcessor("routing", settings, service);
+
+    Map<String, Object> document = new HashMap<>();
+    document.put("to", "john@example.com, http://www.example.com");
+    document.put("body", "Contact jane@example.com or see http://www.example.org");
+    IngestDocument ingestDocument = new IngestDocument(document, Collections.emptyMap());
+    processor.execute(ingestDocument);
+
+    //Each processor only sees the field routed to it
+    assertThat((List<String>) ingestDocument.getSourceAndMetadata().get(ExtractSettings.DEFAULT_TARGET_FIELD),
+        containsInAnyOrder("john@example.com", "http://www.example.org"));
+    assertEquals(1, processor.getStats().processor(Email.class).getCount());
+    assertEquals(1, processor.getStats().processor(Url.class).getCount());
+  }
+
+  @Test
+  public void testParallelProcessors() throws Exception {
+    ExtractSettings settings = new ExtractSettings()
+        .withField("source_field")
+        .withParallelProcessors(true)
+        .withProcessorName("io.annot8.components.cyber.processors.Email")
+        .withProcessorName("io.annot8.components.cyber.processors.Url");
+
+    ExtractService service = new ExtractService(org.elasticsearch.common.settings.Settings.EMPTY);
+    try {
+      ExtractProcessor processor = new ExtractProcessor("parallel", settings, service);
+
+      Map<String, Object> document = new HashMap<>();
+      document.put("source_field", "Contact jane@example.com or see http://www.example.org");
+      IngestDocument ingestDocument = new IngestDocument(document, Collections.emptyMap());
+      processor.execute(ingestDocument);
+
+      //The entities extracted by each processor are merged
+      assertThat((List<String>) ingestDocument.getSourceAndMetadata().get(ExtractSettings.DEFAULT_TARGET_FIELD),
+          containsInAnyOrder("jane@example.com", "http://www.example.org"));
+      assertEquals(1, processor.getStats().processor(Email.class).getCount());
+      assertEquals(1, processor.getStats().processor(Url.class).getCount());
+    }finally {
+      service.close();
+    }
+  }
+
+  @Test
+  public void testTypedOutput() throws Exception {
+    ExtractSettings settings = new ExtractSettings()
+        .withField("source_field")
+        .withOutput(ExtractSettings.OutputMode.TYPED)
+        .withOutputCounts(true)
+        .withOutputOffsets(true)
+        .withProcessorName("io.annot8.components.cyber.processors.Email")
+        .withProcessorName("io.annot8.components.cyber.processors.Url");
+
+    ExtractProcessor processor = new ExtractProcessor("typed", settings);
+
+    Map<String, Object> document = new HashMap<>();
+    document.put("source_field", "Contact jane@example.com or see http://www.example.org, or jane@example.com");
+    IngestDocument ingestDocument = new IngestDocument(document, Collections.emptyMap());
+    processor.execute(ingestDocument);
+
+    Map<String, Object> extracted = (Map<String, Object>) ingestDocument.getSourceAndMetadata().get(ExtractSettings.DEFAULT_TARGET_FIELD);
+    assertEquals(2, extracted.size());
+
+    List<Map<String, Object>> emails = (List<Map<String, Object>>) extracted.get("email");
+    assertEquals(1, emails.size());
+    assertEquals("jane@example.com", emails.get(0).get("value"));
+    assertEquals(2, emails.get(0).get("count"));
+
+    Map<String, Object> offset = ((List<Map<String, Object>>) emails.get(0).get("offsets")).get(0);
+    assertEquals("source_field", offset.get("field"));
+    assertEquals(8, offset.get("start"));
+    assertEquals(24, offset.get("end"));
+  }
+
+  @Test
+  public void testPreprocessing() throws Exception {
+    ExtractSettings settings = new ExtractSettings()
+        .withField("source_field")
+        .withOutput(ExtractSettings.OutputMode.TYPED)
+        .withOutputOffsets(true)
+        .withPreprocessing(Arrays.asList(ExtractSettings.Preprocessing.DEOBFUSCATE, ExtractSettings.Preprocessing.LOWERCASE));
+
+    ExtractProcessor processor = new ExtractProcessor("preprocess", settings);
+
+    Map<String, Object> document = new HashMap<>();
+    document.put("source_field", "Contact JANE [at] Example[dot]com today");
+    IngestDocument ingestDocument = new IngestDocument(document, Collections.emptyMap());
+    processor.execute(ingestDocument);
+
+    Map<String, Object> extracted = (Map<String, Object>) ingestDocument.getSourceAndMetadata().get(ExtractSettings.DEFAULT_TARGET_FIELD);
+    List<Map<String, Object>> emails = (List<Map<String, Object>>) extracted.get("email");
+    assertEquals(1, emails.size());
+    assertEquals("jane@example.com", emails.get(0).get("value"));
+
+    //Offsets are relative to the original text
+    Map<String, Object> offset = ((List<Map<String, Object>>) emails.get(0).get("offsets")).get(0);
+    assertEquals(8, offset.get("start"));
+    assertEquals(33, offset.get("end"));
+
+    //The source isn't changed
+    assertEquals("Contact JANE [at] Example[dot]com today", ingestDocument.getSourceAndMetadata().get("source_field"));
+  }
+
+  @Test
+  public void testPreprocessingConfig() throws Exception {
+    Map<String, Object> config = new HashMap<>();
+    config.put(ExtractProcessor.CONFIG_FIELDS, Collections.singletonList("source_field"));
+    config.put(ExtractProcessor.CONFIG_PREPROCESS, Arrays.asList("strip_html", "lowercase"));
+
+    ExtractProcessor.Factory factory = new ExtractProcessor.Factory();
+    factory.create(Collections.emptyMap(), "preprocess", config);
+
+    config = new HashMap<>();
+    config.put(ExtractProcessor.CONFIG_FIELDS, Collections.singletonList("source_field"));
+    config.put(ExtractProcessor.CONFIG_PREPROCESS, Collections.singletonList("uppercase"));
+
+    try{
+      factory.create(Collections.emptyMap(), "preprocess", config);
+      fail("Expected exception not thrown");
+    }catch (IllegalArgumentException iae){
+      //Expected exception, do nothing
+    }
+  }
+
+  @Test
+  public void testMaxEntities() throws Exception {
+    ExtractSettings settings = new ExtractSettings()
+        .withField("source_field")
+        .withMaxEntities(2);
+
+    ExtractProcessor processor = new ExtractProcessor("max", settings);
+
+    Map<String, Object> document = new HashMap<>();
+    document.put("source_field", "a@example.com, b@example.com, c@example.com");
+    IngestDocument ingestDocument = new IngestDocument(document, Collections.emptyMap());
+    processor.execute(ingestDocument);
+
+    assertThat((List<String>) ingestDocument.getSourceAndMetadata().get(ExtractSettings.DEFAULT_TARGET_FIELD),
+        contains("a@example.com", "b@example.com"));
+    assertEquals(true, ingestDocument.getSourceAndMetadata().get(ExtractProcessor.TRUNCATED_FIELD));
+  }
+
+  @Test
+  public void testNestedFields() throws Exception {
+    ExtractSettings settings = new ExtractSettings()
+        .withField("messages.body")
+        .withField("to")
+        .withTargetField("target_field")
+        .withProcessorName("io.annot8.components.cyber.processors.Email");
+
+    ExtractProcessor processor = new ExtractProcessor("abcdefghij", settings);
+
+    Map<String, Object> message1 = new HashMap<>();
+    message1.put("body", "Contact john@example.com");
+    Map<String, Object> message2 = new HashMap<>();
+    message2.put("body", "Contact jane@example.com");
+
+    Map<String, Object> document = new HashMap<>();
+    document.put("messages", Arrays.asList(message1, message2));
+    document.put("to", Arrays.asList("mary@example.com", 123));
+
+    IngestDocument ingestDocument = new IngestDocument(document, Collections.emptyMap());
+    processor.execute(ingestDocument);
+
+    List<String> extracted = (List<String>) ingestDocument.getSourceAndMetadata().get("target_field");
+    assertThat(extracted, containsInAnyOrder("john@example.com", "jane@example.com", "mary@example.com"));
+  }
+
+  @Test
+  public void testAllFields() throws Exception {
+    ExtractSettings settings = new ExtractSettings()
+        .withAllFields()
+        .withProcessorName("io.annot8.components.cyber.processors.Email");
+
+    ExtractProcessor processor = new ExtractProcessor("abcdefghij", settings);
+
+    Map<String, Object> header = new HashMap<>();
+    header.put("from", "john@example.com");
+
+    Map<String, Object> document = new HashMap<>();
+    document.put("header", header);
+    document.put("size", 42);
+    document.put("body", "Sent to jane@example.com");
+
+    IngestDocument ingestDocument = new IngestDocument(document, Collections.emptyMap());
+    processor.execute(ingestDocument);
+
+    List<String> extracted = (List<String>) ingestDocument.getSourceAndMetadata().get(ExtractSettings.DEFAULT_TARGET_FIELD);
+    assertThat(extracted, containsInAnyOrder("john@example.com", "jane@example.com"));
+
+    //Processing the document again doesn't fail on the (non-text) target field
+    processor.execute(ingestDocument);
+    extracted = (List<String>) ingestDocument.getSourceAndMetadata().get(ExtractSettings.DEFAULT_TARGET_FIELD);
+    assertThat(extracted, containsInAnyOrder("john@example.com", "jane@example.com"));
+  }
+
+  /**
+   * Processor which takes longer than the timeout used by {@link #testOverrun()}
+   */
+  public static class SlowProcessor implements Processor {
+    @Override
+    public ProcessorResponse process(Item item) {
+      try {
+        Thread.sleep(100);
+      }catch (InterruptedException e){
+        Thread.currentThread().interrupt();
+      }
+
+      return ProcessorResponse.ok();
+    }
+  }
 }
@@ -0,0 +1,99 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.junit.Test;
+
+public class ExtractProfilerTest {
+
+  private static ExtractProcessor createProcessor(ExtractService service) throws Exception {
+    Map<String, Object> config = new HashMap<>();
+    config.put(ExtractProcessor.CONFIG_PROCESS_ALL_FIELDS, true);
+    config.put(ExtractProcessor.CONFIG_PROCESSORS, Collections.singletonList(
+        Collections.singletonMap("class", "io.annot8.components.cyber.processors.Email")));
+
+    return new ExtractProcessor.Factory(service).create(Collections.emptyMap(), "profile", config);
+  }
+
+  @Test
+  public void testProfile() throws Exception {
+    ExtractService service = new ExtractService(Settings.EMPTY);
+    ExtractProcessor processor = createProcessor(service);
+    ExtractProfiler profiler = new ExtractProfiler(processor, 2, 2);
+
+    StringBuilder corpus = new StringBuilder();
+    for(int i = 0; i < 20; i++)
+      corpus.append("{\"text\": \"Contact user").append(i).append("@example.com\"}\n");
+    corpus.append("\n");
+    corpus.append("not json\n");
+
+    ExtractProfiler.Result result = profiler.profile(new BufferedReader(new StringReader(corpus.toString())));
+
+    assertEquals(20, result.getDocuments());
+    assertEquals(0, result.getFailed());
+    assertEquals(1, result.getInvalid());
+    assertEquals(2, result.getSlowest().size());
+    assertTrue(result.getSlowest().get(0) <= 20);
+
+    assertEquals(20, processor.getStats().getCount());
+
+    XContentBuilder builder = XContentFactory.jsonBuilder();
+    builder.startObject();
+    result.toXContent(builder, ToXContent.EMPTY_PARAMS);
+    builder.endObject();
+  }
+
+  @Test
+  public void testEmptyCorpus() throws Exception {
+    ExtractProfiler.Result result = new ExtractProfiler(null, 1, 2).profile(new BufferedReader(new StringReader("")));
+    assertEquals(0, result.getDocuments());
+    assertTrue(result.getSlowest().isEmpty());
+  }
+
+  @Test
+  public void testBadThreads() throws Exception {
+    try {
+      new ExtractProfiler(null, 0, 10);
+      fail("Expected exception not thrown");
+    }catch (IllegalArgumentException iae){
+      //Expected exception, do nothing
+    }
+  }
+
+  @Test
+  public void testBadSlowest() throws Exception {
+    try {
+      new ExtractProfiler(null, 1, -1);
+      fail("Expected exception not thrown");
+    }catch (IllegalArgumentException iae){
+      //Expected exception, do nothing
+    }
+  }
+}
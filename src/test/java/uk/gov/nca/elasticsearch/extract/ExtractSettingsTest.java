@@ -19,6 +19,7 @@ package uk.gov.nca.elasticsearch.extract;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -28,9 +29,14 @@ import io.annot8.components.cyber.processors.IPv4;
 import io.annot8.components.cyber.processors.IPv6;
 import io.annot8.components.cyber.processors.Url;
 import io.annot8.core.settings.EmptySettings;
+import io.annot8.core.settings.Settings;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.regex.Pattern;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.SlowLogLevel;
 import org.junit.Test;
 import uk.gov.nca.elasticsearch.extract.ExtractSettings.ProcessorSettingsPair;
 
@@ -71,6 +77,169 @@ public class ExtractSettingsTest {
     assertEquals("target", settings.getTargetField());
   }
 
+  @Test
+  public void testPoolSize(){
+    ExtractSettings settings = new ExtractSettings();
+
+    assertEquals(ExtractSettings.DEFAULT_POOL_SIZE, settings.getPoolSize());
+    settings.withPoolSize(4);
+    assertEquals(4, settings.getPoolSize());
+
+    try{
+      settings.withPoolSize(0);
+      fail("Expected exception not thrown");
+    }catch (IllegalArgumentException iae){
+      //Expected exception, do nothing
+    }
+    assertEquals(4, settings.getPoolSize());
+  }
+
+  @Test
+  public void testChunking(){
+    ExtractSettings settings = new ExtractSettings();
+
+    assertEquals(ExtractSettings.DEFAULT_CHUNK_THRESHOLD, settings.getChunkThreshold());
+    assertEquals(ExtractSettings.DEFAULT_CHUNK_SIZE, settings.getChunkSize());
+    assertEquals(ExtractSettings.DEFAULT_CHUNK_OVERLAP, settings.getChunkOverlap());
+
+    settings.withChunkThreshold(1000).withChunkSize(500).withChunkOverlap(50);
+    assertEquals(1000, settings.getChunkThreshold());
+    assertEquals(500, settings.getChunkSize());
+    assertEquals(50, settings.getChunkOverlap());
+
+    try{
+      settings.withChunkSize(0);
+      fail("Expected exception not thrown");
+    }catch (IllegalArgumentException iae){
+      //Expected exception, do nothing
+    }
+    assertEquals(500, settings.getChunkSize());
+  }
+
+  @Test
+  public void testParallelProcessors(){
+    ExtractSettings settings = new ExtractSettings();
+    assertEquals(ExtractSettings.DEFAULT_PARALLEL_PROCESSORS, settings.isParallelProcessors());
+
+    settings.withParallelProcessors(true);
+    assertTrue(settings.isParallelProcessors());
+
+    settings.withParallelProcessors(false);
+    assertFalse(settings.isParallelProcessors());
+  }
+
+  @Test
+  public void testOutput(){
+    ExtractSettings settings = new ExtractSettings();
+    assertEquals(ExtractSettings.DEFAULT_OUTPUT, settings.getOutput());
+    assertEquals(ExtractSettings.DEFAULT_OUTPUT_COUNTS, settings.isOutputCounts());
+    assertEquals(ExtractSettings.DEFAULT_OUTPUT_OFFSETS, settings.isOutputOffsets());
+    assertEquals(ExtractSettings.DEFAULT_MAX_ENTITIES, settings.getMaxEntities());
+
+    settings.withOutput(ExtractSettings.OutputMode.TYPED)
+        .withOutputCounts(true)
+        .withOutputOffsets(true)
+        .withMaxEntities(100);
+    assertEquals(ExtractSettings.OutputMode.TYPED, settings.getOutput());
+    assertTrue(settings.isOutputCounts());
+    assertTrue(settings.isOutputOffsets());
+    assertEquals(100, settings.getMaxEntities());
+
+    try{
+      settings.withMaxEntities(-1);
+      fail("Expected exception not thrown");
+    }catch (IllegalArgumentException iae){
+      //Expected exception, do nothing
+    }
+    assertEquals(100, settings.getMaxEntities());
+  }
+
+  @Test
+  public void testPreprocessing(){
+    ExtractSettings settings = new ExtractSettings();
+    assertTrue(settings.getPreprocessing().isEmpty());
+
+    settings.withPreprocessing(Arrays.asList(ExtractSettings.Preprocessing.LOWERCASE, ExtractSettings.Preprocessing.DEOBFUSCATE));
+    assertEquals(Arrays.asList(ExtractSettings.Preprocessing.DEOBFUSCATE, ExtractSettings.Preprocessing.LOWERCASE),
+        new ArrayList<>(settings.getPreprocessing()));
+
+    try{
+      settings.withPreprocessing(Collections.singletonList(null));
+      fail("Expected exception not thrown");
+    }catch (IllegalArgumentException iae){
+      //Expected exception, do nothing
+    }
+  }
+
+  @Test
+  public void testIdsField(){
+    ExtractSettings settings = new ExtractSettings();
+    assertEquals(ExtractSettings.DEFAULT_IDS_FIELD, settings.getIdsField());
+
+    settings.withIdsField("extracted_ids");
+    assertEquals("extracted_ids", settings.getIdsField());
+  }
+
+  @Test
+  public void testTimeout(){
+    ExtractSettings settings = new ExtractSettings();
+
+    assertEquals(ExtractSettings.DEFAULT_TIMEOUT, settings.getTimeout());
+    assertEquals(ExtractSettings.DEFAULT_TIMEOUT_POLICY, settings.getTimeoutPolicy());
+
+    settings.withTimeout(TimeValue.timeValueMillis(500)).withTimeoutPolicy(ExtractSettings.TimeoutPolicy.FAIL);
+    assertEquals(TimeValue.timeValueMillis(500), settings.getTimeout());
+    assertEquals(ExtractSettings.TimeoutPolicy.FAIL, settings.getTimeoutPolicy());
+
+    try{
+      settings.withTimeout(TimeValue.MINUS_ONE);
+      fail("Expected exception not thrown");
+    }catch (IllegalArgumentException iae){
+      //Expected exception, do nothing
+    }
+  }
+
+  @Test
+  public void testInit(){
+    ExtractSettings settings = new ExtractSettings();
+
+    assertEquals(ExtractSettings.DEFAULT_INIT, settings.getInit());
+    assertEquals(ExtractSettings.DEFAULT_WARMUP, settings.getWarmup());
+    assertTrue(settings.getWarmupTexts().isEmpty());
+
+    settings.withInit(ExtractSettings.InitPolicy.LAZY).withWarmup(5).withWarmupTexts(Arrays.asList("Hello", "World"));
+    assertEquals(ExtractSettings.InitPolicy.LAZY, settings.getInit());
+    assertEquals(5, settings.getWarmup());
+    assertEquals(Arrays.asList("Hello", "World"), settings.getWarmupTexts());
+
+    try{
+      settings.withWarmup(-1);
+      fail("Expected exception not thrown");
+    }catch (IllegalArgumentException iae){
+      //Expected exception, do nothing
+    }
+  }
+
+  @Test
+  public void testSlowLog(){
+    ExtractSettings settings = new ExtractSettings();
+
+    assertTrue(settings.getSlowLogThresholds().isEmpty());
+    assertTrue(settings.getProcessorSlowLogThresholds().isEmpty());
+
+    settings.withSlowLogThreshold(SlowLogLevel.WARN, TimeValue.timeValueSeconds(1))
+        .withProcessorSlowLogThreshold(SlowLogLevel.INFO, TimeValue.timeValueMillis(500));
+    assertEquals(TimeValue.timeValueSeconds(1), settings.getSlowLogThresholds().get(SlowLogLevel.WARN));
+    assertEquals(TimeValue.timeValueMillis(500), settings.getProcessorSlowLogThresholds().get(SlowLogLevel.INFO));
+
+    try{
+      settings.withSlowLogThreshold(SlowLogLevel.WARN, null);
+      fail("Expected exception not thrown");
+    }catch (IllegalArgumentException iae){
+      //Expected exception, do nothing
+    }
+  }
+
   @Test
   public void testProcessors(){
     ExtractSettings settings = new ExtractSettings();
@@ -148,6 +317,33 @@ public class ExtractSettingsTest {
     assertEquals(psp1, psp2);
     assertNotEquals(psp1, psp3);
     assertNotEquals(psp1, "Hello world");
+
+    //Equal pairs must have equal hash codes, so they can be used as keys
+    assertEquals(psp1.hashCode(), psp2.hashCode());
+
+    //Triggers don't affect equality
+    ProcessorSettingsPair psp4 = new ProcessorSettingsPair(IPv4.class, EmptySettings.getInstance(), Arrays.asList("."));
+    assertEquals(psp1, psp4);
+    assertEquals(psp1.hashCode(), psp4.hashCode());
+
+    //Settings which can't be serialised are never equal to settings which can, whichever way
+    //round they are compared
+    Settings unserialisable = new Settings() {
+      @Override
+      public boolean equals(Object obj) {
+        return true;
+      }
+
+      @Override
+      public int hashCode() {
+        return 0;
+      }
+    };
+    ProcessorSettingsPair psp5 = new ProcessorSettingsPair(IPv4.class, unserialisable);
+    assertNull(psp5.getSettingsFingerprint());
+    assertNotEquals(psp1, psp5);
+    assertNotEquals(psp5, psp1);
+    assertEquals(psp5, new ProcessorSettingsPair(IPv4.class, unserialisable));
   }
 
 }
@@ -0,0 +1,87 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.SlowLogLevel;
+import org.elasticsearch.ingest.IngestDocument;
+import org.junit.Test;
+
+public class ExtractSlowLogTest {
+
+  private static ExtractSlowLog createSlowLog(){
+    Map<SlowLogLevel, TimeValue> document = new EnumMap<>(SlowLogLevel.class);
+    document.put(SlowLogLevel.WARN, TimeValue.timeValueSeconds(10));
+    document.put(SlowLogLevel.INFO, TimeValue.timeValueSeconds(5));
+    document.put(SlowLogLevel.DEBUG, TimeValue.MINUS_ONE);
+
+    Map<SlowLogLevel, TimeValue> processor = new EnumMap<>(SlowLogLevel.class);
+    processor.put(SlowLogLevel.DEBUG, TimeValue.timeValueSeconds(1));
+
+    return new ExtractSlowLog("tag", Arrays.asList("First", "Second"), document, processor);
+  }
+
+  @Test
+  public void testLevel(){
+    ExtractSlowLog slowLog = createSlowLog();
+
+    TimeBudget budget = new TimeBudget(System.nanoTime(), 0, null, 2);
+    assertNull(slowLog.level(TimeUnit.SECONDS.toNanos(2), budget));
+    assertEquals(SlowLogLevel.INFO, slowLog.level(TimeUnit.SECONDS.toNanos(6), budget));
+    assertEquals(SlowLogLevel.WARN, slowLog.level(TimeUnit.SECONDS.toNanos(11), budget));
+
+    //A single slow processor is enough to log the document
+    budget.record(1, TimeUnit.SECONDS.toNanos(2));
+    assertEquals(SlowLogLevel.DEBUG, slowLog.level(TimeUnit.SECONDS.toNanos(2), budget));
+    assertEquals(SlowLogLevel.INFO, slowLog.level(TimeUnit.SECONDS.toNanos(6), budget));
+  }
+
+  @Test
+  public void testLog(){
+    ExtractSlowLog slowLog = createSlowLog();
+
+    Map<String, Object> source = new HashMap<>();
+    source.put("_id", "1");
+    source.put("body", "Contact john@example.com");
+    IngestDocument ingestDocument = new IngestDocument(source, Collections.emptyMap());
+
+    TimeBudget budget = new TimeBudget(System.nanoTime(), 0, null, 2);
+    budget.record(0, TimeUnit.SECONDS.toNanos(2));
+
+    slowLog.log(SlowLogLevel.WARN, ingestDocument, TimeUnit.SECONDS.toNanos(11), budget,
+        Collections.singletonMap("body", "Contact john@example.com"), 1, true);
+
+    //Logging must not change the document
+    assertEquals("1", ingestDocument.getSourceAndMetadata().get("_id"));
+  }
+
+  @Test
+  public void testDisabled(){
+    assertNull(ExtractSlowLog.forSettings("tag", new ExtractSettings(), Collections.emptyList()));
+    assertNull(ExtractSlowLog.forSettings("tag",
+        new ExtractSettings().withSlowLogThreshold(SlowLogLevel.WARN, TimeValue.MINUS_ONE), Collections.emptyList()));
+  }
+}
@@ -0,0 +1,126 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import io.annot8.components.cyber.processors.Email;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import org.elasticsearch.common.Strings;
+import org.elasticsearch.common.xcontent.ToXContent;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.junit.Test;
+import uk.gov.nca.elasticsearch.extract.ExtractStats.PipelineStats;
+import uk.gov.nca.elasticsearch.extract.ExtractStats.ProcessorStats;
+
+public class ExtractStatsTest {
+
+  @Test
+  public void testRecord(){
+    ExtractStats stats = new ExtractStats();
+
+    PipelineStats pipeline = stats.pipeline("pipeline", "tag");
+    assertSame(pipeline, stats.pipeline("pipeline", "tag"));
+    assertSame(stats.pipeline("pipeline", null), stats.pipeline("pipeline", ExtractStats.UNTAGGED));
+
+    //Processors with the same tag in different pipelines are kept apart
+    assertNotSame(pipeline, stats.pipeline("other", "tag"));
+
+    pipeline.record(1000, true);
+    pipeline.record(3000, false);
+    assertEquals(2, pipeline.getCount());
+    assertEquals(1, pipeline.getFailed());
+    assertEquals(0, pipeline.getTimedOut());
+
+    pipeline.recordTimeout();
+    assertEquals(1, pipeline.getTimedOut());
+    assertEquals(4000, pipeline.getNanos());
+    assertTrue(pipeline.getPercentile(100.0) >= 3000);
+
+    ProcessorStats processor = pipeline.processor(Email.class);
+    assertSame(processor, pipeline.processor(Email.class));
+
+    processor.record(500, true);
+    processor.recordOutput(100, 2);
+    processor.recordOutput(50, 1);
+    assertEquals(1, processor.getCount());
+    assertEquals(150, processor.getCharacters());
+    assertEquals(3, processor.getEntities());
+  }
+
+  @Test
+  public void testToXContent() throws Exception {
+    ExtractStats stats = new ExtractStats();
+    stats.pipeline("pipeline", "tag").processor(Email.class).record(500, true);
+
+    XContentBuilder builder = XContentFactory.jsonBuilder();
+    builder.startObject();
+    stats.toXContent(builder, ToXContent.EMPTY_PARAMS);
+    builder.endObject();
+
+    String json = Strings.toString(builder);
+    assertThat(json, containsString("\"pipeline\":{\"tag\""));
+    assertThat(json, containsString("\"bulk\""));
+    assertThat(json, containsString("\"io.annot8.components.cyber.processors.Email\""));
+    assertThat(json, containsString("\"latency_in_micros\""));
+    assertThat(json, containsString("\"timed_out\""));
+    assertThat(json, containsString("\"initialised\":false"));
+    assertThat(json, containsString("\"skipped\""));
+    assertThat(json, containsString("\"truncated\""));
+  }
+
+  @Test
+  public void testInit(){
+    ExtractStats.PipelineStats stats = new ExtractStats().pipeline("pipeline", "tag");
+    assertEquals(-1, stats.getInitNanos());
+
+    stats.recordInit(1000);
+    stats.recordWarmup(2000);
+    assertEquals(1000, stats.getInitNanos());
+    assertEquals(2000, stats.getWarmupNanos());
+
+    stats.resetInit();
+    assertEquals(-1, stats.getInitNanos());
+    assertEquals(0, stats.getWarmupNanos());
+  }
+
+  @Test
+  public void testRetain(){
+    ExtractStats stats = new ExtractStats();
+    PipelineStats firstA = stats.pipeline("first", "a");
+    PipelineStats firstB = stats.pipeline("first", "b");
+    PipelineStats secondA = stats.pipeline("second", "a");
+
+    Map<String, Set<String>> keep = new HashMap<>();
+    keep.put("first", Collections.singleton("a"));
+    stats.retain(keep);
+
+    //Retained statistics are kept, and the rest are removed
+    assertSame(firstA, stats.pipeline("first", "a"));
+    assertNotSame(firstB, stats.pipeline("first", "b"));
+    assertNotSame(secondA, stats.pipeline("second", "a"));
+  }
+}
@@ -0,0 +1,466 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertAcked;
+import static org.elasticsearch.test.hamcrest.ElasticsearchAssertions.assertHitCount;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.Version;
+import org.elasticsearch.action.admin.cluster.node.stats.NodeStats;
+import org.elasticsearch.action.admin.cluster.node.stats.NodesStatsResponse;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.util.concurrent.EsRejectedExecutionException;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.ingest.IngestStats;
+import org.elasticsearch.plugins.Plugin;
+import org.elasticsearch.test.ESIntegTestCase;
+import org.elasticsearch.test.ESIntegTestCase.ClusterScope;
+import org.elasticsearch.test.ESIntegTestCase.Scope;
+import org.elasticsearch.threadpool.ThreadPool;
+import org.elasticsearch.threadpool.ThreadPoolStats;
+import org.junit.AfterClass;
+
+/**
+ * Throughput suite which runs the extract processor inside a real (in-JVM) Elasticsearch node,
+ * pushing large generated bulk requests through pipelines with realistic mixes of processors.
+ *
+ * Bulk requests are sent by several concurrent clients, so that the write thread pool (on which
+ * ingest pipelines run) is saturated. For each mix, the documents indexed per second, the latency
+ * of each bulk request that wasn't rejected, the number of requests rejected by the write thread
+ * pool, the ingest statistics of the timed bulk requests, and the heap used are recorded.
+ * Rejected requests return almost immediately, so they are only counted and their latencies are
+ * left out of the percentiles. The results of all mixes are written as JSON to the file given by the
+ * `tests.throughput.report` system property (by default `target/throughput-report.json`), so
+ * that they can be compared between runs.
+ *
+ * The suite is slow, so it isn't run by `mvn test`; run it with `mvn verify -P throughput`. The
+ * size of the run can be changed with the `tests.throughput.bulks`,
+ * `tests.throughput.bulk_size`, `tests.throughput.field_size` and `tests.throughput.clients`
+ * system properties.
+ */
+@ClusterScope(scope = Scope.SUITE, numDataNodes = 1, numClientNodes = 0, supportsDedicatedMasters = false)
+public class ExtractThroughputIT extends ESIntegTestCase {
+
+  private static final int BULKS = Integer.getInteger("tests.throughput.bulks", 20);
+  private static final int BULK_SIZE = Integer.getInteger("tests.throughput.bulk_size", 500);
+  private static final int FIELD_SIZE = Integer.getInteger("tests.throughput.field_size", 2048);
+  private static final int CLIENTS = Integer.getInteger("tests.throughput.clients", 2 * Runtime.getRuntime().availableProcessors());
+  private static final int WARMUP_BULKS = 2;
+
+  /**
+   * Interval at which the heap used is sampled during each run
+   */
+  private static final long HEAP_SAMPLE_MILLIS = 250;
+
+  private static final List<String> FIELDS = Arrays.asList("subject", "body", "attachment");
+
+  private static final String[] WORDS = {
+      "the", "report", "was", "sent", "by", "our", "analyst", "after", "reviewing", "logs",
+      "from", "server", "meeting", "at", "office", "with", "contact", "regarding", "transfer",
+      "of", "funds", "and", "messages", "were", "exchanged", "over", "several", "days"
+  };
+
+  /**
+   * Roughly one word in this many is replaced by an entity
+   */
+  private static final int ENTITY_RATE = 40;
+
+  private static final Map<String, Map<String, Object>> results = Collections.synchronizedMap(new TreeMap<>());
+
+  @Override
+  protected Collection<Class<? extends Plugin>> nodePlugins() {
+    return Collections.singletonList(ExtractPlugin.class);
+  }
+
+  public void testEmail() throws Exception {
+    run("email", pipeline(false, processor("io.annot8.components.cyber.processors.Email")));
+  }
+
+  public void testCyber() throws Exception {
+    Map<String, Object> epoch = processor("io.annot8.components.cyber.processors.EpochTime");
+    epoch.put("settings", Collections.singletonMap("milliseconds", false));
+
+    run("cyber", pipeline(true,
+        processor("io.annot8.components.cyber.processors.Email"),
+        processor("io.annot8.components.cyber.processors.Url"),
+        processor("io.annot8.components.cyber.processors.IPv4"),
+        epoch));
+  }
+
+  public void testPatterns() throws Exception {
+    Map<String, Object> patterns = new HashMap<>();
+    patterns.put("case_number", "[A-Z]{2}[0-9]{6}");
+    patterns.put("internal_id", "ID-[0-9]+");
+    patterns.put("bitcoin_address", "[13][a-km-zA-HJ-NP-Z1-9]{25,34}");
+
+    Map<String, Object> pattern = processor(PatternProcessor.class.getName());
+    pattern.put("settings", Collections.singletonMap("patterns", patterns));
+
+    run("patterns", pipeline(true, processor("io.annot8.components.cyber.processors.Email"), pattern));
+  }
+
+  /**
+   * Creates a pipeline with the given Annot8 processors, indexes the generated documents through
+   * it from concurrent clients, and records the results under the given name
+   */
+  private void run(String name, BytesReference pipeline) throws Exception {
+    assertAcked(client().admin().cluster().preparePutPipeline(name, pipeline, XContentType.JSON).get());
+    createIndex(name);
+    ensureGreen(name);
+
+    for(int i = 0; i < WARMUP_BULKS; i++)
+      bulk(name, i);
+
+    long heapBefore = heapUsedAfterGc();
+    NodesStatsResponse before = nodesStats();
+
+    Collection<Long> latencies = new ConcurrentLinkedQueue<>();
+    AtomicInteger next = new AtomicInteger();
+    AtomicLong failed = new AtomicLong();
+    AtomicLong rejected = new AtomicLong();
+
+    //Sample the heap used while the bulk requests are running, to find its peak
+    AtomicLong heapPeak = new AtomicLong();
+    ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+    sampler.scheduleAtFixedRate(() -> heapPeak.accumulateAndGet(heapUsed(), Math::max),
+        0, HEAP_SAMPLE_MILLIS, TimeUnit.MILLISECONDS);
+
+    ExecutorService clients = Executors.newFixedThreadPool(CLIENTS);
+    long took;
+    try {
+      List<Future<?>> futures = new ArrayList<>(CLIENTS);
+      long start = System.nanoTime();
+      for(int c = 0; c < CLIENTS; c++){
+        futures.add(clients.submit(() -> {
+          for(int i = next.getAndIncrement(); i < BULKS; i = next.getAndIncrement()){
+            long bulkStart = System.nanoTime();
+            try {
+              BulkResponse response = bulk(name, WARMUP_BULKS + i);
+              latencies.add(System.nanoTime() - bulkStart);
+              for(BulkItemResponse item : response.getItems()){
+                if(item.isFailed())
+                  failed.incrementAndGet();
+              }
+            }catch (Exception e){
+              if(!(ExceptionsHelper.unwrapCause(e) instanceof EsRejectedExecutionException))
+                throw e;
+
+              rejected.incrementAndGet();
+            }
+          }
+
+          return null;
+        }));
+      }
+
+      for(Future<?> future : futures)
+        future.get();
+      took = System.nanoTime() - start;
+    }finally {
+      clients.shutdownNow();
+      sampler.shutdownNow();
+      sampler.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
+    NodesStatsResponse after = nodesStats();
+    long heapAfter = heapUsedAfterGc();
+
+    Map<String, Object> result = new TreeMap<>();
+    long documents = (long) (BULKS - rejected.get()) * BULK_SIZE;
+    result.put("clients", CLIENTS);
+    result.put("documents", documents);
+    result.put("failed", failed.get());
+    result.put("rejected_bulks", rejected.get());
+    result.put("took_in_millis", took / 1_000_000);
+    result.put("documents_per_second", documents * 1_000_000_000.0 / took);
+    result.put("bulk_latency_in_millis", percentiles(latencies));
+    result.put("write_rejections", rejections(after) - rejections(before));
+    result.put("ingest", ingest(before, after, name));
+    result.put("heap", heap(heapBefore, heapPeak.get(), heapAfter, after));
+    results.put(name, result);
+
+    logger.info("Throughput of {} pipeline: {}", name, result);
+
+    //Every document that wasn't rejected should have been indexed with its entities
+    assertEquals(0, failed.get());
+    refresh(name);
+
+    SearchResponse search = client().prepareSearch(name).setSize(0).get();
+    assertHitCount(search, (long) WARMUP_BULKS * BULK_SIZE + documents);
+  }
+
+  /**
+   * Sends a bulk request of generated documents through the pipeline. The documents depend only
+   * on the number of the bulk request, so are the same whichever client sends it.
+   */
+  private BulkResponse bulk(String pipeline, int bulk) throws IOException {
+    Random random = new Random(42L + bulk);
+
+    BulkRequestBuilder request = client().prepareBulk();
+    for(int i = 0; i < BULK_SIZE; i++){
+      XContentBuilder source = XContentFactory.jsonBuilder().startObject();
+      for(String field : FIELDS)
+        source.field(field, text(random, field.equals("subject") ? 64 : FIELD_SIZE));
+      source.endObject();
+
+      request.add(client().prepareIndex(pipeline, "_doc", bulk + "_" + i)
+          .setPipeline(pipeline)
+          .setSource(source));
+    }
+
+    return request.get();
+  }
+
+  private static NodesStatsResponse nodesStats(){
+    return client().admin().cluster().prepareNodesStats().setThreadPool(true).setJvm(true).setIngest(true).get();
+  }
+
+  /**
+   * Returns the number of requests rejected by the write thread pool, across all nodes
+   */
+  private static long rejections(NodesStatsResponse response){
+    long rejected = 0;
+    for(NodeStats node : response.getNodes()){
+      for(ThreadPoolStats.Stats stats : node.getThreadPool()){
+        if(ThreadPool.Names.WRITE.equals(stats.getName()))
+          rejected += stats.getRejected();
+      }
+    }
+
+    return rejected;
+  }
+
+  /**
+   * Returns the ingest statistics for the pipeline between the two responses, across all nodes
+   */
+  private static Map<String, Object> ingest(NodesStatsResponse before, NodesStatsResponse after, String pipeline){
+    long[] start = ingestTotals(before, pipeline);
+    long[] end = ingestTotals(after, pipeline);
+
+    Map<String, Object> ingest = new TreeMap<>();
+    ingest.put("count", end[0] - start[0]);
+    ingest.put("failed", end[1] - start[1]);
+    ingest.put("time_in_millis", end[2] - start[2]);
+
+    return ingest;
+  }
+
+  /**
+   * Returns the cumulative ingest count, failed count and time in milliseconds for the pipeline,
+   * summed across all nodes
+   */
+  private static long[] ingestTotals(NodesStatsResponse response, String pipeline){
+    long[] totals = new long[3];
+    for(NodeStats node : response.getNodes()){
+      IngestStats.Stats stats = node.getIngestStats().getStatsPerPipeline().get(pipeline);
+      if(stats != null){
+        totals[0] += stats.getIngestCount();
+        totals[1] += stats.getIngestFailedCount();
+        totals[2] += stats.getIngestTimeInMillis();
+      }
+    }
+
+    return totals;
+  }
+
+  /**
+   * Returns the heap used before and after the run (each measured after a forced garbage
+   * collection), the peak heap used sampled during the run, and the maximum heap
+   */
+  private static Map<String, Object> heap(long before, long peak, long after, NodesStatsResponse response){
+    long max = 0;
+    for(NodeStats node : response.getNodes())
+      max += node.getJvm().getMem().getHeapMax().getBytes();
+
+    Map<String, Object> heap = new TreeMap<>();
+    heap.put("used_before_in_bytes", before);
+    heap.put("used_peak_in_bytes", peak);
+    heap.put("used_after_in_bytes", after);
+    heap.put("max_in_bytes", max);
+
+    return heap;
+  }
+
+  /**
+   * Returns the heap used, summed across all nodes
+   */
+  private static long heapUsed(){
+    long used = 0;
+    for(NodeStats node : client().admin().cluster().prepareNodesStats().setJvm(true).get().getNodes())
+      used += node.getJvm().getMem().getHeapUsed().getBytes();
+
+    return used;
+  }
+
+  /**
+   * Returns the heap used after forcing a garbage collection, so that garbage left by earlier
+   * requests isn't counted. The nodes run in this JVM, so collecting here collects their heap.
+   */
+  private static long heapUsedAfterGc(){
+    System.gc();
+    return heapUsed();
+  }
+
+  /**
+   * Returns the median, 90th and 99th percentiles and maximum of the latencies, in milliseconds
+   */
+  private static Map<String, Object> percentiles(Collection<Long> latencies){
+    long[] sorted = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+
+    Map<String, Object> percentiles = new TreeMap<>();
+    percentiles.put("p50", percentile(sorted, 0.5));
+    percentiles.put("p90", percentile(sorted, 0.9));
+    percentiles.put("p99", percentile(sorted, 0.99));
+    percentiles.put("max", sorted.length == 0 ? 0.0 : sorted[sorted.length - 1] / 1_000_000.0);
+
+    return percentiles;
+  }
+
+  private static double percentile(long[] sorted, double p){
+    if(sorted.length == 0)
+      return 0.0;
+
+    int index = (int) Math.ceil(p * sorted.length) - 1;
+    return sorted[Math.max(0, Math.min(index, sorted.length - 1))] / 1_000_000.0;
+  }
+
+  /**
+   * Returns the pipeline definition for an extract processor with the given Annot8 processors
+   */
+  @SafeVarargs
+  private static BytesReference pipeline(boolean typed, Map<String, Object>... processors) throws IOException {
+    XContentBuilder builder = XContentFactory.jsonBuilder().startObject();
+    builder.field("description", "Throughput test pipeline");
+    builder.startArray("processors");
+    builder.startObject();
+    builder.startObject(ExtractProcessor.TYPE);
+    builder.field("fields", FIELDS);
+    builder.field("processors", Arrays.asList(processors));
+    if(typed)
+      builder.field("output", "typed");
+    builder.endObject();
+    builder.endObject();
+    builder.endArray();
+    builder.endObject();
+
+    return BytesReference.bytes(builder);
+  }
+
+  private static Map<String, Object> processor(String clazz){
+    Map<String, Object> processor = new HashMap<>();
+    processor.put("class", clazz);
+
+    return processor;
+  }
+
+  /**
+   * Generates approximately length characters of text, interspersed with e-mail addresses, URLs,
+   * IP addresses, epoch times, case numbers and internal IDs
+   */
+  private static String text(Random random, int length){
+    StringBuilder sb = new StringBuilder(length + 48);
+
+    while(sb.length() < length){
+      switch(random.nextInt(ENTITY_RATE)){
+        case 0:
+          sb.append("user").append(random.nextInt(1000)).append("@example.com");
+          break;
+        case 1:
+          sb.append(1500000000L + random.nextInt(100000000));
+          break;
+        case 2:
+          sb.append("https://www.example.com/page/").append(random.nextInt(1000));
+          break;
+        case 3:
+          sb.append("192.168.").append(random.nextInt(256)).append('.').append(random.nextInt(256));
+          break;
+        case 4:
+          sb.append("AB").append(100000 + random.nextInt(900000));
+          break;
+        case 5:
+          sb.append("ID-").append(random.nextInt(100000));
+          break;
+        default:
+          sb.append(WORDS[random.nextInt(WORDS.length)]);
+      }
+      sb.append(' ');
+    }
+
+    return sb.toString();
+  }
+
+  /**
+   * Writes the results of all of the mixes that were run to the report
+   */
+  @AfterClass
+  public static void writeReport() throws IOException {
+    if(results.isEmpty())
+      return;
+
+    Path report = Paths.get(System.getProperty("tests.throughput.report", "target/throughput-report.json"));
+    if(report.getParent() != null)
+      Files.createDirectories(report.getParent());
+
+    XContentBuilder builder;
+    try (OutputStream out = Files.newOutputStream(report)) {
+      builder = XContentFactory.jsonBuilder(out).prettyPrint();
+      builder.startObject();
+      builder.field("timestamp", System.currentTimeMillis());
+      builder.field("elasticsearch_version", Version.CURRENT.toString());
+      builder.field("java_version", System.getProperty("java.version"));
+      builder.field("bulks", BULKS);
+      builder.field("bulk_size", BULK_SIZE);
+      builder.field("field_size", FIELD_SIZE);
+      builder.field("clients", CLIENTS);
+      builder.field("pipelines", new ArrayList<>(results.keySet()));
+      builder.field("results", results);
+      builder.endObject();
+      builder.close();
+    }
+
+    results.clear();
+  }
+}
@@ -0,0 +1,93 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+
+public class FieldFilterTest {
+
+  @Test
+  public void testIncludes(){
+    FieldFilter filter = FieldFilter.parse(Arrays.asList("body", "headers.*"));
+
+    assertTrue(filter.matches("body"));
+    assertTrue(filter.matches("headers.from"));
+    assertFalse(filter.matches("subject"));
+    assertFalse(filter.matches("body.text"));
+  }
+
+  @Test
+  public void testExcludes(){
+    Map<String, Object> config = new HashMap<>();
+    config.put("exclude", Collections.singletonList("headers.date"));
+    FieldFilter filter = FieldFilter.parse(config);
+
+    assertTrue(filter.matches("body"));
+    assertTrue(filter.matches("headers.from"));
+    assertFalse(filter.matches("headers.date"));
+
+    config.put("include", "headers.*");
+    filter = FieldFilter.parse(config);
+
+    assertFalse(filter.matches("body"));
+    assertTrue(filter.matches("headers.from"));
+    assertFalse(filter.matches("headers.date"));
+  }
+
+  @Test
+  public void testPathOf(){
+    assertEquals("body", FieldFilter.pathOf("body"));
+    assertEquals("messages.body", FieldFilter.pathOf("messages.0.body"));
+    assertEquals("messages.body", FieldFilter.pathOf("messages.12.body"));
+    assertEquals("tags", FieldFilter.pathOf("tags.3"));
+    assertEquals("a.b", FieldFilter.pathOf("a.0.1.b"));
+    assertEquals("a1.b", FieldFilter.pathOf("a1.b"));
+  }
+
+  @Test
+  public void testBadConfig(){
+    try{
+      FieldFilter.parse("body");
+      fail("Expected exception not thrown");
+    }catch (IllegalArgumentException iae){
+      //Expected exception, do nothing
+    }
+
+    try{
+      FieldFilter.parse(Collections.singletonMap("includes", Collections.singletonList("body")));
+      fail("Expected exception not thrown");
+    }catch (IllegalArgumentException iae){
+      //Expected exception, do nothing
+    }
+
+    try{
+      FieldFilter.parse(Arrays.asList("body", 1));
+      fail("Expected exception not thrown");
+    }catch (IllegalArgumentException iae){
+      //Expected exception, do nothing
+    }
+  }
+}
@@ -0,0 +1,122 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.elasticsearch.ingest.IngestDocument;
+import org.junit.Test;
+
+public class FieldPathTest {
+
+  private static IngestDocument document(){
+    Map<String, Object> message1 = new HashMap<>();
+    message1.put("body", "first body");
+    message1.put("size", 10);
+
+    Map<String, Object> message2 = new HashMap<>();
+    message2.put("body", "second body");
+
+    Map<String, Object> header = new HashMap<>();
+    header.put("from", "john@example.com");
+
+    Map<String, Object> source = new HashMap<>();
+    source.put("content", "some content");
+    source.put("count", 3);
+    source.put("tags", Arrays.asList("a", "b"));
+    source.put("header", header);
+    source.put("messages", Arrays.asList(message1, message2));
+    source.put("_id", "1");
+
+    return new IngestDocument(source, Collections.emptyMap());
+  }
+
+  private static Map<String, String> resolve(String path){
+    Map<String, String> values = new LinkedHashMap<>();
+    FieldPath.compile(path).resolve(document(), values::put);
+
+    return values;
+  }
+
+  @Test
+  public void testSimple(){
+    assertEquals(Collections.singletonMap("content", "some content"), resolve("content"));
+    assertEquals(Collections.singletonMap("content", "some content"), resolve("_source.content"));
+    assertEquals(Collections.singletonMap("header.from", "john@example.com"), resolve("header.from"));
+  }
+
+  @Test
+  public void testMissingAndNonText(){
+    assertEquals(Collections.emptyMap(), resolve("missing"));
+    assertEquals(Collections.emptyMap(), resolve("header.missing"));
+    assertEquals(Collections.emptyMap(), resolve("count"));
+    assertEquals(Collections.emptyMap(), resolve("header"));
+  }
+
+  @Test
+  public void testArrays(){
+    Map<String, String> expected = new LinkedHashMap<>();
+    expected.put("tags.0", "a");
+    expected.put("tags.1", "b");
+    assertEquals(expected, resolve("tags"));
+
+    expected = new LinkedHashMap<>();
+    expected.put("messages.0.body", "first body");
+    expected.put("messages.1.body", "second body");
+    assertEquals(expected, resolve("messages.body"));
+    assertEquals(expected, resolve("messages[].body"));
+
+    assertEquals(Collections.singletonMap("messages.1.body", "second body"), resolve("messages.1.body"));
+    assertEquals(Collections.emptyMap(), resolve("messages.5.body"));
+  }
+
+  @Test
+  public void testResolveAll(){
+    Map<String, String> values = new HashMap<>();
+    FieldPath.resolveAll(document(), Collections.singleton("tags"), values::put);
+
+    Map<String, String> expected = new HashMap<>();
+    expected.put("content", "some content");
+    expected.put("header.from", "john@example.com");
+    expected.put("messages.0.body", "first body");
+    expected.put("messages.1.body", "second body");
+    assertEquals(expected, values);
+  }
+
+  @Test
+  public void testInvalid(){
+    try{
+      FieldPath.compile("");
+      fail("Expected exception not thrown");
+    }catch (IllegalArgumentException iae){
+      //Expected exception, do nothing
+    }
+
+    try{
+      FieldPath.compile("a..b");
+      fail("Expected exception not thrown");
+    }catch (IllegalArgumentException iae){
+      //Expected exception, do nothing
+    }
+  }
+}
@@ -0,0 +1,67 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.junit.Test;
+
+public class FieldRouterTest {
+
+  @Test
+  public void testRoute(){
+    FieldRouter router = new FieldRouter(Arrays.asList(
+        null,
+        FieldFilter.parse(Collections.singletonList("body")),
+        FieldFilter.parse(Arrays.asList("body", "headers.*"))
+    ));
+
+    assertArrayEquals(new int[]{0, 1, 2}, router.route("body").getProcessors());
+    assertArrayEquals(new int[]{0, 2}, router.route("headers.from").getProcessors());
+    assertArrayEquals(new int[]{0}, router.route("subject").getProcessors());
+
+    //Routes are shared between paths with the same processors
+    assertSame(router.route("headers.from"), router.route("headers.to"));
+    assertSame(router.route("messages.0.body"), router.route("messages.1.body"));
+  }
+
+  @Test
+  public void testGroup(){
+    FieldRouter router = new FieldRouter(Arrays.asList(
+        FieldFilter.parse(Collections.singletonList("body")),
+        FieldFilter.parse(Collections.singletonList("headers.*"))
+    ));
+    router.prepare(Arrays.asList("body", "headers.from"));
+
+    Map<String, String> texts = new LinkedHashMap<>();
+    texts.put("body", "Hello");
+    texts.put("headers.from", "john@example.com");
+    texts.put("headers.to", "jane@example.com");
+    texts.put("subject", "Greetings");
+
+    Map<FieldRouter.Route, Map<String, String>> groups = router.group(texts);
+    assertEquals(2, groups.size());
+    assertEquals(Collections.singletonMap("body", "Hello"), groups.get(router.route("body")));
+    assertEquals(2, groups.get(router.route("headers.from")).size());
+  }
+}
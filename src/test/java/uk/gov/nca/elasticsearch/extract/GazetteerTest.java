@@ -0,0 +1,156 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+public class GazetteerTest {
+
+  private final Gazetteers gazetteers = new Gazetteers();
+
+  private static List<String> matches(Gazetteer gazetteer, String text) throws IOException {
+    List<String> matches = new ArrayList<>();
+    gazetteer.match(text, (begin, end) -> matches.add(text.substring(begin, end)));
+
+    return matches;
+  }
+
+  @Test
+  public void testMatch() throws Exception {
+    Gazetteer gazetteer = Gazetteer.of(Arrays.asList("john", "john smith", "example.com", "smith"), false);
+    assertEquals(4, gazetteer.getEntries());
+    assertTrue(gazetteer.getSizeInBytes() > 0);
+
+    assertEquals(Arrays.asList("john", "john smith", "smith", "example.com"),
+        matches(gazetteer, "Ask john smith at example.com"));
+
+    //Matches must be on word boundaries, and case matters
+    assertEquals(Arrays.asList(), matches(gazetteer, "johnny blacksmith at myexample.com John"));
+
+    assertEquals(2, gazetteer.getTexts());
+    assertEquals(4, gazetteer.getMatches());
+  }
+
+  @Test
+  public void testIgnoreCase() throws Exception {
+    Gazetteer gazetteer = Gazetteer.of(Arrays.asList("John Smith"), true);
+
+    assertEquals(Arrays.asList("JOHN SMITH", "john smith"), matches(gazetteer, "JOHN SMITH and john smith"));
+  }
+
+  @Test
+  public void testEmpty() throws Exception {
+    Gazetteer gazetteer = Gazetteer.of(Arrays.asList(), false);
+
+    assertEquals(0, gazetteer.getEntries());
+    assertEquals(Arrays.asList(), matches(gazetteer, "anything"));
+  }
+
+  @Test
+  public void testVersion() throws Exception {
+    Gazetteer gazetteer = Gazetteer.of(Arrays.asList("john", "smith"), false);
+
+    //The version depends on the entries, not on their order or duplicates
+    assertEquals(gazetteer.getVersion(), Gazetteer.of(Arrays.asList("smith", "john", "john"), false).getVersion());
+    assertNotEquals(gazetteer.getVersion(), Gazetteer.of(Arrays.asList("john", "smith", "jones"), false).getVersion());
+    assertNotEquals(gazetteer.getVersion(), Gazetteer.of(Arrays.asList("john", "smith"), true).getVersion());
+  }
+
+  @Test
+  public void testRegistry() throws Exception {
+    Path dir = Files.createTempDirectory("gazetteers");
+    Files.write(dir.resolve("names.txt"), Arrays.asList("# Watch list", "", "john smith", "  jane doe  "), StandardCharsets.UTF_8);
+    gazetteers.setDirectory(dir);
+
+    Gazetteer gazetteer = gazetteers.get("names", false);
+    assertEquals(2, gazetteer.getEntries());
+    assertEquals(Arrays.asList("jane doe"), matches(gazetteer, "Contact jane doe"));
+
+    //Gazetteers are shared
+    assertSame(gazetteer, gazetteers.get("names", false));
+    assertTrue(gazetteers.all().containsKey("names"));
+
+    try {
+      gazetteers.get("../names", false);
+      fail("Expected exception not thrown");
+    }catch (IllegalArgumentException iae){
+      //Expected exception, do nothing
+    }
+
+    try {
+      gazetteers.get("missing", false);
+      fail("Expected exception not thrown");
+    }catch (IOException ioe){
+      //Expected exception, do nothing
+    }
+    //Each node has its own gazetteers, read from its own directory
+    Path otherDir = Files.createTempDirectory("gazetteers");
+    Files.write(otherDir.resolve("names.txt"), Arrays.asList("john smith"), StandardCharsets.UTF_8);
+    Gazetteers other = new Gazetteers();
+    other.setDirectory(otherDir);
+
+    assertEquals(Arrays.asList("john smith"), matches(other.get("names", false), "Contact jane doe or john smith"));
+    assertSame(gazetteer, gazetteers.get("names", false));
+  }
+
+  @Test
+  public void testStagedReload() throws Exception {
+    Path dir = Files.createTempDirectory("gazetteers");
+    Path file = dir.resolve("names.txt");
+    Files.write(file, Arrays.asList("john smith"), StandardCharsets.UTF_8);
+    gazetteers.setDirectory(dir);
+
+    Gazetteer original = gazetteers.get("names", false);
+    Files.write(file, Arrays.asList("john smith", "jane doe"), StandardCharsets.UTF_8);
+
+    //Staged gazetteers are read again, but don't replace the current ones until committed
+    Gazetteers.Snapshot staged = gazetteers.stage();
+    Gazetteer reloaded = staged.get("names", false);
+    assertEquals(2, reloaded.getEntries());
+    assertSame(reloaded, staged.get("names", false));
+    assertSame(original, gazetteers.get("names", false));
+    assertSame(original, gazetteers.all().get("names"));
+
+    gazetteers.commit(staged, true);
+    assertSame(reloaded, gazetteers.get("names", false));
+
+    //Gazetteers which fail to load are kept if the reload is incomplete
+    Files.delete(file);
+    staged = gazetteers.stage();
+    try {
+      staged.get("names", false);
+      fail("Expected exception not thrown");
+    }catch (IOException ioe){
+      //Expected exception, do nothing
+    }
+    gazetteers.commit(staged, false);
+    assertSame(reloaded, gazetteers.get("names", false));
+  }
+}
@@ -0,0 +1,77 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import io.annot8.components.base.processors.Regex;
+import io.annot8.components.cyber.processors.Email;
+import io.annot8.components.cyber.processors.IPv6;
+import io.annot8.core.settings.EmptySettings;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+import uk.gov.nca.elasticsearch.extract.ExtractSettings.ProcessorSettingsPair;
+
+public class LiteralPrefilterTest {
+
+  @Test
+  public void testSelect(){
+    List<Set<String>> triggers = Arrays.asList(
+        Collections.singleton("@"),
+        null,
+        Set.of("he", "she", "hers"),
+        Collections.singleton("http")
+    );
+
+    LiteralPrefilter prefilter = new LiteralPrefilter(triggers);
+
+    assertArrayEquals(new boolean[]{false, true, false, false},
+        prefilter.select(Collections.singletonList("nothing to see")));
+    assertArrayEquals(new boolean[]{true, true, false, false},
+        prefilter.select(Collections.singletonList("contact me@example.com")));
+
+    //Literals found via failure links, and literals split across texts are not matched
+    assertArrayEquals(new boolean[]{false, true, true, false},
+        prefilter.select(Collections.singletonList("ushers")));
+    assertArrayEquals(new boolean[]{false, true, false, true},
+        prefilter.select(Arrays.asList("ht", "tp", "see http")));
+  }
+
+  @Test
+  public void testForProcessors(){
+    //Regex has no built-in triggers, so there is nothing to filter
+    assertNull(LiteralPrefilter.forProcessors(Collections.singletonList(new ProcessorSettingsPair(Regex.class))));
+
+    //Declared triggers override the built-in ones, and an empty declaration disables the gate
+    LiteralPrefilter prefilter = LiteralPrefilter.forProcessors(Arrays.asList(
+        new ProcessorSettingsPair(Email.class),
+        new ProcessorSettingsPair(Regex.class, EmptySettings.getInstance(), Collections.singletonList("CASE-")),
+        new ProcessorSettingsPair(IPv6.class, EmptySettings.getInstance(), Collections.emptyList())
+    ));
+    assertNotNull(prefilter);
+
+    assertArrayEquals(new boolean[]{false, false, true},
+        prefilter.select(Collections.singletonList("case-123")));
+    assertArrayEquals(new boolean[]{true, true, true},
+        prefilter.select(Collections.singletonList("CASE-123 from me@example.com")));
+  }
+}
@@ -0,0 +1,142 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.lucene.util.automaton.Operations;
+import org.junit.Test;
+
+public class PatternSetTest {
+
+  private static final int MAX_STATES = Operations.DEFAULT_MAX_DETERMINIZED_STATES;
+  private static final int MAX_LENGTH = PatternProcessor.PatternSettings.DEFAULT_MAX_LENGTH;
+
+  private static List<String> matches(PatternSet patterns, String text){
+    List<String> matches = new ArrayList<>();
+    patterns.matchFromEachStart(text, (pattern, begin, end) ->
+        matches.add(patterns.getNames().get(pattern) + "=" + text.substring(begin, end)));
+
+    return matches;
+  }
+
+  private static Map<String, String> patterns(String... namesAndPatterns){
+    Map<String, String> patterns = new LinkedHashMap<>();
+    for(int i = 0; i < namesAndPatterns.length; i += 2)
+      patterns.put(namesAndPatterns[i], namesAndPatterns[i + 1]);
+
+    return patterns;
+  }
+
+  @Test
+  public void testMatch(){
+    PatternSet patterns = PatternSet.compile(patterns(
+        "case_number", "[A-Z]{2}[0-9]{6}",
+        "internal_id", "ID-[0-9]+",
+        "bitcoin_address", "[13][a-km-zA-HJ-NP-Z1-9]{25,34}"), false, true, MAX_STATES, MAX_LENGTH);
+    assertEquals(Arrays.asList("case_number", "internal_id", "bitcoin_address"), patterns.getNames());
+    assertTrue(patterns.getStates() > 0);
+
+    assertEquals(Arrays.asList("case_number=AB123456", "internal_id=ID-42", "bitcoin_address=1BoatSLRHtKNngkdXEeobR76b53LETtpyT"),
+        matches(patterns, "Case AB123456 (ID-42) paid 1BoatSLRHtKNngkdXEeobR76b53LETtpyT yesterday"));
+
+    //Matches must be on word boundaries, and case matters
+    assertEquals(Collections.emptyList(), matches(patterns, "XAB123456 ab123456 ID-42X id-42"));
+  }
+
+  @Test
+  public void testLongestMatch(){
+    PatternSet patterns = PatternSet.compile(patterns("number", "[0-9]+(\\.[0-9]+)?"), false, false, MAX_STATES, MAX_LENGTH);
+
+    //The longest match at each start is reported, and matches of the same pattern don't overlap
+    assertEquals(Arrays.asList("number=12.5", "number=7"), matches(patterns, "x12.5y7"));
+  }
+
+  @Test
+  public void testOverlappingPatterns(){
+    PatternSet patterns = PatternSet.compile(patterns(
+        "reference", "[A-Z]+-[0-9]+",
+        "number", "[0-9]+"), false, false, MAX_STATES, MAX_LENGTH);
+
+    //Different patterns can match the same text
+    assertEquals(Arrays.asList("reference=REF-123", "number=123"), matches(patterns, "REF-123"));
+  }
+
+  @Test
+  public void testIgnoreCase(){
+    PatternSet patterns = PatternSet.compile(patterns("case_number", "[a-z]{2}[0-9]{6}"), true, true, MAX_STATES, MAX_LENGTH);
+
+    assertEquals(Arrays.asList("case_number=AB123456", "case_number=ab123456"), matches(patterns, "AB123456 and ab123456"));
+  }
+
+  @Test
+  public void testSupplementaryCharacters(){
+    PatternSet patterns = PatternSet.compile(patterns("smile", "\uD83D\uDE00+"), false, false, MAX_STATES, MAX_LENGTH);
+
+    assertEquals(Arrays.asList("smile=\uD83D\uDE00\uD83D\uDE00"), matches(patterns, "a\uD83D\uDE00\uD83D\uDE00b"));
+  }
+
+  @Test
+  public void testNoBacktracking(){
+    PatternSet patterns = PatternSet.compile(patterns("evil", "(a+)+b"), false, false, MAX_STATES, MAX_LENGTH);
+
+    StringBuilder sb = new StringBuilder();
+    for(int i = 0; i < 5000; i++)
+      sb.append('a');
+
+    assertEquals(Collections.emptyList(), matches(patterns, sb.toString()));
+  }
+
+  @Test
+  public void testMaxLength(){
+    PatternSet patterns = PatternSet.compile(patterns("internal_id", "ID-[0-9]+"), false, true, MAX_STATES, 6);
+
+    //Matches longer than the maximum length aren't found
+    assertEquals(Arrays.asList("internal_id=ID-123"), matches(patterns, "ID-123 ID-1234"));
+
+    try{
+      PatternSet.compile(patterns("internal_id", "ID-[0-9]+"), false, true, MAX_STATES, 0);
+      fail("Expected exception not thrown");
+    }catch (IllegalArgumentException iae){
+      //Expected exception, do nothing
+    }
+  }
+
+  @Test
+  public void testInvalid(){
+    for(Map<String, String> invalid : Arrays.asList(
+        Collections.<String, String>emptyMap(),
+        patterns("unbalanced", "(abc"),
+        patterns("empty", "a*"),
+        patterns("nothing", "a&b"))){
+      try{
+        PatternSet.compile(invalid, false, true, MAX_STATES, MAX_LENGTH);
+        fail("Expected exception not thrown");
+      }catch (IllegalArgumentException iae){
+        //Expected exception, do nothing
+      }
+    }
+  }
+}
@@ -0,0 +1,177 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
+import org.elasticsearch.cluster.service.ClusterApplierService;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.ingest.PipelineConfiguration;
+import org.junit.Test;
+import uk.gov.nca.elasticsearch.extract.ExtractStats.PipelineStats;
+
+public class PipelineTrackerTest {
+
+  @Test
+  public void testUpdate() throws Exception {
+    ExtractService service = new ExtractService(Settings.EMPTY);
+    PipelineTracker tracker = service.getPipelineTracker();
+    ProcessorRegistry registry = service.getProcessorRegistry();
+    ExtractProcessor.Factory factory = new ExtractProcessor.Factory(service);
+
+    //Pipelines are created on the cluster applier thread, which the tracker is updated on
+    AtomicReference<ExtractProcessor> first = new AtomicReference<>();
+    onApplierThread(() -> {
+      first.set(factory.create(Collections.emptyMap(), "first", config()));
+      tracker.update(Collections.singletonList(pipeline("one", "{\"extract\": {\"tag\": \"first\", \"fields\": [\"text\"]}}")));
+      return null;
+    });
+    assertEquals(1, tracker.size());
+    assertEquals(1, registry.size());
+    assertSame(service.getStats().pipeline("one", "first"), first.get().getStats());
+
+    //Processors created on other threads (e.g. to validate a pipeline) aren't tracked
+    ExtractProcessor validate = factory.create(Collections.emptyMap(), "validate", config());
+    assertEquals(1, tracker.size());
+    validate.close();
+
+    //The pipelines are replaced, so the processors from before are closed and only the new one is
+    //kept, and the statistics of the removed pipeline are removed
+    PipelineStats removed = service.getStats().pipeline("one", "first");
+    AtomicReference<ExtractProcessor> second = new AtomicReference<>();
+    onApplierThread(() -> {
+      second.set(factory.create(Collections.emptyMap(), "second", config()));
+      tracker.update(Collections.singletonList(pipeline("two", "{\"extract\": {\"tag\": \"second\", \"fields\": [\"text\"]}}")));
+      return null;
+    });
+    assertEquals(1, tracker.size());
+    assertEquals(1, registry.size());
+    assertSame(service.getStats().pipeline("two", "second"), second.get().getStats());
+    assertNotSame(removed, service.getStats().pipeline("one", "first"));
+
+    //The pipelines are removed, so nothing is kept
+    onApplierThread(() -> {
+      tracker.update(Collections.emptyList());
+      return null;
+    });
+    assertEquals(0, tracker.size());
+    assertEquals(0, registry.size());
+  }
+
+  @Test
+  public void testSameTag() throws Exception {
+    ExtractService service = new ExtractService(Settings.EMPTY);
+    PipelineTracker tracker = service.getPipelineTracker();
+    ExtractProcessor.Factory factory = new ExtractProcessor.Factory(service);
+
+    //Untagged processors in the same pipeline, and in different pipelines, have their own statistics
+    onApplierThread(() -> {
+      ExtractProcessor first = factory.create(Collections.emptyMap(), null, config());
+      ExtractProcessor second = factory.create(Collections.emptyMap(), null, config());
+      ExtractProcessor third = factory.create(Collections.emptyMap(), null, config());
+      tracker.update(Arrays.asList(
+          pipeline("one", "{\"extract\": {\"fields\": [\"text\"]}}, {\"extract\": {\"fields\": [\"text\"]}}"),
+          pipeline("two", "{\"extract\": {\"fields\": [\"text\"]}}")));
+
+      assertSame(service.getStats().pipeline("one", ExtractStats.UNTAGGED), first.getStats());
+      assertSame(service.getStats().pipeline("one", ExtractStats.UNTAGGED + "[1]"), second.getStats());
+      assertSame(service.getStats().pipeline("two", ExtractStats.UNTAGGED), third.getStats());
+      return null;
+    });
+  }
+
+  @Test
+  public void testCloseAll() throws Exception {
+    ExtractService service = new ExtractService(Settings.EMPTY);
+    ExtractProcessor.Factory factory = new ExtractProcessor.Factory(service);
+
+    onApplierThread(() -> {
+      factory.create(Collections.emptyMap(), "first", config());
+      factory.create(Collections.emptyMap(), "second", config());
+      return null;
+    });
+    assertEquals(2, service.getPipelineTracker().size());
+    assertEquals(1, service.getProcessorRegistry().size());
+
+    //Closing the service closes every processor, releasing their pools
+    service.close();
+    assertEquals(0, service.getPipelineTracker().size());
+    assertEquals(0, service.getProcessorRegistry().size());
+  }
+
+  @Test
+  public void testUntracked() throws Exception {
+    ExtractService service = new ExtractService(Settings.EMPTY);
+    ExtractProcessor.Factory factory = new ExtractProcessor.Factory(service);
+
+    //Processors which aren't part of a stored pipeline are closed by their caller, or released
+    //once they are unreachable
+    ExtractProcessor processor = factory.createUntracked("untracked", config());
+    ExtractProcessor simulated = factory.create(Collections.emptyMap(), "simulated", config());
+    assertEquals(0, service.getPipelineTracker().size());
+    assertEquals(1, service.getProcessorRegistry().size());
+
+    processor.close();
+    processor.close();
+    assertEquals(1, service.getProcessorRegistry().size());
+
+    simulated.close();
+    assertEquals(0, service.getProcessorRegistry().size());
+  }
+
+  /**
+   * Runs the body on a thread named like the cluster applier thread, rethrowing anything it throws
+   */
+  private static void onApplierThread(Callable<Void> body) throws Exception {
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    Thread t = new Thread(() -> {
+      try {
+        body.call();
+      }catch (Throwable e){
+        failure.set(e);
+      }
+    }, "test[" + ClusterApplierService.CLUSTER_UPDATE_THREAD_NAME + "]");
+    t.start();
+    t.join();
+
+    if(failure.get() instanceof Exception)
+      throw (Exception) failure.get();
+    if(failure.get() != null)
+      throw (Error) failure.get();
+  }
+
+  private static PipelineConfiguration pipeline(String id, String processors){
+    String json = "{\"processors\": [" + processors + "]}";
+    return new PipelineConfiguration(id, new BytesArray(json), XContentType.JSON);
+  }
+
+  private static Map<String, Object> config(){
+    Map<String, Object> config = new HashMap<>();
+    config.put(ExtractProcessor.CONFIG_FIELDS, Collections.singletonList("text"));
+    return config;
+  }
+}
@@ -0,0 +1,194 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import io.annot8.components.cyber.processors.Email;
+import io.annot8.core.components.Processor;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.Test;
+import uk.gov.nca.elasticsearch.extract.GazetteerProcessor.GazetteerSettings;
+import uk.gov.nca.elasticsearch.extract.ExtractSettings.ProcessorSettingsPair;
+
+public class ProcessorPoolTest {
+
+  @Test
+  public void testAcquireRelease() throws Exception {
+    ProcessorPool pool = new ProcessorPool(new ProcessorSettingsPair(Email.class), 2, new Gazetteers().current());
+
+    //One instance is created up front to validate the configuration
+    assertEquals(1, pool.idleCount());
+
+    Processor p1 = pool.acquire();
+    Processor p2 = pool.acquire();
+    assertNotSame(p1, p2);
+    assertEquals(0, pool.idleCount());
+
+    //Released instances are reused rather than new ones being created
+    pool.release(p1);
+    assertSame(p1, pool.acquire());
+
+    pool.release(p1);
+    pool.release(p2);
+    assertEquals(2, pool.idleCount());
+  }
+
+  @Test
+  public void testReload() throws Exception {
+    ProcessorPool pool = new ProcessorPool(new ProcessorSettingsPair(Email.class), 2, new Gazetteers().current());
+
+    Processor inFlight = pool.acquire();
+    pool.reload(new Gazetteers().current());
+
+    //The reload creates a new instance up front, and the in-flight instance isn't reused
+    assertEquals(1, pool.idleCount());
+    pool.release(inFlight);
+    assertEquals(1, pool.idleCount());
+
+    Processor p = pool.acquire();
+    assertNotSame(inFlight, p);
+    pool.release(p);
+    assertEquals(1, pool.idleCount());
+  }
+
+  @Test
+  public void testReloadWhileAcquiring() throws Exception {
+    Path dir = Files.createTempDirectory("gazetteers");
+    Path file = dir.resolve("names.txt");
+    Files.write(file, Arrays.asList("john smith"), StandardCharsets.UTF_8);
+    Gazetteers gazetteers = new Gazetteers();
+    gazetteers.setDirectory(dir);
+
+    int threads = 4;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      GazetteerSettings settings = new GazetteerSettings();
+      settings.setGazetteer("names");
+      ProcessorPool pool = new ProcessorPool(new ProcessorSettingsPair(GazetteerProcessor.class, settings), threads, gazetteers.current());
+      Gazetteer original = gazetteers.get("names", false);
+
+      //Other threads borrow instances while the pool is reloaded
+      AtomicBoolean running = new AtomicBoolean(true);
+      List<Future<?>> borrowers = new ArrayList<>();
+      for(int i = 0; i < threads; i++){
+        borrowers.add(executor.submit(() -> {
+          while(running.get())
+            pool.release(pool.acquire());
+
+          return null;
+        }));
+      }
+
+      Files.write(file, Arrays.asList("john smith", "jane doe"), StandardCharsets.UTF_8);
+      Gazetteers.Snapshot staged = gazetteers.stage();
+      pool.reload(staged);
+      Gazetteer reloaded = staged.get("names", false);
+      assertNotSame(original, reloaded);
+
+      running.set(false);
+      for(Future<?> f : borrowers)
+        f.get(10, TimeUnit.SECONDS);
+
+      //Instances created lazily by other threads before the reload is committed use the staged
+      //gazetteers, like the instance created by the reload
+      CyclicBarrier barrier = new CyclicBarrier(threads);
+      List<Future<Gazetteer>> used = new ArrayList<>();
+      for(int i = 0; i < threads; i++){
+        used.add(executor.submit(() -> {
+          Processor p = pool.acquire();
+          try {
+            barrier.await(10, TimeUnit.SECONDS);
+            return ((GazetteerProcessor) p).getGazetteer();
+          }finally {
+            pool.release(p);
+          }
+        }));
+      }
+
+      for(Future<Gazetteer> f : used)
+        assertSame(reloaded, f.get(10, TimeUnit.SECONDS));
+
+      gazetteers.commit(staged, true);
+      assertSame(reloaded, gazetteers.get("names", false));
+      pool.close();
+    }finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testClose() throws Exception {
+    ProcessorPool pool = new ProcessorPool(new ProcessorSettingsPair(Email.class), 1, new Gazetteers().current());
+    pool.setMaxSize(3);
+    assertEquals(3, pool.getMaxSize());
+
+    Processor p = pool.acquire();
+    pool.close();
+
+    //Instances returned after the pool has closed are not kept
+    pool.release(p);
+    assertEquals(0, pool.idleCount());
+  }
+
+  @Test
+  public void testShrink() throws Exception {
+    ProcessorPool pool = new ProcessorPool(new ProcessorSettingsPair(Email.class), 3, new Gazetteers().current());
+
+    Processor p1 = pool.acquire();
+    Processor p2 = pool.acquire();
+    Processor p3 = pool.acquire();
+    pool.release(p3);
+    assertEquals(1, pool.idleCount());
+
+    //Idle instances above the new size are closed now, and those in use when they are returned
+    pool.setMaxSize(1);
+    assertEquals(1, pool.getMaxSize());
+    assertEquals(0, pool.idleCount());
+
+    pool.release(p2);
+    assertEquals(0, pool.idleCount());
+
+    pool.release(p1);
+    assertEquals(1, pool.idleCount());
+    assertSame(p1, pool.acquire());
+  }
+
+  @Test
+  public void testInvalidSize() throws Exception {
+    try{
+      new ProcessorPool(new ProcessorSettingsPair(Email.class), 0, new Gazetteers().current());
+      fail("Expected exception not thrown");
+    }catch (IllegalArgumentException iae){
+      //Expected exception, do nothing
+    }
+  }
+}
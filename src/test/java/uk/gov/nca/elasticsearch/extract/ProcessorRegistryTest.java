@@ -0,0 +1,85 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import io.annot8.components.cyber.processors.Email;
+import io.annot8.components.cyber.processors.IPv4;
+import io.annot8.core.components.Processor;
+import org.junit.Test;
+import uk.gov.nca.elasticsearch.extract.ExtractSettings.ProcessorSettingsPair;
+
+public class ProcessorRegistryTest {
+
+  @Test
+  public void testSharing() throws Exception {
+    ProcessorRegistry registry = new ProcessorRegistry(new Gazetteers());
+
+    ProcessorPool email1 = registry.acquire(new ProcessorSettingsPair(Email.class), 2);
+    ProcessorPool email2 = registry.acquire(new ProcessorSettingsPair(Email.class), 4);
+    ProcessorPool ipv4 = registry.acquire(new ProcessorSettingsPair(IPv4.class), 2);
+
+    //Identical processors share a pool, which is large enough for all users
+    assertSame(email1, email2);
+    assertNotSame(email1, ipv4);
+    assertEquals(4, email1.getMaxSize());
+    assertEquals(2, registry.size());
+
+    //Pools are only removed and closed when the last user releases them, and shrink to the size
+    //needed by the remaining users
+    registry.release(email2, 4);
+    assertEquals(2, registry.size());
+    assertEquals(1, email1.idleCount());
+    assertEquals(2, email1.getMaxSize());
+
+    registry.release(email1, 2);
+    assertEquals(1, registry.size());
+    assertEquals(0, email1.idleCount());
+
+    //A new pool is created after the old one has been closed
+    ProcessorPool email3 = registry.acquire(new ProcessorSettingsPair(Email.class), 2);
+    assertNotSame(email1, email3);
+
+    registry.release(ipv4, 2);
+    registry.release(email3, 2);
+    assertEquals(0, registry.size());
+  }
+
+  @Test
+  public void testReload() throws Exception {
+    Gazetteers gazetteers = new Gazetteers();
+    ProcessorRegistry registry = new ProcessorRegistry(gazetteers);
+
+    ProcessorPool email = registry.acquire(new ProcessorSettingsPair(Email.class), 2);
+    Processor before = email.acquire();
+
+    //Pools are reloaded in place, so users of the pool don't need to change
+    assertTrue(registry.reload(gazetteers.stage()).isEmpty());
+    assertSame(email, registry.acquire(new ProcessorSettingsPair(Email.class), 2));
+
+    Processor after = email.acquire();
+    assertNotSame(before, after);
+
+    email.release(before);
+    email.release(after);
+    assertEquals(1, email.idleCount());
+  }
+}
@@ -0,0 +1,81 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.settings.Settings;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.json.JsonXContent;
+import org.elasticsearch.rest.RestController;
+import org.elasticsearch.usage.UsageService;
+import org.junit.Test;
+
+public class RestExtractBulkActionTest {
+
+  private static RestExtractBulkAction createAction(ExtractService service){
+    RestController controller = new RestController(Settings.EMPTY, Collections.emptySet(), null, null, null, new UsageService(Settings.EMPTY));
+    return new RestExtractBulkAction(Settings.EMPTY, controller, service);
+  }
+
+  private static Map<String, Object> parse(String line){
+    return XContentHelper.convertToMap(JsonXContent.jsonXContent, line, false);
+  }
+
+  @Test
+  public void testExtract() throws Exception {
+    ExtractService service = new ExtractService(Settings.EMPTY);
+    RestExtractBulkAction action = createAction(service);
+
+    String body = "{\"processors\": [{\"class\": \"io.annot8.components.cyber.processors.Email\"}]}\n"
+        + "{\"text\": \"Contact john@example.com or jane@example.com\"}\n"
+        + "\n"
+        + "{\"text\": \"Nothing to see here\"}\n"
+        + "not json\n";
+
+    String[] lines = action.extract(new BytesArray(body)).utf8ToString().split("\n");
+    assertEquals(3, lines.length);
+
+    assertThat((List<String>) parse(lines[0]).get("entities"), containsInAnyOrder("john@example.com", "jane@example.com"));
+    assertThat((List<String>) parse(lines[1]).get("entities"), empty());
+    assertTrue(parse(lines[2]).containsKey("error"));
+
+    //The invalid line is rejected before it reaches the processor
+    assertEquals(2, service.getStats().bulk().getCount());
+  }
+
+  @Test
+  public void testMissingConfiguration() throws Exception {
+    RestExtractBulkAction action = createAction(new ExtractService(Settings.EMPTY));
+
+    try {
+      action.extract(new BytesArray("\n"));
+      fail("Expected exception not thrown");
+    }catch (IllegalArgumentException iae){
+      //Expected exception, do nothing
+    }
+  }
+}
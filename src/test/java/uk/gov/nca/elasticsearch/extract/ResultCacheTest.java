@@ -0,0 +1,89 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.Test;
+
+public class ResultCacheTest {
+
+  @Test
+  public void testDisabled(){
+    ResultCache cache = new ResultCache(Settings.EMPTY);
+    assertFalse(cache.isEnabled());
+
+    ResultCache.Key key = cache.key("abc", "text");
+    cache.put(key, Arrays.asList(new Entity("email", "a", 0, 1), new Entity("email", "b", 2, 3)));
+    assertNull(cache.get(key));
+    assertEquals(0, cache.count());
+  }
+
+  @Test
+  public void testKeys(){
+    ResultCache cache = new ResultCache(Settings.EMPTY);
+
+    assertEquals(cache.key("abc", "text"), cache.key("abc", "text"));
+    assertEquals(cache.key("abc", "text").hashCode(), cache.key("abc", "text").hashCode());
+    assertNotEquals(cache.key("abc", "text"), cache.key("abc", "other text"));
+    assertNotEquals(cache.key("abc", "text"), cache.key("def", "text"));
+  }
+
+  @Test
+  public void testPutGet(){
+    ResultCache cache = new ResultCache(Settings.builder()
+        .put(ResultCache.CACHE_SIZE_SETTING.getKey(), "1mb")
+        .build());
+    assertTrue(cache.isEnabled());
+
+    ResultCache.Key key = cache.key("abc", "john@example.com");
+    assertNull(cache.get(key));
+
+    cache.put(key, Arrays.asList(new Entity("email", "john@example.com", 0, 16)));
+    List<Entity> cached = cache.get(cache.key("abc", "john@example.com"));
+    assertEquals(1, cached.size());
+    assertEquals("john@example.com", cached.get(0).getValue());
+
+    assertEquals(1, cache.count());
+    assertTrue(cache.weight() > 0);
+    assertEquals(1, cache.stats().getHits());
+    assertEquals(1, cache.stats().getMisses());
+
+    cache.clear();
+    assertEquals(0, cache.count());
+  }
+
+  @Test
+  public void testEviction(){
+    ResultCache cache = new ResultCache(Settings.builder()
+        .put(ResultCache.CACHE_SIZE_SETTING.getKey(), "1kb")
+        .build());
+
+    for(int i = 0; i < 100; i++)
+      cache.put(cache.key("abc", "text " + i), Arrays.asList(new Entity("entity", "entity " + i, 5, 5 + String.valueOf(i).length())));
+
+    assertTrue(cache.weight() <= 1024);
+    assertTrue(cache.stats().getEvictions() > 0);
+  }
+}
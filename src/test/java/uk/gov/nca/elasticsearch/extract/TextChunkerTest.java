@@ -0,0 +1,165 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import org.junit.Test;
+import uk.gov.nca.elasticsearch.extract.TextChunker.Chunk;
+
+public class TextChunkerTest {
+
+  @Test
+  public void testShouldSplit(){
+    TextChunker chunker = new TextChunker(10, 2, 20);
+
+    assertFalse(chunker.shouldSplit("short"));
+    assertFalse(chunker.shouldSplit("exactly twenty chars"));
+    assertTrue(chunker.shouldSplit("more than twenty characters"));
+  }
+
+  @Test
+  public void testSplitAtWhitespace(){
+    TextChunker chunker = new TextChunker(12, 5, 1);
+    String text = "aaaa bbbb cccc dddd eeee";
+
+    List<Chunk> chunks = chunker.split(text);
+    assertEquals(4, chunks.size());
+
+    assertEquals("aaaa bbbb ", chunks.get(0).getText());
+    assertEquals(0, chunks.get(0).getOffset());
+    assertEquals(5, chunks.get(0).getOwned());
+
+    assertEquals("bbbb cccc ", chunks.get(1).getText());
+    assertEquals(5, chunks.get(1).getOffset());
+    assertEquals(5, chunks.get(1).getOwned());
+
+    assertEquals("cccc dddd ", chunks.get(2).getText());
+    assertEquals(10, chunks.get(2).getOffset());
+    assertEquals(5, chunks.get(2).getOwned());
+
+    assertEquals("dddd eeee", chunks.get(3).getText());
+    assertEquals(15, chunks.get(3).getOffset());
+    assertEquals(9, chunks.get(3).getOwned());
+
+    assertCovers(text, chunks);
+  }
+
+  @Test
+  public void testSplitWithoutWhitespace(){
+    TextChunker chunker = new TextChunker(10, 3, 1);
+    String text = "abcdefghijklmnopqrstuvwxyz";
+
+    //Without whitespace to start the next chunk at, chunks are cut at the chunk size and the next
+    //chunk starts the overlap before the cut
+    List<Chunk> chunks = chunker.split(text);
+    assertEquals(4, chunks.size());
+    assertEquals("abcdefghij", chunks.get(0).getText());
+    assertEquals("hijklmnopq", chunks.get(1).getText());
+    assertEquals("opqrstuvwx", chunks.get(2).getText());
+    assertEquals("vwxyz", chunks.get(3).getText());
+    assertCovers(text, chunks);
+  }
+
+  @Test
+  public void testEntityAcrossHardCut(){
+    TextChunker chunker = new TextChunker(10, 4, 1);
+    String text = "abcdefghXYZWijklmnopqrstu";
+
+    //The first chunk is cut in the middle of XYZW, which is found whole in the chunk that owns it
+    List<Chunk> chunks = chunker.split(text);
+    assertEquals("abcdefghXY", chunks.get(0).getText());
+    assertOwnedWhole(text.indexOf("XYZW"), "XYZW", chunks);
+    assertCovers(text, chunks);
+  }
+
+  @Test
+  public void testSurrogatePairsWithoutWhitespace(){
+    TextChunker chunker = new TextChunker(10, 3, 1);
+    StringBuilder sb = new StringBuilder();
+    for(int i = 0; i < 20; i++)
+      sb.append("\uD83D\uDE00");
+    String text = sb.toString();
+
+    //Chunks neither end nor start in the middle of a surrogate pair
+    List<Chunk> chunks = chunker.split(text);
+    for(Chunk c : chunks){
+      assertFalse(Character.isLowSurrogate(c.getText().charAt(0)));
+      assertFalse(Character.isHighSurrogate(c.getText().charAt(c.getText().length() - 1)));
+    }
+    assertCovers(text, chunks);
+  }
+
+  @Test
+  public void testSplitShort(){
+    TextChunker chunker = new TextChunker(10, 3, 1);
+
+    List<Chunk> chunks = chunker.split("short");
+    assertEquals(1, chunks.size());
+    assertEquals("short", chunks.get(0).getText());
+    assertEquals(5, chunks.get(0).getOwned());
+  }
+
+  @Test
+  public void testInvalid(){
+    try{
+      new TextChunker(10, 10, 1);
+      fail("Expected exception not thrown");
+    }catch (IllegalArgumentException iae){
+      //Expected exception, do nothing
+    }
+
+    try{
+      new TextChunker(0, 0, 1);
+      fail("Expected exception not thrown");
+    }catch (IllegalArgumentException iae){
+      //Expected exception, do nothing
+    }
+  }
+
+  /**
+   * Checks that the chunk which owns the entity beginning at the given position contains all of it
+   */
+  private static void assertOwnedWhole(int position, String entity, List<Chunk> chunks){
+    for(Chunk c : chunks){
+      if(position >= c.getOffset() && position < c.getOffset() + c.getOwned()){
+        assertTrue(c.getText().startsWith(entity, position - c.getOffset()));
+        return;
+      }
+    }
+
+    fail("No chunk owns position " + position);
+  }
+
+  /**
+   * Checks that the owned parts of the chunks are contiguous, and together make up the text
+   */
+  private static void assertCovers(String text, List<Chunk> chunks){
+    StringBuilder sb = new StringBuilder();
+    for(Chunk c : chunks){
+      assertEquals(sb.length(), c.getOffset());
+      assertEquals(text.substring(c.getOffset(), c.getOffset() + c.getText().length()), c.getText());
+      sb.append(c.getText(), 0, c.getOwned());
+    }
+
+    assertEquals(text, sb.toString());
+  }
+}
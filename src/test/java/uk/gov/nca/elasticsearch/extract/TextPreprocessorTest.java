@@ -0,0 +1,158 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import org.junit.Test;
+import uk.gov.nca.elasticsearch.extract.ExtractSettings.Preprocessing;
+import uk.gov.nca.elasticsearch.extract.TextPreprocessor.Preprocessed;
+
+public class TextPreprocessorTest {
+
+  private static TextPreprocessor preprocessor(Preprocessing... steps){
+    return TextPreprocessor.forSteps(EnumSet.copyOf(Arrays.asList(steps)));
+  }
+
+  /**
+   * Returns the original text covered by the given range of the preprocessed text
+   */
+  private static String original(Preprocessed p, int begin, int end){
+    return p.getOriginal().substring(p.toOriginalBegin(begin), p.toOriginalEnd(end));
+  }
+
+  @Test
+  public void testNoSteps(){
+    assertNull(TextPreprocessor.forSteps(Collections.emptySet()));
+    assertNull(TextPreprocessor.forSteps(null));
+  }
+
+  @Test
+  public void testUnchanged(){
+    String text = "already normalised text";
+    Preprocessed p = preprocessor(Preprocessing.values()).apply(text);
+
+    assertSame(text, p.getText());
+    assertFalse(p.isChanged());
+    assertEquals(0, p.bytes());
+    assertEquals(8, p.toOriginalBegin(8));
+    assertEquals(18, p.toOriginalEnd(18));
+  }
+
+  @Test
+  public void testLowercase(){
+    Preprocessed p = preprocessor(Preprocessing.LOWERCASE).apply("Contact JOHN@Example.COM");
+
+    assertEquals("contact john@example.com", p.getText());
+    assertTrue(p.isChanged());
+    assertEquals("JOHN@Example.COM", original(p, 8, 24));
+  }
+
+  @Test
+  public void testNfkc(){
+    //Full width characters and a ligature
+    Preprocessed p = preprocessor(Preprocessing.NFKC).apply("\uFF21\uFF22\uFF23 \uFB01le");
+
+    assertEquals("ABC file", p.getText());
+    assertEquals("\uFF21\uFF22\uFF23", original(p, 0, 3));
+    assertEquals("\uFB01le", original(p, 4, 8));
+    assertEquals("\uFB01", original(p, 4, 5));
+
+    //Combining marks are composed with the preceding character
+    p = preprocessor(Preprocessing.NFKC).apply("cafe\u0301 bar");
+    assertEquals("caf\u00E9 bar", p.getText());
+    assertEquals("cafe\u0301", original(p, 0, 4));
+    assertEquals("bar", original(p, 5, 8));
+  }
+
+  @Test
+  public void testDeobfuscate(){
+    Preprocessed p = preprocessor(Preprocessing.DEOBFUSCATE).apply("Mail john [at] example[dot]com or jane(@)example{.}org today");
+
+    assertEquals("Mail john@example.com or jane@example.org today", p.getText());
+    assertEquals("john [at] example[dot]com", original(p, 5, 21));
+    assertEquals("jane(@)example{.}org", original(p, 25, 41));
+    assertEquals("today", original(p, 42, 47));
+  }
+
+  @Test
+  public void testDeobfuscateUrls(){
+    Preprocessed p = preprocessor(Preprocessing.DEOBFUSCATE).apply("See hxxps://example[.]com and HXXP://example.org");
+
+    assertEquals("See https://example.com and HTTP://example.org", p.getText());
+    assertEquals("hxxps://example[.]com", original(p, 4, 23));
+  }
+
+  @Test
+  public void testDeobfuscateIgnoresBrackets(){
+    String text = "Items (a) and [b] at {c}";
+    Preprocessed p = preprocessor(Preprocessing.DEOBFUSCATE).apply(text);
+
+    assertSame(text, p.getText());
+    assertFalse(p.isChanged());
+  }
+
+  @Test
+  public void testStripHtml(){
+    Preprocessed p = preprocessor(Preprocessing.STRIP_HTML)
+        .apply("<p>Email <b>john&#64;example.com</b> &amp; more</p><script>var x = '<p>';</script><!-- note -->");
+
+    assertEquals(" Email  john@example.com  & more   ", p.getText());
+    assertEquals("john&#64;example.com", original(p, 8, 24));
+    assertEquals("&amp;", original(p, 26, 27));
+  }
+
+  @Test
+  public void testStripHtmlIgnoresText(){
+    String text = "a < b && c > d; x &unknown; y";
+    Preprocessed p = preprocessor(Preprocessing.STRIP_HTML).apply(text);
+
+    assertEquals(text, p.getText());
+    assertFalse(p.isChanged());
+  }
+
+  @Test
+  public void testCombined(){
+    //Steps are applied in a fixed order, so the entity is decoded before it is deobfuscated
+    Preprocessed p = preprocessor(Preprocessing.LOWERCASE, Preprocessing.DEOBFUSCATE, Preprocessing.NFKC, Preprocessing.STRIP_HTML)
+        .apply("<b>JOHN</b> \uFF3Bat\uFF3D Example &#91;dot&#93; COM");
+
+    assertEquals(" john@example.com", p.getText());
+    assertEquals("JOHN</b> \uFF3Bat\uFF3D Example &#91;dot&#93; COM", original(p, 1, 17));
+  }
+
+  @Test
+  public void testToOriginal(){
+    Preprocessed p = preprocessor(Preprocessing.DEOBFUSCATE).apply("x john[at]example.com");
+
+    Entity entity = p.toOriginal(new Entity("email", "john@example.com", 2, 18));
+    assertEquals("email", entity.getType());
+    assertEquals("john@example.com", entity.getValue());
+    assertEquals(2, entity.getBegin());
+    assertEquals(21, entity.getEnd());
+
+    Entity noOffsets = new Entity("email", "john@example.com", -1, -1);
+    assertSame(noOffsets, p.toOriginal(noOffsets));
+  }
+}
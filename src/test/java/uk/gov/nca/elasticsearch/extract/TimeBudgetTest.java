@@ -0,0 +1,95 @@
+/*
+National Crime Agency (c) Crown Copyright 2018
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+   http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package uk.gov.nca.elasticsearch.extract;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class TimeBudgetTest {
+
+  @Test
+  public void testUnlimited(){
+    TimeBudget budget = new TimeBudget(System.nanoTime(), 0, null);
+
+    assertFalse(budget.isExpired());
+    assertTrue(budget.canRun(0));
+    assertFalse(budget.record(0, TimeUnit.HOURS.toNanos(1)));
+    assertTrue(budget.canRun(0));
+    assertFalse(budget.isExceeded());
+    assertEquals(Long.MAX_VALUE, budget.remainingNanos());
+  }
+
+  @Test
+  public void testDeadline(){
+    TimeBudget budget = new TimeBudget(System.nanoTime(), TimeUnit.HOURS.toNanos(1), null);
+    assertFalse(budget.isExpired());
+    assertTrue(budget.canRun(0));
+    assertTrue(budget.remainingNanos() > TimeUnit.MINUTES.toNanos(59));
+
+    //Abandoning work marks the budget as exceeded, even though there is time left
+    budget.expire();
+    assertTrue(budget.isExceeded());
+
+    budget = new TimeBudget(System.nanoTime() - TimeUnit.SECONDS.toNanos(2), TimeUnit.SECONDS.toNanos(1), null);
+    assertFalse(budget.isExceeded());
+    assertTrue(budget.isExpired());
+    assertFalse(budget.canRun(0));
+    assertTrue(budget.isExceeded());
+    assertEquals(0, budget.remainingNanos());
+  }
+
+  @Test
+  public void testProcessorBudget(){
+    TimeBudget budget = new TimeBudget(System.nanoTime(), 0, new long[]{1000, 0});
+
+    assertFalse(budget.record(0, 600));
+    assertTrue(budget.canRun(0));
+    assertFalse(budget.isExceeded());
+
+    //Only the call that uses up the budget reports it
+    assertTrue(budget.record(0, 600));
+    assertFalse(budget.record(0, 600));
+
+    //Completing a processor over budget doesn't mean results are missing, skipping one does
+    assertFalse(budget.isExceeded());
+    assertFalse(budget.canRun(0));
+    assertTrue(budget.isExceeded());
+
+    //Processors without their own budget are unaffected
+    assertFalse(budget.record(1, 5000));
+    assertTrue(budget.canRun(1));
+  }
+
+  @Test
+  public void testTracking(){
+    TimeBudget budget = new TimeBudget(System.nanoTime(), 0, null, 2);
+
+    assertFalse(budget.record(0, 600));
+    assertFalse(budget.record(0, 400));
+    assertFalse(budget.record(1, 200));
+    assertEquals(1000, budget.getUsed(0));
+    assertEquals(200, budget.getUsed(1));
+    assertTrue(budget.canRun(0));
+
+    //Without tracking, no time is recorded
+    assertEquals(0, new TimeBudget(System.nanoTime(), 0, null).getUsed(0));
+  }
+}